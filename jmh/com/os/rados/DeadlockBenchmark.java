@@ -0,0 +1,73 @@
+package com.os.rados;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Deadlock detection on a wait-for graph where process i holds resource i.
+//   random: each process waits on one random resource held by someone else
+//   chain:  process i waits on resource i + 1, so asking whether the last
+//           process may wait on resource 1 walks the whole chain
+//   star:   every process waits on resource 1, and its holder asks for another
+@State(Scope.Thread)
+public class DeadlockBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int processes;
+
+    @Param({"random", "chain", "star"})
+    public String shape;
+
+    private ProcessManager pm;
+    private int probePid;
+    private int probeResource;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Log.enabled = false;
+        pm = new ProcessManager();
+        for (int pid = 1; pid <= processes; pid++) {
+            pm.createProcess("p" + pid);
+            pm.addResource(pid, pid);
+        }
+        Random random = new Random(42);
+        for (int pid = 1; pid <= processes; pid++) {
+            int resourceId;
+            switch (shape) {
+                case "random":
+                    resourceId = 1 + random.nextInt(processes);
+                    break;
+                case "chain":
+                    resourceId = pid < processes ? pid + 1 : -1;
+                    break;
+                default:
+                    resourceId = pid > 1 ? 1 : -1;
+                    break;
+            }
+            if (resourceId > 0 && resourceId != pid) {
+                pm.requestResource(pid, resourceId, 1, -1);
+            }
+        }
+        probePid = processes;
+        probeResource = 1;
+        if (shape.equals("star")) {
+            probePid = 1;
+            probeResource = processes;
+        }
+    }
+
+    @Benchmark
+    public boolean detectDeadlock() {
+        return pm.detectDeadlock(probePid, probeResource);
+    }
+
+    @Benchmark
+    public int findDeadlocks() {
+        return pm.findDeadlocks().size();
+    }
+}
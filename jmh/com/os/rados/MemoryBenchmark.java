@@ -0,0 +1,60 @@
+package com.os.rados;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Allocating and releasing one resource against memory that is already
+// partly full, so the free-page search has to skip allocated regions.
+@State(Scope.Thread)
+public class MemoryBenchmark {
+    private static final int PID = 1;
+    private static final int OTHER = 2; // fill page i belongs to pid OTHER + i
+
+    @Param({"1000", "100000", "10000000"})
+    public long memorySize;
+
+    @Param({"0", "50", "95"})
+    public int fillPercent;
+
+    @Param({"10", "100"})
+    public int allocationSize;
+
+    private MemoryManager mm;
+    private int resourceId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Log.enabled = false;
+        mm = new MemoryManager(memorySize, MemoryManager.DEFAULT_PAGE_SIZE);
+        // Scatter the fill: allocate everything, then release a spread-out share
+        int pages = mm.getNumPages();
+        for (int page = 0; page < pages; page++) {
+            mm.allocate(OTHER + page, MemoryManager.DEFAULT_PAGE_SIZE, page);
+        }
+        int keep = (int) ((long) pages * fillPercent / 100);
+        for (int page = 0; page < pages; page++) {
+            if ((long) page * keep / pages == (long) (page + 1) * keep / pages) {
+                mm.release(OTHER + page, page);
+            }
+        }
+        resourceId = pages;
+    }
+
+    @Benchmark
+    public boolean allocateRelease() {
+        boolean allocated = mm.allocate(PID, allocationSize, resourceId);
+        mm.release(PID, resourceId);
+        return allocated;
+    }
+
+    @Benchmark
+    public boolean allocateFree() {
+        boolean allocated = mm.allocate(PID, allocationSize, resourceId);
+        mm.free(PID);
+        return allocated;
+    }
+}
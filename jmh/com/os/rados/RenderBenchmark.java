@@ -0,0 +1,44 @@
+package com.os.rados;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Cost of the text the UI redraws after every action: the memory map and
+// the process list, with half the pages allocated.
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int pages;
+
+    @Param({"10", "100", "1000"})
+    public int processes;
+
+    private Kernel kernel;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Log.enabled = false;
+        kernel = new Kernel((long) pages * MemoryManager.DEFAULT_PAGE_SIZE, MemoryManager.DEFAULT_PAGE_SIZE);
+        for (int i = 0; i < processes; i++) {
+            kernel.createProcess("p" + i);
+        }
+        for (int page = 0; page < pages / 2; page++) {
+            kernel.allocate(1 + page % processes, MemoryManager.DEFAULT_PAGE_SIZE, page);
+        }
+    }
+
+    @Benchmark
+    public String printMemory() {
+        return kernel.printMemory();
+    }
+
+    @Benchmark
+    public String listProcesses() {
+        return kernel.listProcesses();
+    }
+}
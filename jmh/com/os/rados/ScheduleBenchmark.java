@@ -0,0 +1,41 @@
+package com.os.rados;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// One unpaced scheduling pass: every READY process gets a slice. Processes
+// never finish, so each pass does the same amount of work.
+@State(Scope.Thread)
+public class ScheduleBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int processes;
+
+    @Param({"rr", "priority", "mlfq"})
+    public String policy;
+
+    @Param({"1", "4"})
+    public int cores;
+
+    private ProcessManager pm;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Log.enabled = false;
+        pm = new ProcessManager();
+        pm.setScheduler(Scheduler.create(policy, ProcessManager.DEFAULT_QUANTUM, 3, cores));
+        for (int i = 0; i < processes; i++) {
+            pm.createProcess("p" + i, i % 8, -1);
+        }
+    }
+
+    @Benchmark
+    public long schedulePass() {
+        pm.schedule();
+        return pm.getClock();
+    }
+}
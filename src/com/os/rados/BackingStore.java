@@ -0,0 +1,45 @@
+package com.os.rados;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Swap space: which pages of each process have a copy on disk. Only dirty
+// pages are written on eviction; a clean page that never reached the store
+// comes back zero-filled.
+class BackingStore {
+    private final Map<Integer, Set<Long>> slots = new HashMap<>(); // pid -> swapped vpns
+    private long writes;
+    private long reads;
+
+    public void write(int pid, long vpn) {
+        slots.computeIfAbsent(pid, k -> new HashSet<>()).add(vpn);
+        writes++;
+    }
+
+    // True (and counted as a swap-in) if the page has a copy on disk
+    public boolean read(int pid, long vpn) {
+        Set<Long> pages = slots.get(pid);
+        if (pages == null || !pages.contains(vpn)) {
+            return false;
+        }
+        reads++;
+        return true;
+    }
+
+    public void drop(int pid) {
+        slots.remove(pid);
+    }
+
+    public int slotsInUse() {
+        int used = 0;
+        for (Set<Long> pages : slots.values()) {
+            used += pages.size();
+        }
+        return used;
+    }
+
+    public long getWrites() { return writes; }
+    public long getReads() { return reads; }
+}
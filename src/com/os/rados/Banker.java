@@ -0,0 +1,296 @@
+package com.os.rados;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Banker's-algorithm bookkeeping for deadlock avoidance. Every resourceId is
+// a resource type with a fixed number of units (1 unless defined otherwise).
+//
+// Available and Need are maintained incrementally, and each type keeps its
+// positive needs sorted, so the safety check only walks (need, pid) entries
+// as they become satisfiable. Its cost is proportional to the non-zero claims
+// rather than processes^2 * types.
+class Banker {
+    private final Map<Integer, Integer> total = new HashMap<>();                // resourceId -> units
+    private final Map<Integer, Integer> available = new HashMap<>();            // resourceId -> free units
+    private final Map<Integer, Map<Integer, Integer>> max = new HashMap<>();    // pid -> resourceId -> claim
+    private final Map<Integer, Map<Integer, Integer>> alloc = new HashMap<>();  // pid -> resourceId -> held
+    private final Map<Integer, TreeSet<Long>> needIndex = new HashMap<>();      // resourceId -> (need << 32 | pid)
+    private final Map<Integer, Integer> needTypes = new HashMap<>();            // pid -> types with need > 0
+
+    private long safetyChecks;
+    private long unsafeDenials;
+    private long checkNanos;
+
+    public void defineResource(int resourceId, int units) {
+        int held = total.getOrDefault(resourceId, 0) - available.getOrDefault(resourceId, 0);
+        if (units < held) {
+            throw new IllegalArgumentException("Resource " + resourceId + " already has " + held + " units allocated");
+        }
+        total.put(resourceId, units);
+        available.put(resourceId, units - held);
+    }
+
+    // Declares that pid may hold up to units of resourceId at once
+    public void declareClaim(int pid, int resourceId, int units) {
+        if (!total.containsKey(resourceId)) {
+            defineResource(resourceId, 1);
+        }
+        if (units > total.get(resourceId)) {
+            throw new IllegalArgumentException("Claim of " + units + " exceeds the " + total.get(resourceId) + " units of resource " + resourceId);
+        }
+        int held = held(pid, resourceId);
+        if (units < held) {
+            throw new IllegalArgumentException("PID=" + pid + " already holds " + held + " units of resource " + resourceId);
+        }
+        int oldNeed = need(pid, resourceId);
+        max.computeIfAbsent(pid, k -> new HashMap<>()).put(resourceId, units);
+        updateNeed(pid, resourceId, oldNeed, units - held);
+    }
+
+    public boolean hasClaim(int pid, int resourceId, int units) {
+        return need(pid, resourceId) >= units;
+    }
+
+    // True if granting units of resourceId to pid now leaves the system in a safe state
+    public boolean isSafeToGrant(int pid, int resourceId, int units) {
+        if (!hasClaim(pid, resourceId, units) || available.getOrDefault(resourceId, 0) < units) {
+            return false;
+        }
+        long start = System.nanoTime();
+        adjust(pid, resourceId, units);
+        boolean safe = isSafe();
+        adjust(pid, resourceId, -units);
+        checkNanos += System.nanoTime() - start;
+        safetyChecks++;
+        if (!safe) {
+            unsafeDenials++;
+        }
+        return safe;
+    }
+
+    public void allocate(int pid, int resourceId, int units) {
+        if (!total.containsKey(resourceId)) {
+            defineResource(resourceId, 1);
+        }
+        if (!max.containsKey(pid) || need(pid, resourceId) < units) {
+            // Granted outside avoidance (e.g. before claims were declared); widen the claim to match
+            declareClaim(pid, resourceId, held(pid, resourceId) + units);
+        }
+        adjust(pid, resourceId, units);
+    }
+
+    public void release(int pid, int resourceId) {
+        int held = held(pid, resourceId);
+        if (held > 0) {
+            adjust(pid, resourceId, -held);
+        }
+    }
+
+    public void releaseAll(int pid) {
+        Map<Integer, Integer> holding = alloc.get(pid);
+        if (holding == null) {
+            return;
+        }
+        for (Integer resourceId : holding.keySet().toArray(new Integer[0])) {
+            release(pid, resourceId);
+        }
+    }
+
+    // pid will ask for nothing more: each claim shrinks to what it holds, so
+    // its Need no longer stands in the way of anyone else's grant
+    public void retire(int pid) {
+        Map<Integer, Integer> claims = max.get(pid);
+        if (claims == null) {
+            return;
+        }
+        for (Map.Entry<Integer, Integer> claim : claims.entrySet()) {
+            int held = held(pid, claim.getKey());
+            updateNeed(pid, claim.getKey(), claim.getValue() - held, 0);
+            claim.setValue(held);
+        }
+    }
+
+    // Forgets pid entirely: its holdings go back to Available and its claims are dropped
+    public void forget(int pid) {
+        releaseAll(pid);
+        Map<Integer, Integer> claims = max.remove(pid);
+        if (claims == null) {
+            return;
+        }
+        for (Map.Entry<Integer, Integer> claim : claims.entrySet()) {
+            updateNeed(pid, claim.getKey(), claim.getValue(), 0);
+        }
+        needTypes.remove(pid);
+    }
+
+    // Writes resource types, then each pid's claims with what it holds of them, for a Snapshot
+    void save(DataOutputStream out) throws IOException {
+        Trace.writeVarLong(out, total.size());
+        for (Map.Entry<Integer, Integer> type : total.entrySet()) {
+            Trace.writeVarLong(out, Trace.zigzag(type.getKey()));
+            Trace.writeVarLong(out, type.getValue());
+        }
+        Trace.writeVarLong(out, max.size());
+        for (Map.Entry<Integer, Map<Integer, Integer>> entry : max.entrySet()) {
+            int pid = entry.getKey();
+            Trace.writeVarLong(out, pid);
+            Trace.writeVarLong(out, entry.getValue().size());
+            for (Map.Entry<Integer, Integer> claim : entry.getValue().entrySet()) {
+                Trace.writeVarLong(out, Trace.zigzag(claim.getKey()));
+                Trace.writeVarLong(out, claim.getValue());
+                Trace.writeVarLong(out, held(pid, claim.getKey()));
+            }
+        }
+    }
+
+    // Loads what save wrote into this (fresh) Banker
+    void restore(DataInputStream in) throws IOException {
+        for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+            int resourceId = (int) Trace.unzigzag(Trace.readVarLong(in));
+            defineResource(resourceId, (int) Trace.readVarLong(in));
+        }
+        for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+            int pid = (int) Trace.readVarLong(in);
+            for (int k = (int) Trace.readVarLong(in); k > 0; k--) {
+                int resourceId = (int) Trace.unzigzag(Trace.readVarLong(in));
+                declareClaim(pid, resourceId, (int) Trace.readVarLong(in));
+                int held = (int) Trace.readVarLong(in);
+                if (held > 0) {
+                    allocate(pid, resourceId, held);
+                }
+            }
+        }
+    }
+
+    public String stats() {
+        return String.format("Safety checks: %d, unsafe denials: %d, avg check: %.1f us%n",
+                safetyChecks, unsafeDenials, safetyChecks == 0 ? 0.0 : checkNanos / 1e3 / safetyChecks);
+    }
+
+    private int held(int pid, int resourceId) {
+        Map<Integer, Integer> holding = alloc.get(pid);
+        return holding == null ? 0 : holding.getOrDefault(resourceId, 0);
+    }
+
+    private int need(int pid, int resourceId) {
+        Map<Integer, Integer> claims = max.get(pid);
+        return claims == null ? 0 : claims.getOrDefault(resourceId, 0) - held(pid, resourceId);
+    }
+
+    // Moves units of resourceId from Available to pid (negative units give them back)
+    private void adjust(int pid, int resourceId, int units) {
+        int oldNeed = need(pid, resourceId);
+        int held = held(pid, resourceId) + units;
+        if (held == 0) {
+            Map<Integer, Integer> holding = alloc.get(pid);
+            holding.remove(resourceId);
+            if (holding.isEmpty()) {
+                alloc.remove(pid);
+            }
+        } else {
+            alloc.computeIfAbsent(pid, k -> new HashMap<>()).put(resourceId, held);
+        }
+        available.merge(resourceId, -units, Integer::sum);
+        updateNeed(pid, resourceId, oldNeed, oldNeed - units);
+    }
+
+    private void updateNeed(int pid, int resourceId, int oldNeed, int newNeed) {
+        if (oldNeed == newNeed) {
+            return;
+        }
+        TreeSet<Long> index = needIndex.computeIfAbsent(resourceId, k -> new TreeSet<>());
+        if (oldNeed > 0) {
+            index.remove(entry(oldNeed, pid));
+            needTypes.merge(pid, -1, Integer::sum);
+        }
+        if (newNeed > 0) {
+            index.add(entry(newNeed, pid));
+            needTypes.merge(pid, 1, Integer::sum);
+        }
+        if (index.isEmpty()) {
+            needIndex.remove(resourceId);
+        }
+    }
+
+    private static long entry(int need, int pid) {
+        return ((long) need << 32) | (pid & 0xffffffffL);
+    }
+
+    // Walks each type's sorted needs as Work grows. A process can finish once
+    // every one of its outstanding needs has been passed by its type's cursor.
+    private boolean isSafe() {
+        Map<Integer, Integer> work = new HashMap<>();
+        Map<Integer, Integer> unsatisfied = new HashMap<>();
+        Map<Integer, Cursor> cursors = new HashMap<>();
+        ArrayDeque<Integer> finishable = new ArrayDeque<>();
+
+        for (Integer pid : max.keySet()) {
+            int types = needTypes.getOrDefault(pid, 0);
+            unsatisfied.put(pid, types);
+            if (types == 0) {
+                finishable.add(pid);
+            }
+        }
+        for (Map.Entry<Integer, TreeSet<Long>> e : needIndex.entrySet()) {
+            int resourceId = e.getKey();
+            Cursor cursor = new Cursor(e.getValue().iterator());
+            cursors.put(resourceId, cursor);
+            int units = available.getOrDefault(resourceId, 0);
+            work.put(resourceId, units);
+            cursor.advance(units, unsatisfied, finishable);
+        }
+
+        int finished = 0;
+        while (!finishable.isEmpty()) {
+            int pid = finishable.poll();
+            finished++;
+            Map<Integer, Integer> holding = alloc.get(pid);
+            if (holding == null) {
+                continue;
+            }
+            for (Map.Entry<Integer, Integer> h : holding.entrySet()) {
+                Cursor cursor = cursors.get(h.getKey());
+                if (cursor != null) {
+                    int units = work.merge(h.getKey(), h.getValue(), Integer::sum);
+                    cursor.advance(units, unsatisfied, finishable);
+                }
+            }
+        }
+        return finished == max.size();
+    }
+
+    private static final class Cursor {
+        private final Iterator<Long> it;
+        private long pending = -1;
+
+        Cursor(Iterator<Long> it) {
+            this.it = it;
+        }
+
+        void advance(int work, Map<Integer, Integer> unsatisfied, ArrayDeque<Integer> finishable) {
+            while (true) {
+                if (pending < 0) {
+                    if (!it.hasNext()) {
+                        return;
+                    }
+                    pending = it.next();
+                }
+                if ((int) (pending >>> 32) > work) {
+                    return;
+                }
+                int pid = (int) pending;
+                pending = -1;
+                if (unsatisfied.merge(pid, -1, Integer::sum) == 0) {
+                    finishable.add(pid);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package com.os.rados;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Drives a Kernel from a command stream without JavaFX.
+// Usage: BatchRunner [--quiet] [--memory=units] [--page=units] [--journal=file] [--replay=trace]
+//                    [--restore=snapshot] [script]
+// (reads stdin when no script is given)
+// Commands: create [name] [priority] [burst], ps, schedule, alloc [pid] [size] [resourceId],
+//           free [pid], mem, deadlocks, avoid, claim [pid] [resourceId] [units], banker,
+//           policy [rr|priority|mlfq] [quantum] [levels] [cores], affinity [pid] [core],
+//           sched, release [pid] [resourceId], at [time] [command...], run [until],
+//           parallel [until], vm [fifo|lru|clock|ws] [frames] [tlb] [window] [levels] [huge pages],
+//           access [pid] [address] [r|w], sweep [pid] [from] [to] [stride] [r|w], vmstat, reap,
+//           waits [fifo|priority], stats, events [count],
+//           generate [uniform|contended|deadlock] [seed] [processes] [operations] [resources] [size],
+//           record [file|off], replay [file], fork [pid], write [pid] [resourceId] [page],
+//           share [pid] [resourceId], sharing, allocator [none|paged|buddy|slab], allocstat,
+//           snapshot [file], program [name] [steps...], spawn [program] [count] [priority],
+//           live [until], pressure [off|low high], pressurestat, oom, exit
+// 'at' queues a command on the simulation's virtual clock; 'run' plays the queued events.
+// --journal streams every journal event to file; 'events' prints the most recent ones.
+// --replay sizes memory from the trace and replays it before the script runs; a
+// 'replay' command only reproduces the recorded results on a kernel in the same state.
+// 'allocator' picks a placement strategy while memory is empty; 'allocstat' shows its fragmentation.
+// --restore starts from a file written by 'snapshot' instead of an empty kernel.
+// 'program' defines a script (see Program), 'spawn' starts processes running one and
+// 'live' runs them on one carrier thread per core until none is READY.
+// 'pressure' queues allocations that do not fit instead of failing them, with
+// watermarks in pages (default 2% and 4% of memory); see MemoryPressure.
+// 'oom' kills the process the OOM killer would pick.
+class BatchRunner {
+    private final Kernel kernel;
+    private final PrintStream out;
+    private long commands;
+    private Simulation simulation;
+    private ProgramRunner programs;
+    private final Map<String, Program> programsByName = new HashMap<>();
+
+    public BatchRunner(Kernel kernel, PrintStream out) {
+        this.kernel = kernel;
+        this.out = out;
+    }
+
+    public Simulation getSimulation() {
+        if (simulation == null) {
+            simulation = new Simulation(kernel);
+        }
+        return simulation;
+    }
+
+    public ProgramRunner getProgramRunner() {
+        if (programs == null) {
+            programs = new ProgramRunner(kernel);
+        }
+        return programs;
+    }
+
+    public long getCommandCount() {
+        return commands;
+    }
+
+    public void run(Reader input) throws IOException {
+        BufferedReader reader = new BufferedReader(input);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!execute(line)) {
+                break;
+            }
+        }
+    }
+
+    // Returns false once the stream asks to exit
+    public boolean execute(String line) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+            return true;
+        }
+        String[] parts = line.split("\\s+");
+        commands++;
+        try {
+            switch (parts[0]) {
+                case "create":
+                    if (parts.length < 2) {
+                        error("Usage: create [name]");
+                    } else {
+                        int priority = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+                        long burst = parts.length > 3 ? Long.parseLong(parts[3]) : -1;
+                        kernel.createProcess(parts[1], priority, burst);
+                    }
+                    break;
+                case "ps":
+                    out.print(kernel.listProcesses());
+                    break;
+                case "schedule":
+                    kernel.schedule(0, null);
+                    break;
+                case "alloc":
+                    if (parts.length < 4) {
+                        error("Usage: alloc [pid] [size] [resourceId]");
+                    } else {
+                        alloc(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+                    }
+                    break;
+                case "free":
+                    if (parts.length < 2) {
+                        error("Usage: free [pid]");
+                    } else {
+                        kernel.free(Integer.parseInt(parts[1]));
+                    }
+                    break;
+                case "mem":
+                    out.print(kernel.printMemory());
+                    break;
+                case "deadlocks":
+                    for (List<Integer> pids : kernel.findDeadlocks()) {
+                        out.println("Deadlocked PIDs: " + pids);
+                    }
+                    break;
+                case "release":
+                    if (parts.length < 3) {
+                        error("Usage: release [pid] [resourceId]");
+                    } else {
+                        kernel.release(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                    }
+                    break;
+                case "at":
+                    if (parts.length < 3) {
+                        error("Usage: at [time] [command...]");
+                    } else {
+                        String command = line.split("\\s+", 3)[2];
+                        getSimulation().at(Long.parseLong(parts[1]), () -> execute(command));
+                        commands--; // counted when it runs
+                    }
+                    break;
+                case "run":
+                    long until = parts.length > 1 ? Long.parseLong(parts[1]) : Long.MAX_VALUE;
+                    long clock = getSimulation().run(until);
+                    if (Log.enabled) {
+                        Log.println("Simulation stopped at time " + clock + " after " + simulation.getEventsProcessed() + " events");
+                    }
+                    break;
+                case "policy":
+                    if (parts.length < 2) {
+                        error("Usage: policy [rr|priority|mlfq] [quantum] [levels] [cores]");
+                    } else {
+                        long quantum = parts.length > 2 ? Long.parseLong(parts[2]) : ProcessManager.DEFAULT_QUANTUM;
+                        int levels = parts.length > 3 ? Integer.parseInt(parts[3]) : 3;
+                        int cores = parts.length > 4 ? Integer.parseInt(parts[4]) : 1;
+                        kernel.setScheduler(Scheduler.create(parts[1], quantum, levels, cores));
+                    }
+                    break;
+                case "affinity":
+                    if (parts.length < 3) {
+                        error("Usage: affinity [pid] [core]");
+                    } else if (!kernel.setAffinity(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]))) {
+                        error("Cannot pin PID=" + parts[1] + " to core " + parts[2]);
+                    }
+                    break;
+                case "parallel":
+                    CpuCluster cluster = new CpuCluster(kernel);
+                    try {
+                        cluster.run(parts.length > 1 ? Long.parseLong(parts[1]) : Long.MAX_VALUE, 0, null);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    out.print(cluster.stats());
+                    break;
+                case "sched":
+                    out.print(kernel.schedulerStats());
+                    break;
+                case "avoid":
+                    kernel.enableAvoidance();
+                    break;
+                case "claim":
+                    if (parts.length < 3) {
+                        error("Usage: claim [pid] [resourceId] [units]");
+                    } else {
+                        int units = parts.length > 3 ? Integer.parseInt(parts[3]) : 1;
+                        kernel.declareClaim(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), units);
+                    }
+                    break;
+                case "banker":
+                    out.print(kernel.avoidanceStats());
+                    break;
+                case "vm":
+                    String replacement = parts.length > 1 ? parts[1] : "lru";
+                    int frames = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+                    int tlb = parts.length > 3 ? Integer.parseInt(parts[3]) : 16;
+                    long window = parts.length > 4 ? Long.parseLong(parts[4]) : 100;
+                    int levels = parts.length > 5 ? Integer.parseInt(parts[5]) : VirtualMemory.DEFAULT_LEVELS;
+                    int huge = parts.length > 6 ? Integer.parseInt(parts[6]) : 0;
+                    kernel.enableVirtualMemory(frames, replacement, tlb, window, levels, huge);
+                    break;
+                case "access":
+                    if (parts.length < 3) {
+                        error("Usage: access [pid] [address] [r|w]");
+                    } else if (kernel.access(Integer.parseInt(parts[1]), Long.parseLong(parts[2]),
+                            parts.length > 3 && parts[3].equals("w")) == VirtualMemory.Access.NO_SUCH_PROCESS) {
+                        error("Process with PID=" + parts[1] + " does not exist");
+                    }
+                    break;
+                case "sweep":
+                    if (parts.length < 4) {
+                        error("Usage: sweep [pid] [from] [to] [stride] [r|w]");
+                    } else {
+                        sweep(Integer.parseInt(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]),
+                                parts.length > 4 ? Long.parseLong(parts[4]) : 1, parts.length > 5 && parts[5].equals("w"));
+                    }
+                    break;
+                case "waits":
+                    if (parts.length < 2 || !(parts[1].equals("fifo") || parts[1].equals("priority"))) {
+                        error("Usage: waits [fifo|priority]");
+                    } else {
+                        kernel.setPriorityWaits(parts[1].equals("priority"));
+                    }
+                    break;
+                case "stats":
+                    out.print(kernel.statsSummary());
+                    break;
+                case "reap":
+                    int reaped = kernel.reap();
+                    if (Log.enabled) Log.println("Reaped " + reaped + " terminated processes");
+                    break;
+                case "vmstat":
+                    out.print(kernel.virtualMemoryStats());
+                    break;
+                case "events":
+                    out.print(Journal.tail(parts.length > 1 ? Integer.parseInt(parts[1]) : 20, -1));
+                    break;
+                case "generate":
+                    if (parts.length < 5) {
+                        error("Usage: generate [uniform|contended|deadlock] [seed] [processes] [operations] [resources] [size]");
+                    } else {
+                        Workload workload = new Workload(Workload.Mix.valueOf(parts[1].toUpperCase()),
+                                Long.parseLong(parts[2]), Integer.parseInt(parts[3]), Integer.parseInt(parts[4]),
+                                parts.length > 5 ? Integer.parseInt(parts[5]) : 64,
+                                parts.length > 6 ? Integer.parseInt(parts[6]) : 20);
+                        out.print(workload.run(kernel));
+                    }
+                    break;
+                case "record":
+                    if (parts.length < 2) {
+                        error("Usage: record [file|off]");
+                    } else if (parts[1].equals("off")) {
+                        long recorded = kernel.stopRecording();
+                        if (Log.enabled && recorded >= 0) Log.println("Recorded " + recorded + " calls");
+                    } else {
+                        kernel.startRecording(new FileOutputStream(parts[1]));
+                    }
+                    break;
+                case "replay":
+                    if (parts.length < 2) {
+                        error("Usage: replay [file]");
+                    } else {
+                        try (InputStream in = new FileInputStream(parts[1])) {
+                            out.print(Trace.replay(in, kernel));
+                        }
+                    }
+                    break;
+                case "fork":
+                    if (parts.length < 2) {
+                        error("Usage: fork [pid]");
+                    } else {
+                        int child = kernel.fork(Integer.parseInt(parts[1]));
+                        if (child == -1) {
+                            error("Process with PID=" + parts[1] + " does not exist");
+                        }
+                    }
+                    break;
+                case "write":
+                    if (parts.length < 4) {
+                        error("Usage: write [pid] [resourceId] [page]");
+                    } else if (kernel.write(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                            Integer.parseInt(parts[3])) == MemoryManager.Write.NOT_MAPPED) {
+                        error("PID=" + parts[1] + " maps no page " + parts[3] + " of resource " + parts[2]);
+                    }
+                    break;
+                case "share":
+                    if (parts.length < 3) {
+                        error("Usage: share [pid] [resourceId]");
+                    } else if (!kernel.share(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]))) {
+                        error("Resource " + parts[2] + " could not be shared with PID=" + parts[1]);
+                    }
+                    break;
+                case "sharing":
+                    out.print(kernel.sharingStats());
+                    break;
+                case "allocator":
+                    if (parts.length < 2) {
+                        error("Usage: allocator [none|paged|buddy|slab]");
+                    } else {
+                        kernel.setAllocator(parts[1]);
+                    }
+                    break;
+                case "allocstat":
+                    out.print(kernel.allocatorStats());
+                    break;
+                case "snapshot":
+                    if (parts.length < 2) {
+                        error("Usage: snapshot [file]");
+                    } else {
+                        out.print(kernel.snapshot(Paths.get(parts[1])));
+                    }
+                    break;
+                case "program":
+                    if (parts.length < 3) {
+                        error("Usage: program [name] [steps...]");
+                    } else {
+                        programsByName.put(parts[1], Program.parse(parts[1], parts, 2));
+                    }
+                    break;
+                case "spawn":
+                    if (parts.length < 2) {
+                        error("Usage: spawn [program] [count] [priority]");
+                    } else if (!programsByName.containsKey(parts[1])) {
+                        error("No program named " + parts[1]);
+                    } else {
+                        getProgramRunner().spawn(programsByName.get(parts[1]),
+                                parts.length > 2 ? Integer.parseInt(parts[2]) : 1,
+                                parts.length > 3 ? Integer.parseInt(parts[3]) : 0);
+                    }
+                    break;
+                case "live":
+                    try {
+                        getProgramRunner().run(parts.length > 1 ? Long.parseLong(parts[1]) : Long.MAX_VALUE);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    out.print(programs.stats());
+                    break;
+                case "pressure":
+                    if (parts.length > 1 && parts[1].equals("off")) {
+                        kernel.disablePressureControl();
+                    } else if (parts.length == 1) {
+                        kernel.enablePressureControl(-1, -1);
+                    } else if (parts.length < 3) {
+                        error("Usage: pressure [off|low high]");
+                    } else {
+                        kernel.enablePressureControl(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                    }
+                    break;
+                case "oom":
+                    if (!kernel.killForMemory()) {
+                        error("No process holds memory");
+                    }
+                    break;
+                case "pressurestat":
+                    out.print(kernel.pressureStats());
+                    break;
+                case "exit":
+                    return false;
+                default:
+                    error("Unknown command: " + parts[0]);
+            }
+        } catch (NumberFormatException e) {
+            error("Invalid number in: " + line);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            error(e.getMessage());
+        } catch (IOException e) {
+            error("I/O error: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private void alloc(int pid, int size, int resourceId) {
+        Kernel.AllocResult result = kernel.allocate(pid, size, resourceId);
+        if (!Log.enabled) {
+            return;
+        }
+        switch (result) {
+            case NO_SUCH_PROCESS:
+                Log.println("Process with PID=" + pid + " does not exist");
+                break;
+            case DEADLOCK:
+                Log.println("Allocation denied for PID=" + pid + ": potential deadlock detected");
+                break;
+            case UNSAFE:
+                Log.println("Allocation deferred for PID=" + pid + ": granting resource " + resourceId + " would be unsafe");
+                break;
+            case EXCEEDS_CLAIM:
+                Log.println("Allocation denied for PID=" + pid + ": resource " + resourceId + " exceeds its declared claim");
+                break;
+            case WAITING:
+                Log.println("Resource " + resourceId + " is held by PID=" + kernel.holderOf(resourceId) + "; PID=" + pid + " is waiting");
+                break;
+            case QUEUED:
+                Log.println("PID=" + pid + " is waiting for free pages");
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Touches every stride-th address in [from, to)
+    private void sweep(int pid, long from, long to, long stride, boolean write) {
+        if (stride <= 0) {
+            throw new IllegalArgumentException("Stride must be positive");
+        }
+        for (long address = from; address < to; address += stride) {
+            if (kernel.access(pid, address, write) == VirtualMemory.Access.NO_SUCH_PROCESS) {
+                error("Process with PID=" + pid + " does not exist");
+                return;
+            }
+        }
+    }
+
+    private void error(String message) {
+        if (Log.enabled) {
+            System.err.println(message);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String script = null;
+        long memorySize = MemoryManager.DEFAULT_MEMORY_SIZE;
+        int pageSize = MemoryManager.DEFAULT_PAGE_SIZE;
+        String journal = null;
+        String replay = null;
+        String restore = null;
+        for (String arg : args) {
+            if (arg.equals("--quiet")) {
+                Log.enabled = false;
+            } else if (arg.startsWith("--memory=")) {
+                memorySize = Long.parseLong(arg.substring("--memory=".length()));
+            } else if (arg.startsWith("--page=")) {
+                pageSize = Integer.parseInt(arg.substring("--page=".length()));
+            } else if (arg.startsWith("--replay=")) {
+                replay = arg.substring("--replay=".length());
+            } else if (arg.startsWith("--restore=")) {
+                restore = arg.substring("--restore=".length());
+            } else if (arg.startsWith("--journal=")) {
+                journal = arg.substring("--journal=".length());
+            } else {
+                script = arg;
+            }
+        }
+
+        if (replay != null) {
+            try (InputStream in = new FileInputStream(replay)) {
+                long[] geometry = Trace.geometry(in);
+                memorySize = geometry[0];
+                pageSize = (int) geometry[1];
+            }
+        }
+        Kernel kernel;
+        if (restore != null) {
+            long start = System.nanoTime();
+            kernel = Kernel.restore(Paths.get(restore));
+            System.err.printf("Restored %s in %.3f ms%n", restore, (System.nanoTime() - start) / 1e6);
+        } else {
+            kernel = new Kernel(memorySize, pageSize);
+        }
+        KernelStats.register(kernel);
+        BatchRunner runner = new BatchRunner(kernel, System.out);
+        if (journal != null) {
+            Journal.streamTo(Paths.get(journal));
+        }
+        if (replay != null) {
+            try (InputStream in = new FileInputStream(replay)) {
+                System.out.print(Trace.replay(in, kernel));
+            }
+        }
+        long start = System.nanoTime();
+        try (Reader input = script == null ? new InputStreamReader(System.in) : new FileReader(script)) {
+            runner.run(input);
+        } finally {
+            Journal.stopStreaming();
+            kernel.stopRecording();
+            kernel.closeSnapshots();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.err.printf("Executed %d commands in %.3f ms%n", runner.getCommandCount(), elapsed / 1e6);
+    }
+}
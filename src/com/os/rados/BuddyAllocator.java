@@ -0,0 +1,122 @@
+package com.os.rados;
+
+import java.util.BitSet;
+
+// Binary buddy system over pages. A request gets one contiguous block of
+// 2^k pages; freeing a block merges it with its buddy for as long as the
+// buddy is free too. Memory that is not a power of two is covered by the
+// largest aligned blocks that fit, which never merge past its end.
+// Handles are the block's first page shifted left 6 bits, plus its order.
+class BuddyAllocator implements PhysicalAllocator {
+    private final int pages;
+    private final int pageSize;
+    private final int maxOrder;
+    private final BitSet[] free;    // per order, bit b set = block b (pages b << order) free
+    private final int[] freeBlocks; // per order
+    private final int[] requested;  // units asked for, by first page of a live block
+    private long requestedUnits;
+    private long freePages;
+
+    public BuddyAllocator(int pages, int pageSize) {
+        this.pages = pages;
+        this.pageSize = pageSize;
+        maxOrder = 31 - Integer.numberOfLeadingZeros(Math.max(1, pages));
+        free = new BitSet[maxOrder + 1];
+        freeBlocks = new int[maxOrder + 1];
+        for (int k = 0; k <= maxOrder; k++) {
+            free[k] = new BitSet();
+        }
+        requested = new int[pages];
+        for (int page = 0; page < pages; ) {
+            int k = Math.min(Integer.numberOfTrailingZeros(page | Integer.highestOneBit(pages)), maxOrder);
+            while (page + (1 << k) > pages) {
+                k--;
+            }
+            release(k, page >> k);
+            page += 1 << k;
+        }
+        freePages = pages;
+    }
+
+    @Override
+    public String getName() { return "buddy"; }
+
+    @Override
+    public long allocate(int size) {
+        if (size <= 0) {
+            return -1;
+        }
+        long need = (size + (long) pageSize - 1) / pageSize;
+        int order = 64 - Long.numberOfLeadingZeros(need - 1);
+        if (order > maxOrder) {
+            return -1;
+        }
+        int k = order;
+        while (k <= maxOrder && freeBlocks[k] == 0) {
+            k++;
+        }
+        if (k > maxOrder) {
+            return -1;
+        }
+        int block = take(k, free[k].nextSetBit(0));
+        // Split down, keeping the lower half and freeing the upper
+        for (; k > order; k--) {
+            block <<= 1;
+            release(k - 1, block + 1);
+        }
+        int first = block << order;
+        requested[first] = size;
+        requestedUnits += size;
+        freePages -= 1L << order;
+        return ((long) first << 6) | order;
+    }
+
+    @Override
+    public void free(long handle) {
+        int first = (int) (handle >>> 6), order = (int) (handle & 63);
+        requestedUnits -= requested[first];
+        requested[first] = 0;
+        freePages += 1L << order;
+        int block = first >> order;
+        while (order < maxOrder) {
+            int buddy = block ^ 1;
+            if (((buddy + 1) << order) > pages || !free[order].get(buddy)) {
+                break;
+            }
+            take(order, buddy);
+            block >>= 1;
+            order++;
+        }
+        release(order, block);
+    }
+
+    private int take(int order, int block) {
+        free[order].clear(block);
+        freeBlocks[order]--;
+        return block;
+    }
+
+    private void release(int order, int block) {
+        free[order].set(block);
+        freeBlocks[order]++;
+    }
+
+    @Override
+    public long requestedUnits() { return requestedUnits; }
+
+    @Override
+    public long reservedUnits() { return ((long) pages - freePages) * pageSize; }
+
+    @Override
+    public long freeUnits() { return freePages * pageSize; }
+
+    @Override
+    public long largestFreeBlock() {
+        for (int k = maxOrder; k >= 0; k--) {
+            if (freeBlocks[k] > 0) {
+                return (1L << k) * pageSize;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,44 @@
+package com.os.rados;
+
+// Second-chance replacement: a hand sweeps the frames, clearing reference
+// bits, and evicts the first resident frame it finds unreferenced.
+class ClockReplacement implements Replacement {
+    private final boolean[] resident;
+    private final boolean[] referenced;
+    private int hand;
+
+    public ClockReplacement(int frames) {
+        resident = new boolean[frames];
+        referenced = new boolean[frames];
+    }
+
+    public String getName() { return "CLOCK"; }
+
+    public void loaded(int frame, long now) {
+        resident[frame] = true;
+        referenced[frame] = true;
+    }
+
+    public void accessed(int frame, long now) {
+        referenced[frame] = true;
+    }
+
+    public void removed(int frame) {
+        resident[frame] = false;
+        referenced[frame] = false;
+    }
+
+    public int victim(long now) {
+        while (true) {
+            int frame = hand;
+            hand = (hand + 1) % resident.length;
+            if (!resident[frame]) {
+                continue;
+            }
+            if (!referenced[frame]) {
+                return frame;
+            }
+            referenced[frame] = false;
+        }
+    }
+}
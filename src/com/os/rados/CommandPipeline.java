@@ -0,0 +1,129 @@
+package com.os.rados;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+// Hands kernel commands from the UI to a single kernel thread. Submitting
+// only enqueues, so the caller never waits on a manager lock. The kernel
+// thread drains everything queued at once (up to maxBatch) and runs it
+// back to back. It then publishes the whole batch's results with one call
+// to the publisher, e.g. Platform::runLater.
+class CommandPipeline {
+    static final int DEFAULT_MAX_BATCH = 256;
+
+    interface Command<R> {
+        R run(Kernel kernel);
+    }
+
+    private static final class Pending<R> {
+        final Command<R> command;
+        final Consumer<? super R> onResult; // may be null
+        R result;
+        RuntimeException error;
+
+        Pending(Command<R> command, Consumer<? super R> onResult) {
+            this.command = command;
+            this.onResult = onResult;
+        }
+
+        void run(Kernel kernel) {
+            try {
+                result = command.run(kernel);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+
+        void publish(Consumer<RuntimeException> onError) {
+            if (error != null) {
+                onError.accept(error);
+            } else if (onResult != null) {
+                onResult.accept(result);
+            }
+        }
+    }
+
+    private final Kernel kernel;
+    private final Executor publisher;
+    private final Consumer<RuntimeException> onError;
+    private final int maxBatch;
+    private final BlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private volatile boolean stopping;
+    private long batches;
+    private long executed;
+
+    public CommandPipeline(Kernel kernel, Executor publisher, Consumer<RuntimeException> onError) {
+        this(kernel, publisher, onError, DEFAULT_MAX_BATCH);
+    }
+
+    public CommandPipeline(Kernel kernel, Executor publisher, Consumer<RuntimeException> onError, int maxBatch) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.kernel = kernel;
+        this.publisher = publisher;
+        this.onError = onError;
+        this.maxBatch = maxBatch;
+        worker = new Thread(this::work, "radOS-kernel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Queues command; onResult (may be null) later gets its result through the publisher
+    public <R> void submit(Command<R> command, Consumer<? super R> onResult) {
+        if (stopping) {
+            throw new IllegalStateException("Command pipeline is shut down");
+        }
+        queue.add(new Pending<>(command, onResult));
+    }
+
+    public int pending() {
+        return queue.size();
+    }
+
+    // Runs what is already queued, then stops the kernel thread
+    public void shutdown() throws InterruptedException {
+        stopping = true;
+        worker.interrupt();
+        worker.join();
+    }
+
+    public synchronized String stats() {
+        return String.format("Commands: %d in %d batches (avg %.1f), %d pending%n",
+                executed, batches, batches == 0 ? 0.0 : (double) executed / batches, queue.size());
+    }
+
+    private void work() {
+        while (true) {
+            Pending<?> first;
+            try {
+                first = stopping ? queue.poll() : queue.take();
+            } catch (InterruptedException e) {
+                continue; // woken by shutdown; poll what is left
+            }
+            if (first == null) {
+                return;
+            }
+            List<Pending<?>> batch = new ArrayList<>();
+            batch.add(first);
+            queue.drainTo(batch, maxBatch - batch.size());
+            for (Pending<?> pending : batch) {
+                pending.run(kernel);
+            }
+            synchronized (this) {
+                batches++;
+                executed += batch.size();
+            }
+            publisher.execute(() -> {
+                for (Pending<?> pending : batch) {
+                    pending.publish(onError);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.os.rados;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Runs the kernel's cores on dedicated platform threads, one per simulated
+// core. Each worker dispatches from its own run queue (stealing when it is
+// empty), paces the slice in wall-clock time, and accounts for it. The
+// virtual clock still measures the simulated work; wall-clock busy time per
+// thread is reported alongside it. A worker with nothing to run sleeps until
+// a process is queued or a slice ends, and leaves once the kernel is idle.
+class CpuCluster {
+    private final Kernel kernel;
+    private final int cores;
+    private final long[] busyNanos;
+    private final long[] slices;
+    private final AtomicBoolean stopping = new AtomicBoolean();
+    private final ReentrantLock idleLock = new ReentrantLock();
+    private final Condition changed = idleLock.newCondition();
+    private long generation; // bumped whenever there may be new work or a reason to leave; guarded by idleLock
+    private long elapsedNanos;
+
+    public CpuCluster(Kernel kernel) {
+        this.kernel = kernel;
+        cores = kernel.cores();
+        busyNanos = new long[cores];
+        slices = new long[cores];
+    }
+
+    public void stop() {
+        stopping.set(true);
+        wake();
+    }
+
+    // Runs until every queue is empty or the virtual clock passes until.
+    // pacing is wall-clock milliseconds per time unit; listener may be null.
+    public void run(long until, double pacing, Consumer<PCB> listener) throws InterruptedException {
+        stopping.set(false);
+        Thread[] workers = new Thread[cores];
+        CountDownLatch go = new CountDownLatch(1);
+        for (int i = 0; i < cores; i++) {
+            int core = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                work(core, until, pacing, listener);
+            }, "radOS-core-" + i);
+            workers[i].start();
+        }
+        kernel.setEnqueueListener(this::wake);
+        long start = System.nanoTime();
+        try {
+            go.countDown(); // release every core at once
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            kernel.setEnqueueListener(null);
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    private void work(int core, long until, double pacing, Consumer<PCB> listener) {
+        while (!stopping.get() && kernel.getClock() < until) {
+            long seen = generation();
+            PCB process = kernel.dispatch(core);
+            if (process == null) {
+                if (kernel.isIdle()) {
+                    break; // nothing queued anywhere and nothing running that could requeue
+                }
+                awaitChange(seen);
+                continue;
+            }
+            long begin = System.nanoTime();
+            if (listener != null) {
+                listener.accept(process);
+            }
+            ProcessManager.pace(process.getSlice(), pacing);
+            kernel.endSlice(process, process.getSlice());
+            wake(); // requeued or finished; either way the idle cores should look again
+            if (listener != null) {
+                listener.accept(process);
+            }
+            busyNanos[core] += System.nanoTime() - begin;
+            slices[core]++;
+        }
+        wake(); // the others may be leaving too
+    }
+
+    private long generation() {
+        idleLock.lock();
+        try {
+            return generation;
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    // Sleeps until something has happened since generation seen
+    private void awaitChange(long seen) {
+        idleLock.lock();
+        try {
+            while (generation == seen && !stopping.get()) {
+                changed.awaitUninterruptibly();
+            }
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    // Called with the process manager locked (as its enqueue listener), so
+    // nothing here may wait for the process manager
+    private void wake() {
+        idleLock.lock();
+        try {
+            generation++;
+            changed.signalAll();
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    public String stats() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Wall time: %.3f ms on %d threads%n", elapsedNanos / 1e6, cores));
+        for (int i = 0; i < cores; i++) {
+            out.append(String.format("Thread %d: %d slices, %.1f%% of wall time in slices%n", i, slices[i],
+                    elapsedNanos == 0 ? 0.0 : 100.0 * busyNanos[i] / elapsedNanos));
+        }
+        return out.toString();
+    }
+}
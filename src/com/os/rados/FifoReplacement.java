@@ -0,0 +1,70 @@
+package com.os.rados;
+
+import java.util.Arrays;
+
+// Evicts the page that was loaded first. Resident frames sit on an intrusive
+// doubly linked list in primitive arrays, oldest at the head.
+class FifoReplacement implements Replacement {
+    private final int[] prev;
+    private final int[] next;
+    private int head = -1;
+    private int tail = -1;
+
+    public FifoReplacement(int frames) {
+        prev = new int[frames];
+        next = new int[frames];
+        Arrays.fill(prev, -1);
+        Arrays.fill(next, -1);
+    }
+
+    public String getName() { return "FIFO"; }
+
+    public void loaded(int frame, long now) {
+        touch(frame); // a victim is still linked when its frame is reloaded
+    }
+
+    public void accessed(int frame, long now) {}
+
+    public void removed(int frame) {
+        unlink(frame);
+    }
+
+    public int victim(long now) {
+        return head;
+    }
+
+    // Moves frame to the young end of the list
+    void touch(int frame) {
+        if (frame != tail) {
+            unlink(frame);
+            append(frame);
+        }
+    }
+
+    private void append(int frame) {
+        prev[frame] = tail;
+        next[frame] = -1;
+        if (tail >= 0) {
+            next[tail] = frame;
+        } else {
+            head = frame;
+        }
+        tail = frame;
+    }
+
+    private void unlink(int frame) {
+        int p = prev[frame], n = next[frame];
+        if (p >= 0) {
+            next[p] = n;
+        } else if (head == frame) {
+            head = n;
+        }
+        if (n >= 0) {
+            prev[n] = p;
+        } else if (tail == frame) {
+            tail = p;
+        }
+        prev[frame] = -1;
+        next[frame] = -1;
+    }
+}
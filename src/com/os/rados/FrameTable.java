@@ -0,0 +1,32 @@
+package com.os.rados;
+
+import java.util.Arrays;
+
+// Per-frame ownership held in primitive arrays, indexed by page number.
+// -1 in either array marks a free frame.
+final class FrameTable {
+    private final int[] owner;    // pid mapped to each frame
+    private final int[] resource; // resourceId backed by each frame
+
+    public FrameTable(int numFrames) {
+        owner = new int[numFrames];
+        resource = new int[numFrames];
+        Arrays.fill(owner, -1);
+        Arrays.fill(resource, -1);
+    }
+
+    public int size() { return owner.length; }
+    public int owner(int frame) { return owner[frame]; }
+    public int resource(int frame) { return resource[frame]; }
+    public boolean isFree(int frame) { return owner[frame] == -1; }
+
+    public void map(int frame, int pid, int resourceId) {
+        owner[frame] = pid;
+        resource[frame] = resourceId;
+    }
+
+    public void unmap(int frame) {
+        owner[frame] = -1;
+        resource[frame] = -1;
+    }
+}
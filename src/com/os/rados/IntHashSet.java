@@ -0,0 +1,85 @@
+package com.os.rados;
+
+import java.util.Arrays;
+
+// Set of non-negative ints in an open-addressed primitive table, for sets
+// that can grow past what IntSet's linear scan suits (every waiter of a
+// resource, say). Iterate with tableLength() and entry(i), skipping EMPTY.
+final class IntHashSet {
+    static final int EMPTY = -1;
+
+    private int[] table = new int[4];
+    private int size;
+
+    IntHashSet() {
+        Arrays.fill(table, EMPTY);
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public int tableLength() { return table.length; }
+    public int entry(int i) { return table[i]; }
+
+    public boolean contains(int value) {
+        return table[indexOf(value)] == value;
+    }
+
+    // Returns false if value was already present
+    public boolean add(int value) {
+        int i = indexOf(value);
+        if (table[i] == value) {
+            return false;
+        }
+        table[i] = value;
+        if (++size * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        return true;
+    }
+
+    // Returns false if value was not present
+    public boolean remove(int value) {
+        int mask = table.length - 1;
+        int gap = indexOf(value);
+        if (table[gap] != value) {
+            return false;
+        }
+        // Shift later members of the probe run back so lookups never stop short
+        for (int j = (gap + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(table[j]) & mask;
+            if (gap <= j ? home <= gap || home > j : home <= gap && home > j) {
+                table[gap] = table[j];
+                gap = j;
+            }
+        }
+        table[gap] = EMPTY;
+        size--;
+        return true;
+    }
+
+    // Slot holding value, or the empty slot where it would go
+    private int indexOf(int value) {
+        int mask = table.length - 1;
+        int i = hash(value) & mask;
+        while (table[i] != EMPTY && table[i] != value) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void resize(int length) {
+        int[] old = table;
+        table = new int[length];
+        Arrays.fill(table, EMPTY);
+        for (int value : old) {
+            if (value != EMPTY) {
+                table[indexOf(value)] = value;
+            }
+        }
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
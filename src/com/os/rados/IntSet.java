@@ -0,0 +1,121 @@
+package com.os.rados;
+
+import java.util.Arrays;
+
+// Set of ints in a primitive array, for the resources a process holds or
+// requests. While small, membership is a linear scan, which beats hashing
+// at these sizes and never boxes, and members keep insertion order. From
+// INDEXED members on it also keeps an open-addressed index of positions,
+// so a process holding thousands of resources still finds and drops each
+// in O(1); a removal then moves the last member into the gap.
+final class IntSet {
+    private static final int[] EMPTY = new int[0];
+    private static final int INDEXED = 16;
+
+    private int[] values = EMPTY;
+    private int size;
+    private int[] index; // position + 1 of each member, 0 for a free slot; null while small
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public int get(int i) { return values[i]; }
+
+    public boolean contains(int value) {
+        return indexOf(value) >= 0;
+    }
+
+    // Returns false if value was already present
+    public boolean add(int value) {
+        if (indexOf(value) >= 0) {
+            return false;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, size * 2));
+        }
+        values[size++] = value;
+        if (index != null && size * 2 <= index.length) {
+            index[slot(value)] = size;
+        } else if (size >= INDEXED) {
+            reindex(Integer.highestOneBit(size) * 4);
+        }
+        return true;
+    }
+
+    // Returns false if value was not present
+    public boolean remove(int value) {
+        int i = indexOf(value);
+        if (i < 0) {
+            return false;
+        }
+        if (index == null) {
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+            return true;
+        }
+        unindex(value);
+        int last = values[--size];
+        if (i != size) {
+            index[slot(last)] = i + 1;
+            values[i] = last;
+        }
+        return true;
+    }
+
+    public void clear() {
+        size = 0;
+        index = null;
+    }
+
+    // Copy of the members in order, safe to iterate while the set changes
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    private int indexOf(int value) {
+        if (index != null) {
+            return index[slot(value)] - 1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Index slot pointing at value, or the free slot where it would go
+    private int slot(int value) {
+        int mask = index.length - 1;
+        int i = hash(value) & mask;
+        while (index[i] != 0 && values[index[i] - 1] != value) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // Shifts later entries of the probe run back so lookups never stop short
+    private void unindex(int value) {
+        int mask = index.length - 1;
+        int gap = slot(value);
+        for (int j = (gap + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+            int home = hash(values[index[j] - 1]) & mask;
+            if (gap <= j ? home <= gap || home > j : home <= gap && home > j) {
+                index[gap] = index[j];
+                gap = j;
+            }
+        }
+        index[gap] = 0;
+    }
+
+    private void reindex(int length) {
+        index = new int[length];
+        for (int i = 0; i < size; i++) {
+            index[slot(values[i])] = i + 1;
+        }
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
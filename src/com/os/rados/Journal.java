@@ -0,0 +1,250 @@
+package com.os.rados;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Structured event journal shared by the managers, switched like Log and
+// Metrics. Events go into a preallocated ring of primitive columns: a
+// recorder claims a sequence number, fills its slot and publishes it, so
+// recording never allocates, locks or waits. Only the last capacity events
+// are kept; readers detect a slot overwritten under them and skip it.
+// streamTo copies events to a file on a background thread; if the writer
+// falls a whole ring behind it notes how many events it missed.
+final class Journal {
+    static boolean enabled = true;
+
+    // What a and b mean for each type; null when unused
+    enum Type {
+        CREATE(null, null),
+        FORK("parent", null),
+        DISPATCH("core", "clock"),
+        BLOCK("resource", null),
+        WAKE("resource", null),
+        ALLOC("resource", "pages"),
+        RELEASE("resource", null),
+        FREE(null, null),
+        DEADLOCK("resource", "holder"),
+        TERMINATE(null, "clock"),
+        FAULT("frame", "page"),
+        EVICT("frame", "page"),
+        COPY("resource", "page"),
+        PROMOTE("frame", "page"),
+        DEMOTE("frame", "page"),
+        QUEUE("resource", "pages"),
+        KILL("pages", "badness");
+
+        private static final Type[] VALUES = values();
+
+        final String a;
+        final String b;
+
+        Type(String a, String b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private static volatile Ring ring = new Ring(DEFAULT_CAPACITY);
+    private static final long EPOCH = System.nanoTime();
+    private static Streamer streamer;
+
+    private Journal() {}
+
+    // Drops everything recorded so far and starts a ring of at least capacity events
+    static synchronized void configure(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        ring = new Ring(Integer.highestOneBit(Math.max(2, capacity - 1)) << 1);
+    }
+
+    static int capacity() {
+        return ring.mask + 1;
+    }
+
+    static void record(Type type, int pid, int a, long b) {
+        if (enabled) {
+            ring.record(type, pid, a, b);
+        }
+    }
+
+    // Sequence number of the latest event, or -1 before the first
+    static long lastSeq() {
+        return ring.next.get() - 1;
+    }
+
+    // The last (at most) n events after sequence number after, oldest first, one per line
+    static String tail(int n, long after) {
+        Ring r = ring;
+        long last = r.next.get() - 1;
+        long from = Math.max(Math.max(after + 1, last - n + 1), last - r.mask);
+        StringBuilder out = new StringBuilder();
+        for (long seq = Math.max(0, from); seq <= last; seq++) {
+            r.format(seq, out);
+        }
+        return out.toString();
+    }
+
+    // Streams every event from now on to file, replacing any earlier stream
+    static synchronized void streamTo(Path file) throws IOException {
+        stopStreaming();
+        streamer = new Streamer(Files.newBufferedWriter(file), lastSeq() + 1);
+        streamer.start();
+    }
+
+    // Writes out whatever is still buffered and closes the file
+    static synchronized void stopStreaming() {
+        if (streamer != null) {
+            streamer.finish();
+            streamer = null;
+        }
+    }
+
+    private static final class Ring {
+        final int mask;
+        final AtomicLong next = new AtomicLong();
+        final AtomicLongArray published; // sequence held by each slot, -1 while it is written
+        final byte[] types;
+        final int[] pids;
+        final int[] as;
+        final long[] bs;
+        final long[] nanos;
+
+        Ring(int capacity) {
+            mask = capacity - 1;
+            published = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                published.set(i, -1);
+            }
+            types = new byte[capacity];
+            pids = new int[capacity];
+            as = new int[capacity];
+            bs = new long[capacity];
+            nanos = new long[capacity];
+        }
+
+        void record(Type type, int pid, int a, long b) {
+            long seq = next.getAndIncrement();
+            int slot = (int) seq & mask;
+            published.set(slot, -1);
+            VarHandle.storeStoreFence(); // readers must see -1 before any of the new fields
+            types[slot] = (byte) type.ordinal();
+            pids[slot] = pid;
+            as[slot] = a;
+            bs[slot] = b;
+            nanos[slot] = System.nanoTime() - EPOCH;
+            published.setRelease(slot, seq);
+        }
+
+        // Appends event seq as a line; false if it is not published yet or was overwritten
+        boolean format(long seq, StringBuilder out) {
+            int slot = (int) seq & mask;
+            if (published.getAcquire(slot) != seq) {
+                return false;
+            }
+            Type type = Type.VALUES[types[slot]];
+            int pid = pids[slot], a = as[slot];
+            long b = bs[slot], time = nanos[slot];
+            VarHandle.loadLoadFence(); // the fields above are read before the check below
+            if (published.getAcquire(slot) != seq) {
+                return false;
+            }
+            long micros = time / 1000;
+            int fraction = (int) (micros % 1000);
+            out.append('#').append(seq).append(' ').append(micros / 1000).append('.');
+            if (fraction < 100) {
+                out.append(fraction < 10 ? "00" : "0");
+            }
+            out.append(fraction).append("ms ").append(type).append(" PID=").append(pid);
+            if (type.a != null) {
+                out.append(' ').append(type.a).append('=').append(a);
+            }
+            if (type.b != null) {
+                out.append(' ').append(type.b).append('=').append(b);
+            }
+            out.append('\n');
+            return true;
+        }
+    }
+
+    private static final class Streamer extends Thread {
+        private static final long IDLE_NANOS = 10_000_000;
+
+        private final BufferedWriter writer;
+        private long cursor;
+        private volatile boolean stopping;
+
+        Streamer(BufferedWriter writer, long cursor) {
+            super("journal-writer");
+            setDaemon(true);
+            this.writer = writer;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void run() {
+            StringBuilder line = new StringBuilder();
+            try {
+                while (true) {
+                    boolean last = stopping;
+                    boolean caughtUp = drain(line);
+                    if (last) {
+                        break;
+                    }
+                    if (caughtUp) {
+                        LockSupport.parkNanos(IDLE_NANOS);
+                    }
+                }
+                writer.close();
+            } catch (IOException e) {
+                if (Log.enabled) Log.println("Journal stream stopped: " + e.getMessage());
+            }
+        }
+
+        // Writes out what has been published since the last call; true once nothing was pending
+        private boolean drain(StringBuilder line) throws IOException {
+            Ring r = ring;
+            long last = r.next.get() - 1;
+            if (cursor > last + 1) {
+                cursor = last + 1; // the ring was reconfigured
+            }
+            if (last - cursor > r.mask) {
+                writer.write("# " + (last - r.mask - cursor) + " events dropped\n");
+                cursor = last - r.mask;
+            }
+            boolean idle = cursor > last;
+            while (cursor <= last) {
+                line.setLength(0);
+                if (!r.format(cursor, line)) {
+                    // Claimed but not yet published: retry next round. Overwritten: skip it.
+                    if (r.published.getAcquire((int) cursor & r.mask) < cursor) {
+                        break;
+                    }
+                } else {
+                    writer.append(line);
+                }
+                cursor++;
+            }
+            writer.flush();
+            return idle;
+        }
+
+        void finish() {
+            stopping = true;
+            LockSupport.unpark(this);
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,659 @@
+package com.os.rados;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Headless simulation engine. Owns the managers, so the JavaFX controller and
+// the batch runner drive the same code path. The managers are thread-safe on
+// their own; the kernel only adds the per-resource lock that makes an
+// allocation's check-then-act sequence atomic.
+class Kernel {
+
+    enum AllocResult {
+        ALLOCATED,       // pages mapped and resource recorded
+        WAITING,         // resource held by another process; request queued
+        DEADLOCK,        // request would close a cycle; process left BLOCKED
+        FAILED,          // not enough free pages
+        UNSAFE,          // avoidance mode: grant would leave an unsafe state; process waits
+        EXCEEDS_CLAIM,   // avoidance mode: no declared claim covers the request
+        NO_SUCH_PROCESS,
+        QUEUED           // pressure control: out of pages; process BLOCKED until the allocation can be served
+    }
+
+    final ProcessManager pm;
+    final MemoryManager mm;
+    private volatile VirtualMemory vm; // Non-null once demand paging is enabled
+    private volatile Trace.Recorder trace; // Non-null while recording
+    private volatile MemoryPressure pressure; // Non-null while pressure control is on
+    private Snapshot.Writer snapshots;     // Last snapshot file, kept open for incremental writes
+
+    public Kernel() {
+        this(MemoryManager.DEFAULT_MEMORY_SIZE, MemoryManager.DEFAULT_PAGE_SIZE);
+    }
+
+    public Kernel(long memorySize, int pageSize) {
+        pm = new ProcessManager();
+        mm = new MemoryManager(memorySize, pageSize);
+    }
+
+    public int createProcess(String name) {
+        return createProcess(name, 0, -1);
+    }
+
+    // Holds the resource's stripe lock throughout, so two requests for the same
+    // resource are decided one after the other while other resources proceed
+    public AllocResult allocate(int pid, int size, int resourceId) {
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        AllocResult result = allocateLocked(pid, size, resourceId, true);
+        if (Metrics.enabled) {
+            Metrics.allocateLatency.record(System.nanoTime() - start);
+            Metrics.allocations[result.ordinal()].increment();
+        }
+        Trace.Recorder recorder = trace;
+        if (recorder != null) {
+            recorder.allocate(pid, size, resourceId, result);
+        }
+        MemoryPressure guard = pressure;
+        if (guard != null) {
+            guard.relieve(); // no stripe lock held here, so the OOM killer may free anything
+        }
+        return result;
+    }
+
+    // A queued allocation's next attempt; it is not queued again
+    AllocResult retry(int pid, int size, int resourceId) {
+        return allocateLocked(pid, size, resourceId, false);
+    }
+
+    // mayQueue: under pressure control, an allocation that cannot be served now is queued rather than failed
+    private AllocResult allocateLocked(int pid, int size, int resourceId, boolean mayQueue) {
+        if (pm.getProcessByPid(pid) == null) {
+            return AllocResult.NO_SUCH_PROCESS;
+        }
+        ReentrantLock lock = mm.lockFor(resourceId);
+        Metrics.lock(lock);
+        try {
+            int pidHolding = mm.getPidHoldingResource(resourceId);
+            if (pm.isAvoidanceEnabled()) {
+                return allocateAvoiding(pid, size, resourceId, pidHolding, mayQueue);
+            }
+            if (pidHolding != -1 && pidHolding != pid) {
+                // Resource is held by another process; request it
+                // Keep request and BLOCKED state either way
+                return pm.requestAndDetect(pid, resourceId, size, pidHolding) ? AllocResult.DEADLOCK : AllocResult.WAITING;
+            }
+            AllocResult queued = admit(pid, size, resourceId, mayQueue);
+            if (queued != null) {
+                return queued;
+            }
+            if (mm.allocate(pid, size, resourceId)) {
+                pm.addResource(pid, resourceId);
+                return AllocResult.ALLOCATED;
+            }
+            pm.removeResource(pid, resourceId, false);
+            return outOfMemory(pid, size, resourceId, mayQueue);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Avoid-up-front path: requests are checked against declared claims and the
+    // Banker's safety test before any state changes, so no cycle can form
+    private AllocResult allocateAvoiding(int pid, int size, int resourceId, int pidHolding, boolean mayQueue) {
+        if (pidHolding != pid) {
+            if (!pm.hasClaim(pid, resourceId)) {
+                return AllocResult.EXCEEDS_CLAIM;
+            }
+            if (pidHolding != -1) {
+                pm.requestResource(pid, resourceId, size, -1);
+                return AllocResult.WAITING;
+            }
+            AllocResult queued = admit(pid, size, resourceId, mayQueue);
+            if (queued != null) {
+                return queued;
+            }
+            // Checked and granted together, so concurrent grants of other resources can't combine into an unsafe state
+            if (!pm.grantIfSafe(pid, resourceId, size)) {
+                return AllocResult.UNSAFE;
+            }
+            if (!mm.allocate(pid, size, resourceId)) {
+                pm.removeResource(pid, resourceId, true); // hand the grant back
+                return outOfMemory(pid, size, resourceId, mayQueue);
+            }
+            pm.addResource(pid, resourceId);
+            return AllocResult.ALLOCATED;
+        }
+        AllocResult queued = admit(pid, size, resourceId, mayQueue);
+        if (queued != null) {
+            return queued;
+        }
+        if (mm.allocate(pid, size, resourceId)) {
+            pm.addResource(pid, resourceId);
+            return AllocResult.ALLOCATED;
+        }
+        pm.removeResource(pid, resourceId, false);
+        return outOfMemory(pid, size, resourceId, mayQueue);
+    }
+
+    // Under pressure control, an allocation that would overtake queued ones
+    // waits its turn; null lets it go ahead. Called with the stripe lock held.
+    private AllocResult admit(int pid, int size, int resourceId, boolean mayQueue) {
+        MemoryPressure guard = pressure;
+        if (!mayQueue || guard == null || size <= 0 || !guard.mustQueue(mm.pagesFor(size))) {
+            return null;
+        }
+        return queue(guard, pid, size, resourceId);
+    }
+
+    // mm.allocate said no. Under pressure control an allocation that could
+    // ever fit is queued; otherwise it fails.
+    private AllocResult outOfMemory(int pid, int size, int resourceId, boolean mayQueue) {
+        MemoryPressure guard = pressure;
+        if (!mayQueue || guard == null || size <= 0 || mm.pagesFor(size) > mm.getNumPages()) {
+            return AllocResult.FAILED;
+        }
+        return queue(guard, pid, size, resourceId);
+    }
+
+    private AllocResult queue(MemoryPressure guard, int pid, int size, int resourceId) {
+        int pages = mm.pagesFor(size);
+        pm.waitForMemory(pid, resourceId, pages); // blocked before anyone can serve it
+        guard.enqueue(pid, size, resourceId, pages);
+        return AllocResult.QUEUED;
+    }
+
+    public void enableAvoidance() {
+        pm.enableAvoidance();
+    }
+
+    public void declareClaim(int pid, int resourceId, int units) {
+        pm.declareClaim(pid, resourceId, units);
+    }
+
+    public boolean free(int pid) {
+        boolean freed = freeMemory(pid);
+        Trace.Recorder recorder = trace;
+        if (recorder != null) {
+            recorder.free(pid, freed);
+        }
+        return freed;
+    }
+
+    private boolean freeMemory(int pid) {
+        MemoryPressure guard = pressure;
+        if (guard != null) {
+            guard.cancel(pid);
+        }
+        boolean freed = mm.free(pid, resourceId -> {
+            pm.removeResource(pid, resourceId, true);
+            handOff(resourceId);
+        });
+        pm.releaseAll(pid); // outstanding requests
+        VirtualMemory paging = vm;
+        if (paging != null) {
+            paging.release(pid);
+        }
+        if (guard != null) {
+            guard.drain(); // the frames may serve queued allocations
+        }
+        retryDeferred();
+        return freed;
+    }
+
+    // Frees a TERMINATED process's memory for the pressure controller. Not
+    // traced: a replay with the same control reclaims it the same way.
+    void reclaim(int pid) {
+        freeMemory(pid);
+    }
+
+    // The OOM killer's way out for pid: it terminates, then its memory goes.
+    // In that order, so that freeing cannot wake it to allocate again.
+    void kill(int pid) {
+        pm.kill(pid);
+        freeMemory(pid);
+    }
+
+    // Switches on watermark-driven pressure control (see MemoryPressure) with
+    // watermarks in pages, or the defaults for this memory when low is -1
+    public void enablePressureControl(int low, int high) {
+        if (low == -1) {
+            int[] defaults = MemoryPressure.defaultWatermarks(mm.getNumPages());
+            low = defaults[0];
+            high = defaults[1];
+        }
+        MemoryPressure next = new MemoryPressure(this, low, high);
+        synchronized (this) {
+            MemoryPressure current = pressure;
+            if (current != null && current.hasQueued()) {
+                throw new IllegalStateException("Allocations are queued; free memory before changing pressure control");
+            }
+            pressure = next;
+            pm.setTerminateListener(next::terminated);
+            next.findTerminated(); // those that terminated before it listened
+        }
+    }
+
+    public void disablePressureControl() {
+        synchronized (this) {
+            MemoryPressure current = pressure;
+            if (current != null && current.hasQueued()) {
+                throw new IllegalStateException("Allocations are queued; free memory before switching pressure control off");
+            }
+            pressure = null;
+            pm.setTerminateListener(null);
+        }
+    }
+
+    // Lets pressure control act on the current state, as it does after each
+    // allocation; for drivers that find every process blocked. True if it
+    // served a queued allocation or killed a process.
+    public boolean relieveMemory() {
+        MemoryPressure guard = pressure;
+        return guard != null && guard.relieve();
+    }
+
+    // Kills the process with the highest OOM badness now; false if none holds memory
+    public boolean killForMemory() {
+        MemoryPressure guard = pressure;
+        if (guard == null) {
+            throw new IllegalStateException("Pressure control is not enabled");
+        }
+        return guard.kill();
+    }
+
+    public String pressureStats() {
+        MemoryPressure guard = pressure;
+        return guard == null ? "Pressure control is not enabled\n" : guard.stats();
+    }
+
+    // Removes finished processes that hold nothing so their pids can be reused.
+    // Pages they inherited by fork and their shared mappings go first, so a
+    // reused pid starts out mapping nothing.
+    public int reap() {
+        int[] pids = pm.reapable();
+        boolean unmapped = false;
+        for (int pid : pids) {
+            unmapped |= mm.dropMappings(pid);
+        }
+        MemoryPressure guard = pressure;
+        if (unmapped && guard != null) {
+            guard.drain(); // the frames may serve queued allocations
+        }
+        int reaped = pm.reap(pids, pid -> {
+            VirtualMemory paging = vm;
+            if (paging != null) {
+                paging.release(pid);
+            }
+        });
+        retryDeferred(); // their claims are gone
+        return reaped;
+    }
+
+    // Switches on demand paging over frames page frames (0 for one per physical
+    // page). policy is fifo, lru, clock or ws; window is the working-set size in
+    // references. Replaces any earlier configuration, dropping its pages.
+    public void enableVirtualMemory(int frames, String policy, int tlbEntries, long window) {
+        enableVirtualMemory(frames, policy, tlbEntries, window, VirtualMemory.DEFAULT_LEVELS, 0);
+    }
+
+    // As above with levels-deep page tables and huge pages of hugeSpan pages (0 for none)
+    public void enableVirtualMemory(int frames, String policy, int tlbEntries, long window, int levels, int hugeSpan) {
+        vm = new VirtualMemory(frames > 0 ? frames : mm.getNumPages(), mm.getPageSize(), policy, tlbEntries, window,
+                levels, hugeSpan);
+    }
+
+    // Simulates pid reading (or writing) one virtual address, faulting the page in if needed
+    public VirtualMemory.Access access(int pid, long address, boolean write) {
+        VirtualMemory paging = vm;
+        if (paging == null) {
+            throw new IllegalStateException("Virtual memory is not enabled");
+        }
+        if (pm.getProcessByPid(pid) == null) {
+            return VirtualMemory.Access.NO_SUCH_PROCESS;
+        }
+        return paging.access(pid, address, write);
+    }
+
+    public String virtualMemoryStats() {
+        VirtualMemory paging = vm;
+        return paging == null ? "Virtual memory is not enabled\n" : paging.stats();
+    }
+
+    // Gives every READY process one slice. pacing is wall-clock milliseconds per
+    // simulated time unit (0 runs as fast as possible). No lock is held across
+    // the paced slice itself.
+    public void schedule(double pacing, Consumer<PCB> listener) {
+        pm.schedule(pacing, listener);
+        retryDeferred(); // processes that finished gave up their claims
+    }
+
+    public PCB dispatch() {
+        return dispatch(0);
+    }
+
+    // Marks the next READY process for core RUNNING and fixes its slice, or returns null
+    public PCB dispatch(int core) {
+        return pm.dispatch(core);
+    }
+
+    // Accounts for ran time units of a dispatched process
+    public void endSlice(PCB process, long ran) {
+        pm.endSlice(process, ran);
+        retryDeferred(); // in case it finished
+    }
+
+    // Accounts for a dispatched process's last slice and terminates it
+    public void exit(PCB process, long ran) {
+        pm.exit(process, ran);
+        retryDeferred();
+    }
+
+    public int cores() {
+        return pm.cores();
+    }
+
+    // listener runs whenever a process joins the ready queue, with the
+    // process manager locked; null removes it
+    public void setEnqueueListener(Runnable listener) {
+        pm.setEnqueueListener(listener);
+    }
+
+    public boolean isIdle() {
+        return pm.isIdle();
+    }
+
+    public boolean setAffinity(int pid, int core) {
+        return pm.setAffinity(pid, core);
+    }
+
+    public long getClock() {
+        return pm.getClock();
+    }
+
+    public void advanceClockTo(long time) {
+        pm.advanceClockTo(time);
+    }
+
+    // Releases one resource held by pid and wakes its waiters
+    public boolean release(int pid, int resourceId) {
+        boolean released = releaseLocked(pid, resourceId);
+        MemoryPressure guard = pressure;
+        if (released && guard != null) {
+            guard.drain();
+        }
+        if (released) {
+            retryDeferred();
+        }
+        Trace.Recorder recorder = trace;
+        if (recorder != null) {
+            recorder.release(pid, resourceId, released);
+        }
+        return released;
+    }
+
+    private boolean releaseLocked(int pid, int resourceId) {
+        ReentrantLock lock = mm.lockFor(resourceId);
+        Metrics.lock(lock);
+        try {
+            if (!mm.release(pid, resourceId)) {
+                return false;
+            }
+            pm.removeResource(pid, resourceId, true);
+            handOff(resourceId);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Passes a just-released resource straight to the next process waiting for
+    // it, so waiters are not all woken to race for it again. Called with the
+    // resource's stripe lock held. A waiter whose pages no longer fit is woken
+    // to retry (and fail) on its own, and the next one is tried.
+    private void handOff(int resourceId) {
+        WaitQueue.Waiter waiter;
+        while ((waiter = pm.takeWaiter(resourceId)) != null) {
+            int pid = waiter.process.getPid();
+            if (mm.allocate(pid, waiter.size, resourceId)) {
+                pm.addResource(pid, resourceId);
+                Journal.record(Journal.Type.WAKE, pid, resourceId, 0);
+                if (Log.enabled) Log.println("Resource " + resourceId + " handed to waiting PID=" + pid);
+                return;
+            }
+            pm.removeResource(pid, resourceId, true); // give the grant back
+        }
+    }
+
+    // Available grew or a claim went away, so waiters the Banker turned away
+    // may be safe to serve now. Called with no stripe lock held.
+    private void retryDeferred() {
+        for (int resourceId : pm.deferredResources()) {
+            ReentrantLock lock = mm.lockFor(resourceId);
+            Metrics.lock(lock);
+            try {
+                handOff(resourceId);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Serve each resource's waiters by process priority instead of arrival order
+    public void setPriorityWaits(boolean byPriority) {
+        pm.setPriorityWaits(byPriority);
+    }
+
+    public int createProcess(String name, int priority, long burst) {
+        int pid = pm.createProcess(name, priority, burst);
+        Trace.Recorder recorder = trace;
+        if (recorder != null) {
+            recorder.create(name, priority, burst, pid);
+        }
+        return pid;
+    }
+
+    // Copy-on-write fork: a new process with pid's memory, sharing its frames
+    // until one side writes. Returns the child's pid, or -1 if pid is unknown.
+    // Excludes snapshot, which would otherwise catch the child without its pages.
+    public int fork(int pid) {
+        int child;
+        synchronized (this) {
+            child = pm.fork(pid);
+            if (child != -1) {
+                mm.fork(pid, child);
+            }
+        }
+        Trace.Recorder recorder = trace;
+        if (recorder != null) {
+            recorder.fork(pid, child);
+        }
+        return child;
+    }
+
+    // A write by pid to the index-th page of resourceId, copying it if it is copy-on-write
+    public MemoryManager.Write write(int pid, int resourceId, int index) {
+        MemoryManager.Write result = mm.write(pid, resourceId, index);
+        Trace.Recorder recorder = trace;
+        if (recorder != null) {
+            recorder.write(pid, resourceId, index, result);
+        }
+        return result;
+    }
+
+    // Maps resourceId's pages into pid as well, uncopied, while its holder keeps it; not into a TERMINATED pid
+    public boolean share(int pid, int resourceId) {
+        PCB process = pm.getProcessByPid(pid);
+        boolean shared = process != null && !process.is(PCB.TERMINATED) && mm.share(pid, resourceId);
+        Trace.Recorder recorder = trace;
+        if (recorder != null) {
+            recorder.share(pid, resourceId, shared);
+        }
+        return shared;
+    }
+
+    public String sharingStats() {
+        return mm.sharingStats();
+    }
+
+    // Placement strategy allocations must also fit; see MemoryManager.setAllocator
+    public void setAllocator(String strategy) {
+        mm.setAllocator(strategy);
+    }
+
+    public String allocatorStats() {
+        return mm.allocatorStats();
+    }
+
+    // Saves the kernel's state to file; see Snapshot. Later snapshots to the
+    // same file only rewrite the memory regions that changed in between.
+    public synchronized String snapshot(Path file) throws IOException {
+        MemoryPressure guard = pressure;
+        if (guard != null && guard.hasQueued()) {
+            throw new IllegalStateException("Allocations are queued for memory; snapshots do not record the queue");
+        }
+        if (snapshots == null || !snapshots.getPath().equals(file)) {
+            closeSnapshots();
+            snapshots = new Snapshot.Writer(file, mm);
+        }
+        return snapshots.write(this);
+    }
+
+    // Settings outside the process and memory managers, for a Snapshot:
+    // pressure watermarks and the virtual memory configuration
+    void saveSettings(DataOutputStream out) throws IOException {
+        MemoryPressure guard = pressure;
+        out.writeBoolean(guard != null);
+        if (guard != null) {
+            Trace.writeVarLong(out, guard.low());
+            Trace.writeVarLong(out, guard.high());
+        }
+        VirtualMemory paging = vm;
+        out.writeBoolean(paging != null);
+        if (paging != null) {
+            paging.saveSettings(out);
+        }
+    }
+
+    void restoreSettings(DataInputStream in) throws IOException {
+        if (in.readBoolean()) {
+            int low = (int) Trace.readVarLong(in);
+            enablePressureControl(low, (int) Trace.readVarLong(in));
+        }
+        if (in.readBoolean()) {
+            vm = VirtualMemory.restoreSettings(in, mm.getPageSize());
+        }
+    }
+
+    public synchronized void closeSnapshots() throws IOException {
+        if (snapshots != null) {
+            snapshots.close();
+            snapshots = null;
+        }
+    }
+
+    // A new kernel in the state of file's newest complete snapshot
+    public static Kernel restore(Path file) throws IOException {
+        return Snapshot.restore(file);
+    }
+
+    // Records every create, fork, allocate, write, share, free and release from now on; see Trace
+    public void startRecording(OutputStream out) throws IOException {
+        stopRecording();
+        trace = new Trace.Recorder(out, mm.getMemorySize(), mm.getPageSize());
+    }
+
+    // Returns the number of calls recorded, or -1 if nothing was being recorded
+    public long stopRecording() throws IOException {
+        Trace.Recorder recorder = trace;
+        if (recorder == null) {
+            return -1;
+        }
+        trace = null;
+        recorder.close();
+        return recorder.getRecords();
+    }
+
+    public void setScheduler(Scheduler scheduler) {
+        pm.setScheduler(scheduler);
+    }
+
+    public String schedulerStats() {
+        return pm.schedulerStats();
+    }
+
+    public int holderOf(int resourceId) {
+        return mm.getPidHoldingResource(resourceId);
+    }
+
+    public List<List<Integer>> findDeadlocks() {
+        return pm.findDeadlocks();
+    }
+
+    public String avoidanceStats() {
+        return pm.avoidanceStats();
+    }
+
+    public String listProcesses() {
+        return pm.listProcesses();
+    }
+
+    public long pageFaults() {
+        VirtualMemory paging = vm;
+        return paging == null ? 0 : paging.getFaults();
+    }
+
+    // Counters, gauges and latency percentiles, one per line
+    public String statsSummary() {
+        return String.format("Processes: %d ready, %d running, %d blocked, %d terminated%n"
+                        + "Ready queue: %d, dispatches: %d, free pages: %d/%d%n"
+                        + "Allocations: %d ok, %d waiting, %d deadlock, %d failed%n"
+                        + "Allocate ns: %s%n"
+                        + "Deadlock checks: %d (%d found), ns: %s%n"
+                        + "Lock waits: %d of %d acquisitions, ns: %s%n",
+                pm.countInState(PCB.READY), pm.countInState(PCB.RUNNING),
+                pm.countInState(PCB.BLOCKED), pm.countInState(PCB.TERMINATED),
+                pm.readyQueueLength(), pm.getDispatches(), mm.getFreePageCount(), mm.getNumPages(),
+                Metrics.allocations(AllocResult.ALLOCATED), Metrics.allocations(AllocResult.WAITING),
+                Metrics.allocations(AllocResult.DEADLOCK), Metrics.allocations(AllocResult.FAILED),
+                Metrics.allocateLatency.summary(),
+                Metrics.deadlockChecks.sum(), Metrics.deadlocksFound.sum(), Metrics.deadlockCheckLatency.summary(),
+                Metrics.lockWait.count(), Metrics.lockAcquisitions.sum(), Metrics.lockWait.summary());
+    }
+
+    // Change tracking for views that redraw incrementally; each call clears what it returns
+
+    public int[] takeDirtyPids() {
+        return pm.takeDirtyPids();
+    }
+
+    public int[] takeDirtyPages() {
+        return mm.takeDirtyPages();
+    }
+
+    // {pid, name, state}, or null if pid is not in use
+    public Object[] describeProcess(int pid) {
+        return pm.describe(pid);
+    }
+
+    public int numPages() {
+        return mm.getNumPages();
+    }
+
+    public int pageOwner(int page) {
+        return mm.pageOwner(page);
+    }
+
+    public int pageResource(int page) {
+        return mm.pageResource(page);
+    }
+
+    public String printMemory() {
+        return mm.printMemory();
+    }
+}
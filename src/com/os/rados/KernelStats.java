@@ -0,0 +1,63 @@
+package com.os.rados;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Publishes Metrics and the kernel's gauges over JMX (jconsole, VisualVM).
+class KernelStats implements KernelStatsMXBean {
+    static final String NAME = "com.os.rados:type=Kernel";
+
+    private final Kernel kernel;
+
+    KernelStats(Kernel kernel) {
+        this.kernel = kernel;
+    }
+
+    // Registers kernel under NAME, replacing whatever was registered before
+    static void register(Kernel kernel) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new KernelStats(kernel), name);
+        } catch (JMException e) {
+            if (Log.enabled) Log.println("Could not register JMX statistics: " + e.getMessage());
+        }
+    }
+
+    public long getAllocationsGranted() { return Metrics.allocations(Kernel.AllocResult.ALLOCATED); }
+    public long getAllocationsWaiting() { return Metrics.allocations(Kernel.AllocResult.WAITING); }
+    public long getAllocationsDeadlocked() { return Metrics.allocations(Kernel.AllocResult.DEADLOCK); }
+    public long getAllocationsFailed() { return Metrics.allocations(Kernel.AllocResult.FAILED); }
+    public long getAllocationsUnsafe() { return Metrics.allocations(Kernel.AllocResult.UNSAFE); }
+    public long getAllocationsQueued() { return Metrics.allocations(Kernel.AllocResult.QUEUED); }
+    public long getAllocateLatencyP50() { return Metrics.allocateLatency.percentile(50); }
+    public long getAllocateLatencyP99() { return Metrics.allocateLatency.percentile(99); }
+    public long getAllocateLatencyMax() { return Metrics.allocateLatency.max(); }
+
+    public long getDeadlockChecks() { return Metrics.deadlockChecks.sum(); }
+    public long getDeadlocksFound() { return Metrics.deadlocksFound.sum(); }
+    public long getDeadlockCheckLatencyP99() { return Metrics.deadlockCheckLatency.percentile(99); }
+
+    public long getLockAcquisitions() { return Metrics.lockAcquisitions.sum(); }
+    public long getLockWaits() { return Metrics.lockWait.count(); }
+    public long getLockWaitP99() { return Metrics.lockWait.percentile(99); }
+    public long getLockWaitMax() { return Metrics.lockWait.max(); }
+
+    public int getReadyQueueLength() { return kernel.pm.readyQueueLength(); }
+    public int getReadyProcesses() { return kernel.pm.countInState(PCB.READY); }
+    public int getRunningProcesses() { return kernel.pm.countInState(PCB.RUNNING); }
+    public int getBlockedProcesses() { return kernel.pm.countInState(PCB.BLOCKED); }
+    public int getTerminatedProcesses() { return kernel.pm.countInState(PCB.TERMINATED); }
+    public long getDispatches() { return kernel.pm.getDispatches(); }
+    public int getFreePages() { return kernel.mm.getFreePageCount(); }
+    public long getPageFaults() { return kernel.pageFaults(); }
+    public long getCopyOnWriteReferences() { return kernel.mm.getCopyOnWriteReferences(); }
+    public long getCopyOnWriteCopies() { return kernel.mm.getCopies(); }
+
+    public void resetStatistics() { Metrics.reset(); }
+}
@@ -0,0 +1,37 @@
+package com.os.rados;
+
+// Management view of a running kernel, published as com.os.rados:type=Kernel.
+// Latencies are in nanoseconds.
+public interface KernelStatsMXBean {
+    long getAllocationsGranted();
+    long getAllocationsWaiting();
+    long getAllocationsDeadlocked();
+    long getAllocationsFailed();
+    long getAllocationsUnsafe();
+    long getAllocationsQueued();
+    long getAllocateLatencyP50();
+    long getAllocateLatencyP99();
+    long getAllocateLatencyMax();
+
+    long getDeadlockChecks();
+    long getDeadlocksFound();
+    long getDeadlockCheckLatencyP99();
+
+    long getLockAcquisitions();
+    long getLockWaits();
+    long getLockWaitP99();
+    long getLockWaitMax();
+
+    int getReadyQueueLength();
+    int getReadyProcesses();
+    int getRunningProcesses();
+    int getBlockedProcesses();
+    int getTerminatedProcesses();
+    long getDispatches();
+    int getFreePages();
+    long getPageFaults();
+    long getCopyOnWriteReferences();
+    long getCopyOnWriteCopies();
+
+    void resetStatistics();
+}
@@ -0,0 +1,15 @@
+package com.os.rados;
+
+// Console output shared by the managers. Headless runs switch it off so
+// the println calls stop dominating the hot paths.
+final class Log {
+    static boolean enabled = true;
+
+    private Log() {}
+
+    static void println(String line) {
+        if (enabled) {
+            System.out.println(line);
+        }
+    }
+}
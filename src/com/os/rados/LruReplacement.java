@@ -0,0 +1,18 @@
+package com.os.rados;
+
+// Evicts the least recently used page: FIFO order, but every hit moves the
+// frame back to the young end, so each access is O(1).
+class LruReplacement extends FifoReplacement {
+
+    public LruReplacement(int frames) {
+        super(frames);
+    }
+
+    @Override
+    public String getName() { return "LRU"; }
+
+    @Override
+    public void accessed(int frame, long now) {
+        touch(frame);
+    }
+}
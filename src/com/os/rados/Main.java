@@ -1,15 +1,17 @@
 package com.os.rados;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 
+import java.util.Arrays;
+
 public class Main extends Application {
 
-    public static ProcessManager pm;
-    public static MemoryManager mm;
-    public static Semaphore semaphore;
+    public static Kernel kernel;
+    public static CommandPipeline commands;
 
     @Override
     public void start(Stage primaryStage) throws Exception {
@@ -24,10 +26,16 @@ public class Main extends Application {
         primaryStage.show();
     }
 
-    public static void main(String[] args) {
-        pm = new ProcessManager();
-        mm = new MemoryManager();
-        semaphore = new Semaphore(1); // For mutual exclusion
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            // Headless: drive the kernel from a command script instead of the UI
+            BatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        kernel = new Kernel(); // pressure control stays off until switched on in the UI
+        KernelStats.register(kernel);
+        commands = new CommandPipeline(kernel, Platform::runLater,
+                e -> System.err.println("Command failed: " + e.getMessage()));
 
         launch(args);
     }
@@ -0,0 +1,76 @@
+package com.os.rados;
+
+import java.util.function.IntUnaryOperator;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+// Frame occupancy drawn as a grid of cells, one colour per owning pid. With
+// more pages than fit at two pixels a cell, each cell covers a run of pages
+// and shows the first owner found in it. Only cells holding a changed page
+// are repainted.
+class MemoryHeatmap {
+    private static final Color FREE = Color.web("#2A2A3A");
+    private static final int MIN_CELL = 2;
+
+    private final Canvas canvas;
+    private final int numPages;
+    private final int pagesPerCell;
+    private final int columns;
+    private final double cellWidth;
+    private final double cellHeight;
+
+    MemoryHeatmap(Canvas canvas, int numPages) {
+        this.canvas = canvas;
+        this.numPages = numPages;
+        double width = canvas.getWidth(), height = canvas.getHeight();
+        long maxCells = Math.max(1, (long) (width / MIN_CELL) * (long) (height / MIN_CELL));
+        pagesPerCell = (int) Math.max(1, (numPages + maxCells - 1) / maxCells);
+        int cells = (numPages + pagesPerCell - 1) / pagesPerCell;
+        columns = Math.max(1, (int) Math.ceil(Math.sqrt(cells * width / height)));
+        int rows = (cells + columns - 1) / columns;
+        cellWidth = width / columns;
+        cellHeight = height / rows;
+    }
+
+    void redrawAll(IntUnaryOperator owner) {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        g.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        int cells = (numPages + pagesPerCell - 1) / pagesPerCell;
+        for (int cell = 0; cell < cells; cell++) {
+            drawCell(g, cell, owner);
+        }
+    }
+
+    // pages must be ascending, as the managers report them
+    void redrawPages(int[] pages, IntUnaryOperator owner) {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        int last = -1;
+        for (int page : pages) {
+            int cell = page / pagesPerCell;
+            if (cell != last && page < numPages) {
+                drawCell(g, cell, owner);
+                last = cell;
+            }
+        }
+    }
+
+    private void drawCell(GraphicsContext g, int cell, IntUnaryOperator owner) {
+        int pid = -1;
+        int end = Math.min(numPages, (cell + 1) * pagesPerCell);
+        for (int page = cell * pagesPerCell; page < end && pid == -1; page++) {
+            pid = owner.applyAsInt(page);
+        }
+        g.setFill(pid == -1 ? FREE : colourFor(pid));
+        double x = (cell % columns) * cellWidth, y = (cell / columns) * cellHeight;
+        // Leave a hairline gap only when cells are big enough to show it
+        double gap = cellWidth > 4 && cellHeight > 4 ? 1 : 0;
+        g.fillRect(x, y, cellWidth - gap, cellHeight - gap);
+    }
+
+    // Golden-angle hues keep neighbouring pids apart
+    static Color colourFor(int pid) {
+        return Color.hsb((pid * 137.508) % 360, 0.7, 0.9);
+    }
+}
@@ -1,146 +1,951 @@
 package com.os.rados;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
 
+// Thread-safe without a global lock. Pages are split into regions, each with
+// its own free bitmap guarded by a StampedLock; a shared counter reserves
+// pages up front so an allocation never fails halfway through. Resources are
+// guarded by striped locks, so allocations of different resources only meet
+// on the region locks. printMemory copies each region under an optimistic
+// read and never blocks writers.
+//
+// A frame normally has one mapping, its owner's. fork gives the child the
+// parent's frames copy-on-write: the other pids referencing a frame are kept
+// beside it, and the first write through any of them copies the page. When
+// the owner lets go of a shared frame, one of the others takes it over.
+// share maps a resource's pages into another process as they are, for as
+// long as the resource is held.
+//
+// setAllocator adds a placement strategy (see PhysicalAllocator) that must
+// also find room for every resource allocation, so buddy or slab placement
+// and its fragmentation can be measured against the same workload. It only
+// covers resource allocations: copy-on-write copies come from the pager.
 class MemoryManager {
-    private int[] memory;
-    private static final int MEMORY_SIZE = 100;
-    private static final int PAGE_SIZE = 10;
-    private static final int NUM_PAGES = MEMORY_SIZE / PAGE_SIZE;
-    private Map<Integer, List<Integer>> resourceToPages; // Maps resourceId to list of page indices
+
+    enum Write {
+        IN_PLACE,     // the page was exclusive (or a shared mapping)
+        COPIED,       // the page was copy-on-write; pid now has its own copy
+        OUT_OF_MEMORY, // a copy was needed but no page was free
+        NOT_MAPPED
+    }
+
+    static final long DEFAULT_MEMORY_SIZE = 100;
+    static final int DEFAULT_PAGE_SIZE = 10;
+    static final int REGION_PAGES = 1024;
+    private static final int STRIPES = 64; // power of two
+
+    private final long memorySize;
+    private final int pageSize;
+    private final int numPages;
+    private final FrameTable frames; // Owner pid and resourceId per page, guarded by the page's region
+    private final PageBitmap[] regions;
+    private final StampedLock[] regionLocks;
+    private final AtomicInteger freeCount;
+    private final ReentrantLock[] stripes;
+    private final Map<Integer, List<Integer>> resourceToPages; // Maps resourceId to list of page indices
+    private final Map<Integer, List<Integer>> pidToResources;  // Maps pid to the resourceIds it holds
+    private final Map<Integer, Integer> pageCounts;            // Frames each pid owns, inherited ones included; absent when none
+    private final AtomicLongArray dirtyPages; // one bit per page mapped or unmapped since takeDirtyPages
+    private final AtomicLongArray dirtyRegions; // one bit per region changed since takeDirtyRegions
+    private final AtomicLongArray freeRegions;  // one bit per region with a free page, changed under that region's lock
+    private final Map<Integer, Map<Integer, List<Integer>>> forkCopies; // pid -> resourceId -> pages inherited by fork
+    private final Map<Integer, IntSet> cowSharers;     // frame -> pids besides its owner mapping it, under the frame's region lock
+    private final Map<Integer, IntSet> sharedMappings; // resourceId -> pids mapping its pages, under the resource's stripe
+    private final AtomicLong cowReferences = new AtomicLong(); // total size of cowSharers
+    private final AtomicLong copies = new AtomicLong();
+    private final Object placementLock = new Object();
+    private PhysicalAllocator placement;              // null: the pager alone decides; under placementLock
+    private final Map<Integer, List<Long>> placements; // resourceId -> placement handles, under the resource's stripe
 
     public MemoryManager() {
-        memory = new int[MEMORY_SIZE];
-        for (int i = 0; i < MEMORY_SIZE; i++) {
-            memory[i] = -1; // -1 indicates free memory
+        this(DEFAULT_MEMORY_SIZE, DEFAULT_PAGE_SIZE);
+    }
+
+    public MemoryManager(long memorySize, int pageSize) {
+        if (pageSize <= 0 || memorySize < pageSize || memorySize / pageSize > Integer.MAX_VALUE - 64) {
+            throw new IllegalArgumentException("Invalid memory geometry: " + memorySize + " units, " + pageSize + " per page");
+        }
+        this.memorySize = memorySize;
+        this.pageSize = pageSize;
+        numPages = (int) (memorySize / pageSize);
+        frames = new FrameTable(numPages);
+        int count = (numPages + REGION_PAGES - 1) / REGION_PAGES;
+        regions = new PageBitmap[count];
+        regionLocks = new StampedLock[count];
+        for (int r = 0; r < count; r++) {
+            regions[r] = new PageBitmap(Math.min(REGION_PAGES, numPages - r * REGION_PAGES));
+            regionLocks[r] = new StampedLock();
+        }
+        freeCount = new AtomicInteger(numPages);
+        stripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        resourceToPages = new ConcurrentHashMap<>();
+        pidToResources = new ConcurrentHashMap<>();
+        pageCounts = new ConcurrentHashMap<>();
+        dirtyPages = new AtomicLongArray((numPages + 63) >>> 6);
+        dirtyRegions = new AtomicLongArray((count + 63) >>> 6);
+        freeRegions = new AtomicLongArray((count + 63) >>> 6);
+        for (int r = 0; r < count; r++) {
+            noteFree(r);
+        }
+        forkCopies = new ConcurrentHashMap<>();
+        cowSharers = new ConcurrentHashMap<>();
+        sharedMappings = new ConcurrentHashMap<>();
+        placements = new ConcurrentHashMap<>();
+    }
+
+    public long getMemorySize() { return memorySize; }
+    public int getPageSize() { return pageSize; }
+    public int getNumPages() { return numPages; }
+    public int getFreePageCount() { return freeCount.get(); }
+
+    // Pages an allocation of size memory units takes
+    public int pagesFor(int size) {
+        return (int) ((size + (long) pageSize - 1) / pageSize);
+    }
+
+    // Frames pid owns: the pages of the resources it holds plus those it
+    // inherited by fork and copied or took over. Approximate while they are changing.
+    public int pagesHeldBy(int pid) {
+        return pageCounts.getOrDefault(pid, 0);
+    }
+
+    // Pids owning frames right now, as a live view
+    public Set<Integer> pageHolders() {
+        return Collections.unmodifiableSet(pageCounts.keySet());
+    }
+
+    // Pids still mapping pages inherited by fork, as a live view. They may
+    // come to own those frames once the other sharers let go.
+    public Set<Integer> inheritors() {
+        return Collections.unmodifiableSet(forkCopies.keySet());
+    }
+
+    // True if pid owns frames or maps pages it inherited by fork
+    public boolean maps(int pid) {
+        return pageCounts.containsKey(pid) || forkCopies.containsKey(pid);
+    }
+
+    // Called wherever a frame changes owner, under its region lock
+    private void countPages(int pid, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        pageCounts.merge(pid, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    // Lock guarding resourceId's pages; callers may hold it across a compound
+    // operation. Take it before any ProcessManager call, and only one at a time.
+    public ReentrantLock lockFor(int resourceId) {
+        return stripes[(resourceId * 0x9E3779B9 >>> 16) & (STRIPES - 1)];
+    }
+
+    // Resources currently held by pid; empty if it holds none
+    public List<Integer> getResourcesHeldBy(int pid) {
+        List<Integer> held = pidToResources.get(pid);
+        if (held == null) {
+            return Collections.emptyList();
+        }
+        synchronized (held) {
+            return List.copyOf(held);
         }
-        resourceToPages = new HashMap<>();
     }
 
     public boolean allocate(int pid, int size, int resourceId) {
-        // Calculate number of pages needed
-        int pagesNeeded = (int) Math.ceil((double) size / PAGE_SIZE);
+        if (size <= 0) {
+            if (Log.enabled) Log.println("Allocation failed for PID=" + pid + ": size must be positive");
+            return false;
+        }
+        int pagesNeeded = pagesFor(size);
+
+        ReentrantLock lock = lockFor(resourceId);
+        Metrics.lock(lock);
+        try {
+            // Check if resourceId is already allocated to another process
+            List<Integer> existing = resourceToPages.get(resourceId);
+            if (existing != null) {
+                int currentPid = owner(existing.get(0));
+                if (currentPid != -1 && currentPid != pid) {
+                    if (Log.enabled) Log.println("Resource " + resourceId + " is held by PID=" + currentPid + "; PID=" + pid + " must wait");
+                    return false; // Resource is held, process must wait
+                }
+            }
 
-        // Check if resourceId is already allocated to another process
-        if (resourceToPages.containsKey(resourceId)) {
+            if (!reserve(pagesNeeded)) {
+                if (Log.enabled) Log.println("Allocation failed for PID=" + pid + ": insufficient free pages");
+                return false;
+            }
+            if (!place(resourceId, size)) {
+                freeCount.addAndGet(pagesNeeded);
+                if (Log.enabled) Log.println("Allocation failed for PID=" + pid + ": no free block for " + size + " units");
+                return false;
+            }
+            // Allocate pages
+            List<Integer> allocatedPages = existing != null ? existing : new ArrayList<>(pagesNeeded);
+            takePages(pagesNeeded, pid, resourceId, allocatedPages);
+            // Associate resourceId with allocated pages
+            if (existing == null) {
+                resourceToPages.put(resourceId, allocatedPages);
+                List<Integer> held = pidToResources.computeIfAbsent(pid, k -> new ArrayList<>());
+                synchronized (held) {
+                    held.add(resourceId);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        Journal.record(Journal.Type.ALLOC, pid, resourceId, pagesNeeded);
+        if (Log.enabled) Log.println("Allocated " + pagesNeeded + " pages (" + ((long) pagesNeeded * pageSize) + " units) for PID=" + pid + " with resourceId=" + resourceId);
+        return true;
+    }
+
+    public boolean free(int pid) {
+        return free(pid, null);
+    }
+
+    // Frees everything pid holds. released (may be null) is told about each
+    // resource while its stripe lock is still held, so it can hand the
+    // resource on before anyone else sees it free.
+    public boolean free(int pid, IntConsumer released) {
+        boolean mapped = dropMappings(pid);
+        List<Integer> held = pidToResources.remove(pid);
+        if (held == null) {
+            if (!mapped) {
+                if (Log.enabled) Log.println("No memory allocated for PID=" + pid);
+                return false;
+            }
+            held = Collections.emptyList();
+        }
+        List<Integer> resources;
+        synchronized (held) {
+            resources = new ArrayList<>(held);
+        }
+        for (int resourceId : resources) {
+            // Remove resource mapping and release its frames
+            releasePages(resourceId, released);
+        }
+        Journal.record(Journal.Type.FREE, pid, 0, 0);
+        if (Log.enabled) Log.println("Freed memory for PID=" + pid);
+        return true;
+    }
+
+    // Releases a single resource held by pid, leaving its other allocations alone
+    public boolean release(int pid, int resourceId) {
+        List<Integer> held = pidToResources.get(pid);
+        if (held == null) {
+            return false;
+        }
+        synchronized (held) {
+            if (!held.remove((Integer) resourceId)) {
+                return false;
+            }
+            if (held.isEmpty()) {
+                pidToResources.remove(pid, held);
+            }
+        }
+        releasePages(resourceId, null);
+        Journal.record(Journal.Type.RELEASE, pid, resourceId, 0);
+        if (Log.enabled) Log.println("Released resourceId=" + resourceId + " for PID=" + pid);
+        return true;
+    }
+
+    private void releasePages(int resourceId, IntConsumer released) {
+        ReentrantLock lock = lockFor(resourceId);
+        Metrics.lock(lock);
+        try {
+            List<Integer> pages = resourceToPages.remove(resourceId);
+            if (pages == null) {
+                return;
+            }
+            sharedMappings.remove(resourceId); // shared mappings end with the holder's
+            List<Long> handles = placements.remove(resourceId);
+            if (handles != null) {
+                synchronized (placementLock) {
+                    for (long handle : handles) {
+                        placement.free(handle);
+                    }
+                }
+            }
+            int freed = 0;
+            for (int page : pages) {
+                if (dropReference(page, frames.owner(page))) {
+                    freed++;
+                }
+            }
+            freeCount.addAndGet(freed);
+            if (released != null) {
+                released.accept(resourceId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Gives the child of a fork every page parent maps, copy-on-write. Returns
+    // the number of pages now shared rather than copied.
+    public int fork(int parent, int child) {
+        Map<Integer, List<Integer>> inherited = new ConcurrentHashMap<>();
+        int shared = 0;
+        for (int resourceId : getResourcesHeldBy(parent)) {
+            ReentrantLock lock = lockFor(resourceId);
+            Metrics.lock(lock);
+            try {
+                List<Integer> pages = resourceToPages.get(resourceId);
+                if (pages != null && owner(pages.get(0)) == parent) {
+                    inherited.put(resourceId, shareFrames(pages, child));
+                    shared += pages.size();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        // What parent inherited itself is passed on too
+        Map<Integer, List<Integer>> grandparent = forkCopies.get(parent);
+        if (grandparent != null) {
+            for (int resourceId : grandparent.keySet()) {
+                ReentrantLock lock = lockFor(resourceId);
+                Metrics.lock(lock);
+                try {
+                    List<Integer> pages = grandparent.get(resourceId);
+                    if (pages != null && !inherited.containsKey(resourceId)) {
+                        inherited.put(resourceId, shareFrames(pages, child));
+                        shared += pages.size();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        if (!inherited.isEmpty()) {
+            forkCopies.put(child, inherited);
+        }
+        if (Log.enabled) Log.println("Forked PID=" + parent + " into PID=" + child + ": " + shared + " pages shared copy-on-write");
+        return shared;
+    }
+
+    // Adds pid as a copy-on-write reference to each page; called under the resource's stripe
+    private List<Integer> shareFrames(List<Integer> pages, int pid) {
+        for (int page : pages) {
+            int r = page / REGION_PAGES;
+            long stamp = regionLocks[r].writeLock();
+            try {
+                if (cowSharers.computeIfAbsent(page, k -> new IntSet()).add(pid)) {
+                    cowReferences.incrementAndGet();
+                }
+            } finally {
+                regionLocks[r].unlockWrite(stamp);
+            }
+        }
+        return new ArrayList<>(pages);
+    }
+
+    // pid maps resourceId's pages as they are, without copying, until the holder lets go
+    public boolean share(int pid, int resourceId) {
+        ReentrantLock lock = lockFor(resourceId);
+        Metrics.lock(lock);
+        try {
             List<Integer> pages = resourceToPages.get(resourceId);
-            int currentPid = memory[pages.get(0) * PAGE_SIZE];
-            if (currentPid != -1 && currentPid != pid) {
-                System.out.println("Resource " + resourceId + " is held by PID=" + currentPid + "; PID=" + pid + " must wait");
-                return false; // Resource is held, process must wait
+            if (pages == null || owner(pages.get(0)) == pid) {
+                return false;
             }
+            return sharedMappings.computeIfAbsent(resourceId, k -> new IntSet()).add(pid);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // Find free pages
-        List<Integer> freePages = new ArrayList<>();
-        for (int i = 0; i < NUM_PAGES; i++) {
-            boolean pageFree = true;
-            for (int j = i * PAGE_SIZE; j < (i + 1) * PAGE_SIZE; j++) {
-                if (memory[j] != -1) {
-                    pageFree = false;
-                    break;
+    // A write by pid to the index-th page it maps for resourceId; copies the page first if it is copy-on-write
+    public Write write(int pid, int resourceId, int index) {
+        ReentrantLock lock = lockFor(resourceId);
+        Metrics.lock(lock);
+        try {
+            List<Integer> pages = resourceToPages.get(resourceId);
+            if (pages != null && owner(pages.get(0)) != pid) {
+                IntSet sharers = sharedMappings.get(resourceId);
+                if (sharers != null && sharers.contains(pid)) {
+                    return index >= 0 && index < pages.size() ? Write.IN_PLACE : Write.NOT_MAPPED;
                 }
+                pages = null;
             }
-            if (pageFree) {
-                freePages.add(i);
+            if (pages == null) {
+                // What pid inherited outlives the parent's own mapping
+                Map<Integer, List<Integer>> inherited = forkCopies.get(pid);
+                pages = inherited == null ? null : inherited.get(resourceId);
             }
-            if (freePages.size() >= pagesNeeded) {
-                break;
+            if (pages == null || index < 0 || index >= pages.size()) {
+                return Write.NOT_MAPPED;
             }
+            int page = pages.get(index);
+            if (!cowSharers.containsKey(page)) {
+                return Write.IN_PLACE;
+            }
+            if (!reserve(1)) {
+                if (Log.enabled) Log.println("Copy-on-write failed for PID=" + pid + ": insufficient free pages");
+                return Write.OUT_OF_MEMORY;
+            }
+            // Every list holding page is keyed by resourceId, so its sharers
+            // can't change under the stripe: someone else keeps the frame
+            dropReference(page, pid);
+            List<Integer> copy = new ArrayList<>(1);
+            takePages(1, pid, resourceId, copy);
+            pages.set(index, copy.get(0));
+            copies.incrementAndGet();
+            Journal.record(Journal.Type.COPY, pid, resourceId, copy.get(0));
+            if (Log.enabled) Log.println("Copied page " + page + " to page " + copy.get(0) + " for PID=" + pid + " (resourceId=" + resourceId + ")");
+            return Write.COPIED;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        if (freePages.size() >= pagesNeeded) {
-            // Allocate pages
-            List<Integer> allocatedPages = new ArrayList<>();
-            for (int i = 0; i < pagesNeeded; i++) {
-                int page = freePages.get(i);
-                allocatedPages.add(page);
-                for (int j = page * PAGE_SIZE; j < (page + 1) * PAGE_SIZE; j++) {
-                    memory[j] = pid;
+    // Removes pid's reference to page. If pid owned it, another referencing
+    // pid takes it over; if nobody is left the frame is freed (the caller
+    // credits freeCount) and true is returned.
+    private boolean dropReference(int page, int pid) {
+        int r = page / REGION_PAGES;
+        long stamp = regionLocks[r].writeLock();
+        try {
+            IntSet sharers = cowSharers.get(page);
+            if (sharers != null && frames.owner(page) != pid) {
+                if (sharers.remove(pid)) {
+                    cowReferences.decrementAndGet();
                 }
+            } else if (sharers != null) {
+                int heir = sharers.get(0);
+                sharers.remove(heir);
+                cowReferences.decrementAndGet();
+                countPages(frames.owner(page), -1);
+                countPages(heir, 1);
+                frames.map(page, heir, frames.resource(page));
+                markDirty(page);
+            } else {
+                countPages(frames.owner(page), -1);
+                frames.unmap(page);
+                markDirty(page);
+                regions[r].free(page - r * REGION_PAGES);
+                noteFree(r);
+                return true;
+            }
+            if (sharers.isEmpty()) {
+                cowSharers.remove(page);
             }
-            // Associate resourceId with allocated pages
-            resourceToPages.put(resourceId, allocatedPages);
-            System.out.println("Allocated " + pagesNeeded + " pages (" + (pagesNeeded * PAGE_SIZE) + " units) for PID=" + pid + " with resourceId=" + resourceId);
-            return true;
-        } else {
-            System.out.println("Allocation failed for PID=" + pid + ": insufficient free pages");
             return false;
+        } finally {
+            regionLocks[r].unlockWrite(stamp);
         }
     }
 
-    public void free(int pid) {
-        boolean found = false;
-        List<Integer> resourcesToRemove = new ArrayList<>();
-        for (Map.Entry<Integer, List<Integer>> entry : resourceToPages.entrySet()) {
-            int resourceId = entry.getKey();
-            List<Integer> pages = entry.getValue();
-            if (!pages.isEmpty() && memory[pages.get(0) * PAGE_SIZE] == pid) {
-                resourcesToRemove.add(resourceId);
-                for (int page : pages) {
-                    for (int j = page * PAGE_SIZE; j < (page + 1) * PAGE_SIZE; j++) {
-                        memory[j] = -1;
+    // Drops what pid maps besides the resources it holds: pages inherited by
+    // fork and shared mappings. True if it had any.
+    public boolean dropMappings(int pid) {
+        return dropForkCopies(pid) | unshareAll(pid);
+    }
+
+    // Drops every page pid inherited by fork; true if it had any
+    private boolean dropForkCopies(int pid) {
+        Map<Integer, List<Integer>> inherited = forkCopies.remove(pid);
+        if (inherited == null) {
+            return false;
+        }
+        for (Map.Entry<Integer, List<Integer>> entry : inherited.entrySet()) {
+            ReentrantLock lock = lockFor(entry.getKey());
+            Metrics.lock(lock);
+            try {
+                int freed = 0;
+                for (int page : entry.getValue()) {
+                    if (dropReference(page, pid)) {
+                        freed++;
                     }
                 }
-                found = true;
+                freeCount.addAndGet(freed);
+            } finally {
+                lock.unlock();
             }
         }
-        // Remove resource mappings
-        for (int resourceId : resourcesToRemove) {
-            resourceToPages.remove(resourceId);
+        return true;
+    }
+
+    // Drops pid's shared mappings; true if it had any
+    private boolean unshareAll(int pid) {
+        boolean any = false;
+        for (int resourceId : sharedMappings.keySet()) {
+            ReentrantLock lock = lockFor(resourceId);
+            Metrics.lock(lock);
+            try {
+                IntSet sharers = sharedMappings.get(resourceId);
+                if (sharers != null && sharers.remove(pid)) {
+                    any = true;
+                    if (sharers.isEmpty()) {
+                        sharedMappings.remove(resourceId);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
         }
-        if (found) {
-            System.out.println("Freed memory for PID=" + pid);
-        } else {
-            System.out.println("No memory allocated for PID=" + pid);
+        return any;
+    }
+
+    // Frames in use against pages mapped, and how many copies copy-on-write has made
+    public String sharingStats() {
+        int used = numPages - freeCount.get();
+        long cow = cowReferences.get();
+        long shared = 0;
+        for (Map.Entry<Integer, IntSet> entry : sharedMappings.entrySet()) {
+            List<Integer> pages = resourceToPages.get(entry.getKey());
+            if (pages != null) {
+                shared += (long) entry.getValue().size() * pages.size();
+            }
         }
+        return String.format("Frames in use: %d of %d%n"
+                        + "Pages mapped: %d (%d copy-on-write references, %d through shared mappings)%n"
+                        + "Copy-on-write frames: %d, copies made: %d%n",
+                used, numPages, used + cow + shared, cow, shared, cowSharers.size(), copies.get());
+    }
+
+    public long getCopies() {
+        return copies.get();
+    }
+
+    // Mappings beyond each frame's owner, i.e. pages a fork did not have to copy
+    public long getCopyOnWriteReferences() {
+        return cowReferences.get();
+    }
+
+    // Selects the placement strategy ("paged", "buddy", "slab", or "none" for
+    // the pager alone). Only while nothing is allocated, as blocks placed by
+    // one strategy mean nothing to another.
+    public void setAllocator(String strategy) {
+        PhysicalAllocator next = strategy.equals("none") ? null : PhysicalAllocator.create(strategy, memorySize, pageSize);
+        synchronized (placementLock) {
+            if (freeCount.get() != numPages || !placements.isEmpty()) {
+                throw new IllegalStateException("Allocator can only be changed while memory is empty");
+            }
+            placement = next;
+        }
+    }
+
+    // Requested against reserved units and free space against the largest block that fits
+    public String allocatorStats() {
+        synchronized (placementLock) {
+            if (placement == null) {
+                return "Allocator: none (the pager places pages anywhere)\n";
+            }
+            return String.format("Allocator: %s%n"
+                            + "Units requested: %d, reserved: %d (internal fragmentation %.1f%%)%n"
+                            + "Units free: %d, largest free block: %d (external fragmentation %.1f%%)%n"
+                            + "Placement: %s%n",
+                    placement.getName(),
+                    placement.requestedUnits(), placement.reservedUnits(),
+                    100 * PhysicalAllocator.internalFragmentation(placement),
+                    placement.freeUnits(), placement.largestFreeBlock(),
+                    100 * PhysicalAllocator.externalFragmentation(placement),
+                    Metrics.placementLatency.summary());
+        }
+    }
+
+    // Asks the placement strategy for size units for resourceId; always true without one.
+    // Called under the resource's stripe. The clock is read only when a
+    // strategy runs and metrics are on, and times the strategy alone.
+    private boolean place(int resourceId, int size) {
+        long handle;
+        synchronized (placementLock) {
+            if (placement == null) {
+                return true;
+            }
+            if (Metrics.enabled) {
+                long start = System.nanoTime();
+                handle = placement.allocate(size);
+                Metrics.placementLatency.record(System.nanoTime() - start);
+            } else {
+                handle = placement.allocate(size);
+            }
+        }
+        if (handle == -1) {
+            return false;
+        }
+        placements.computeIfAbsent(resourceId, k -> new ArrayList<>()).add(handle);
+        return true;
+    }
+
+    // Claims n pages from the shared count, or none if fewer are free
+    private boolean reserve(int n) {
+        while (true) {
+            int free = freeCount.get();
+            if (free < n) {
+                return false;
+            }
+            if (freeCount.compareAndSet(free, free - n)) {
+                return true;
+            }
+        }
+    }
+
+    // Maps n reserved pages, lowest regions first, one region lock at a time.
+    // Only regions the free summary lists are locked, so full ones cost a bit
+    // test each and the search does not grow with memory that is in use.
+    private void takePages(int n, int pid, int resourceId, List<Integer> into) {
+        while (n > 0) {
+            // The reservation guarantees the pages exist; a region listed
+            // here may still be emptied by another taker before we lock it
+            for (int w = 0; n > 0 && w < freeRegions.length(); w++) {
+                for (long bits = freeRegions.get(w); n > 0 && bits != 0; bits &= bits - 1) {
+                    int r = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    StampedLock lock = regionLocks[r];
+                    long stamp = lock.writeLock();
+                    try {
+                        PageBitmap region = regions[r];
+                        int taken = 0;
+                        for (; n > 0 && region.freeCount() > 0; n--, taken++) {
+                            int page = r * REGION_PAGES + region.allocate();
+                            frames.map(page, pid, resourceId);
+                            markDirty(page);
+                            into.add(page);
+                        }
+                        countPages(pid, taken);
+                        noteFree(r);
+                    } finally {
+                        lock.unlockWrite(stamp);
+                    }
+                }
+            }
+        }
+    }
+
+    // Brings region r's bit in the free summary up to date; called under its write lock
+    private void noteFree(int r) {
+        long bit = 1L << r;
+        int w = r >>> 6;
+        boolean free = regions[r].freeCount() > 0;
+        if (free != ((freeRegions.get(w) & bit) != 0)) {
+            freeRegions.getAndAccumulate(w, bit, free ? (word, b) -> word | b : (word, b) -> word & ~b);
+        }
+    }
+
+    private int owner(int page) {
+        StampedLock lock = regionLocks[page / REGION_PAGES];
+        long stamp = lock.tryOptimisticRead();
+        int pid = frames.owner(page);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                pid = frames.owner(page);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return pid;
     }
 
     public String printMemory() {
-        String output = "";
-        output += ("Memory Layout (Paged, " + PAGE_SIZE + " units per page):\n");
-        output += ("Page\t\tStatus\t\tPID\t\tResourceID\n");
-        for (int i = 0; i < NUM_PAGES; i++) {
-            int pid = memory[i * PAGE_SIZE];
-            boolean consistent = true;
-            for (int j = i * PAGE_SIZE; j < (i + 1) * PAGE_SIZE; j++) {
-                if (memory[j] != pid) {
-                    consistent = false;
-                    break;
+        int[] owners = new int[numPages];
+        int[] resources = new int[numPages];
+        snapshot(owners, resources);
+        StringBuilder output = new StringBuilder(numPages * (48 + pageSize) + 128);
+        output.append("Memory Layout (Paged, ").append(pageSize).append(" units per page):\n");
+        output.append("Page\t\tStatus\t\tPID\t\tResourceID\n");
+        for (int i = 0; i < numPages; i++) {
+            int pid = owners[i];
+            output.append("Page ").append(i).append("\t\t");
+            if (pid == -1) {
+                output.append("Free\t\t-\t\t-\n");
+            } else {
+                output.append("Allocated\t\t").append(pid).append("\t\t").append(resources[i]).append('\n');
+            }
+        }
+        // Detailed visualization
+        output.append("\nDetailed Memory Map:\n");
+        for (int i = 0; i < numPages; i++) {
+            long base = (long) i * pageSize;
+            output.append("Page ").append(i).append(" [").append(base).append('-').append(base + pageSize - 1).append("] ");
+            String cell = owners[i] == -1 ? "." : String.valueOf(owners[i]);
+            for (int j = 0; j < pageSize; j++) {
+                output.append(cell);
+            }
+            output.append('\n');
+        }
+        return output.toString();
+    }
+
+    // Owner pid of one page (-1 when free), read without blocking writers
+    public int pageOwner(int page) {
+        return owner(page);
+    }
+
+    public int pageResource(int page) {
+        StampedLock lock = regionLocks[page / REGION_PAGES];
+        long stamp = lock.tryOptimisticRead();
+        int resourceId = frames.resource(page);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                resourceId = frames.resource(page);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return resourceId;
+    }
+
+    // Pages mapped or unmapped since the last call, in ascending order; clears the set
+    public int[] takeDirtyPages() {
+        int[] pages = new int[16];
+        int count = 0;
+        for (int w = 0; w < dirtyPages.length(); w++) {
+            if (dirtyPages.get(w) == 0) {
+                continue;
+            }
+            long bits = dirtyPages.getAndSet(w, 0);
+            while (bits != 0) {
+                if (count == pages.length) {
+                    pages = Arrays.copyOf(pages, count * 2);
+                }
+                pages[count++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return Arrays.copyOf(pages, count);
+    }
+
+    private void markDirty(int page) {
+        long bit = 1L << page;
+        int w = page >>> 6;
+        if ((dirtyPages.get(w) & bit) == 0) {
+            dirtyPages.getAndAccumulate(w, bit, (word, b) -> word | b);
+        }
+        int r = page / REGION_PAGES;
+        bit = 1L << r;
+        w = r >>> 6;
+        if ((dirtyRegions.get(w) & bit) == 0) {
+            dirtyRegions.getAndAccumulate(w, bit, (word, b) -> word | b);
+        }
+    }
+
+    public int getRegionCount() { return regions.length; }
+
+    // Regions whose frames changed since the last call; clears the set
+    BitSet takeDirtyRegions() {
+        BitSet changed = new BitSet(regions.length);
+        for (int w = 0; w < dirtyRegions.length(); w++) {
+            if (dirtyRegions.get(w) != 0) {
+                long bits = dirtyRegions.getAndSet(w, 0);
+                for (; bits != 0; bits &= bits - 1) {
+                    changed.set((w << 6) + Long.numberOfTrailingZeros(bits));
                 }
             }
-            String status = pid == -1 ? "Free" : "Allocated";
-            String pidDisplay = pid == -1 ? "-" : String.valueOf(pid);
-            String resourceDisplay = "-";
-            for (Map.Entry<Integer, List<Integer>> entry : resourceToPages.entrySet()) {
-                if (entry.getValue().contains(i)) {
-                    resourceDisplay = String.valueOf(entry.getKey());
-                    break;
+        }
+        return changed;
+    }
+
+    // Copies region r's owners and resourceIds into the start of the arrays; returns its page count
+    int copyRegion(int r, int[] owners, int[] resources) {
+        int from = r * REGION_PAGES, n = regions[r].size();
+        StampedLock lock = regionLocks[r];
+        long stamp = lock.readLock();
+        try {
+            for (int i = 0; i < n; i++) {
+                owners[i] = frames.owner(from + i);
+                resources[i] = frames.resource(from + i);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return n;
+    }
+
+    // Takes every stripe, in order, so no resource changes while a snapshot is written
+    void lockAll() {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
+    // Writes the resource, fork and sharing tables for a Snapshot; the frame
+    // table goes separately, region by region. Callers hold lockAll.
+    void save(DataOutputStream out) throws IOException {
+        synchronized (placementLock) {
+            if (placement != null) {
+                throw new IllegalStateException("Snapshots need the pager alone (allocator none)");
+            }
+        }
+        out.writeLong(copies.get());
+        Trace.writeVarLong(out, resourceToPages.size());
+        for (Map.Entry<Integer, List<Integer>> entry : resourceToPages.entrySet()) {
+            Trace.writeVarLong(out, Trace.zigzag(entry.getKey()));
+            writePages(out, entry.getValue());
+        }
+        Trace.writeVarLong(out, pidToResources.size());
+        for (Map.Entry<Integer, List<Integer>> entry : pidToResources.entrySet()) {
+            Trace.writeVarLong(out, entry.getKey());
+            List<Integer> held = entry.getValue();
+            synchronized (held) {
+                Trace.writeVarLong(out, held.size());
+                for (int resourceId : held) {
+                    Trace.writeVarLong(out, Trace.zigzag(resourceId));
                 }
             }
-            output += ("Page " + i + "\t\t" + status + "\t\t" + pidDisplay + "\t\t" + resourceDisplay + "\n");
         }
-        // Detailed visualization
-        output += ("\nDetailed Memory Map:\n");
-        for (int i = 0; i < MEMORY_SIZE; i += PAGE_SIZE) {
-            output += ("Page " + (i / PAGE_SIZE) + " [" + i + "-" + (i + PAGE_SIZE - 1) + "] ");
-            for (int j = i; j < i + PAGE_SIZE; j++) {
-                output += (memory[j] == -1 ? "." : memory[j]);
+        Trace.writeVarLong(out, forkCopies.size());
+        for (Map.Entry<Integer, Map<Integer, List<Integer>>> entry : forkCopies.entrySet()) {
+            Trace.writeVarLong(out, entry.getKey());
+            Trace.writeVarLong(out, entry.getValue().size());
+            for (Map.Entry<Integer, List<Integer>> inherited : entry.getValue().entrySet()) {
+                Trace.writeVarLong(out, Trace.zigzag(inherited.getKey()));
+                writePages(out, inherited.getValue());
             }
-            output += "\n";
         }
-        return output;
+        Trace.writeVarLong(out, cowSharers.size());
+        for (Map.Entry<Integer, IntSet> entry : cowSharers.entrySet()) {
+            Trace.writeVarLong(out, entry.getKey());
+            ProcessManager.writeSet(out, entry.getValue());
+        }
+        Trace.writeVarLong(out, sharedMappings.size());
+        for (Map.Entry<Integer, IntSet> entry : sharedMappings.entrySet()) {
+            Trace.writeVarLong(out, Trace.zigzag(entry.getKey()));
+            ProcessManager.writeSet(out, entry.getValue());
+        }
+    }
+
+    // Loads region r's frames from a snapshot into this (fresh) manager. The
+    // pages are not marked dirty: a display built afterwards draws them all.
+    void restoreRegion(int r, int[] owners, int[] resources) {
+        int from = r * REGION_PAGES, used = 0;
+        long stamp = regionLocks[r].writeLock();
+        try {
+            for (int i = 0; i < regions[r].size(); i++) {
+                if (owners[i] != -1) {
+                    frames.map(from + i, owners[i], resources[i]);
+                    countPages(owners[i], 1);
+                    regions[r].claim(i);
+                    used++;
+                }
+            }
+            noteFree(r);
+            freeCount.addAndGet(-used);
+        } finally {
+            regionLocks[r].unlockWrite(stamp);
+        }
+    }
+
+    // Loads what save wrote, after every region has been restored
+    void restore(DataInputStream in) throws IOException {
+        copies.set(in.readLong());
+        for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+            int resourceId = (int) Trace.unzigzag(Trace.readVarLong(in));
+            resourceToPages.put(resourceId, readPages(in));
+        }
+        for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+            int pid = (int) Trace.readVarLong(in);
+            int count = (int) Trace.readVarLong(in);
+            List<Integer> held = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                held.add((int) Trace.unzigzag(Trace.readVarLong(in)));
+            }
+            pidToResources.put(pid, held);
+        }
+        for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+            int pid = (int) Trace.readVarLong(in);
+            Map<Integer, List<Integer>> inherited = new ConcurrentHashMap<>();
+            for (int k = (int) Trace.readVarLong(in); k > 0; k--) {
+                int resourceId = (int) Trace.unzigzag(Trace.readVarLong(in));
+                inherited.put(resourceId, readPages(in));
+            }
+            forkCopies.put(pid, inherited);
+        }
+        for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+            int page = (int) Trace.readVarLong(in);
+            IntSet sharers = new IntSet();
+            ProcessManager.readSet(in, sharers);
+            cowSharers.put(page, sharers);
+            cowReferences.addAndGet(sharers.size());
+        }
+        for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+            int resourceId = (int) Trace.unzigzag(Trace.readVarLong(in));
+            IntSet pids = new IntSet();
+            ProcessManager.readSet(in, pids);
+            sharedMappings.put(resourceId, pids);
+        }
+    }
+
+    // Page lists are mostly ascending runs, so each page is stored as the difference from the one before
+    private static void writePages(DataOutputStream out, List<Integer> pages) throws IOException {
+        Trace.writeVarLong(out, pages.size());
+        int previous = 0;
+        for (int page : pages) {
+            Trace.writeVarLong(out, Trace.zigzag(page - previous));
+            previous = page;
+        }
+    }
+
+    private static List<Integer> readPages(DataInputStream in) throws IOException {
+        int count = (int) Trace.readVarLong(in);
+        List<Integer> pages = new ArrayList<>(count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += (int) Trace.unzigzag(Trace.readVarLong(in));
+            pages.add(previous);
+        }
+        return pages;
+    }
+
+    // Copies the frame table region by region; each region is consistent with itself
+    private void snapshot(int[] owners, int[] resources) {
+        for (int r = 0; r < regions.length; r++) {
+            int from = r * REGION_PAGES, to = from + regions[r].size();
+            StampedLock lock = regionLocks[r];
+            long stamp = lock.tryOptimisticRead();
+            copyFrames(from, to, owners, resources);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    copyFrames(from, to, owners, resources);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+        }
+    }
+
+    private void copyFrames(int from, int to, int[] owners, int[] resources) {
+        for (int i = from; i < to; i++) {
+            owners[i] = frames.owner(i);
+            resources[i] = frames.resource(i);
+        }
     }
 
     // Helper method to check if a resource is held by another process
     public int getPidHoldingResource(int resourceId) {
-        if (resourceToPages.containsKey(resourceId)) {
+        ReentrantLock lock = lockFor(resourceId);
+        Metrics.lock(lock);
+        try {
             List<Integer> pages = resourceToPages.get(resourceId);
-            return memory[pages.get(0) * PAGE_SIZE];
+            return pages == null ? -1 : owner(pages.get(0));
+        } finally {
+            lock.unlock();
         }
-        return -1;
     }
-}
\ No newline at end of file
+}
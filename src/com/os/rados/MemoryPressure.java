@@ -0,0 +1,352 @@
+package com.os.rados;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// What the kernel does when frames run short, switched on with
+// Kernel.enablePressureControl. Free pages are measured against two
+// watermarks, low < high:
+//   - An allocation that does not fit is queued and its process BLOCKED
+//     instead of the allocation failing. The queue is served in arrival
+//     order as frames come back.
+//   - While allocations are queued, a new one that would take free pages
+//     below low joins the back of the queue rather than overtaking them.
+//   - Below low, memory still held by TERMINATED processes is reclaimed
+//     until free pages are back at high, or the oldest queued allocation
+//     fits if that takes more.
+//   - When the oldest queued allocation does not fit and no process is
+//     READY or RUNNING, nobody will give frames back on their own. The OOM
+//     killer then kills the live process with the highest badness until it fits.
+//     Badness is the process's share of memory in thousandths, plus 10 per
+//     priority step (lower runs first), so each step counts as 1% of memory.
+//
+// Lock order: drain lock, then the kernel's usual stripe, process and
+// region locks. The queue's own lock is taken last and held only briefly.
+final class MemoryPressure {
+
+    static final class Pending {
+        final int pid;
+        final int size;
+        final int resourceId;
+        final int pages;
+        final long since; // System.nanoTime() when queued
+
+        Pending(int pid, int size, int resourceId, int pages) {
+            this.pid = pid;
+            this.size = size;
+            this.resourceId = resourceId;
+            this.pages = pages;
+            since = System.nanoTime();
+        }
+    }
+
+    private final Kernel kernel;
+    private final int low;
+    private final int high;
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private final Map<Integer, Pending> pendingByPid = new HashMap<>(); // an entry is live while it is here
+    private IntHashSet terminated = new IntHashSet(); // TERMINATED pids that mapped memory when last seen; guarded by queueLock
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    // Counters, guarded by queueLock
+    private long queued;
+    private long served;
+    private long cancelled;
+    private long reclaims;
+    private long kills;
+    private long killedPages;
+    private int peakQueue;
+    private final Histogram queueWait = new Histogram();
+
+    MemoryPressure(Kernel kernel, int low, int high) {
+        if (low < 0 || high <= low || high > kernel.mm.getNumPages()) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high <= " + kernel.mm.getNumPages());
+        }
+        this.kernel = kernel;
+        this.low = low;
+        this.high = high;
+    }
+
+    int low() { return low; }
+    int high() { return high; }
+
+    // Watermarks for a memory of numPages: 2% and 4% of it, at least 1 and 2 pages
+    static int[] defaultWatermarks(int numPages) {
+        int low = Math.max(1, numPages / 50);
+        int high = Math.min(numPages, Math.max(low + 1, numPages / 25));
+        return new int[] {low, high};
+    }
+
+    // True if an allocation of pages should wait behind those already queued
+    boolean mustQueue(int pages) {
+        queueLock.lock();
+        try {
+            return !pendingByPid.isEmpty() && kernel.mm.getFreePageCount() - pages < low;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Records an allocation that could not be served; the caller blocks the process
+    void enqueue(int pid, int size, int resourceId, int pages) {
+        Pending pending = new Pending(pid, size, resourceId, pages);
+        queueLock.lock();
+        try {
+            Pending previous = pendingByPid.put(pid, pending);
+            if (previous != null) {
+                cancelled++; // a process waits for one allocation at a time
+            }
+            queue.add(pending);
+            queued++;
+            peakQueue = Math.max(peakQueue, pendingByPid.size());
+        } finally {
+            queueLock.unlock();
+        }
+        if (Log.enabled) Log.println("Allocation queued for PID=" + pid + ": " + pages + " pages for resource " + resourceId);
+    }
+
+    boolean hasQueued() {
+        queueLock.lock();
+        try {
+            return !pendingByPid.isEmpty();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Forgets pid's queued allocation, if any (its memory was freed or it was killed)
+    void cancel(int pid) {
+        queueLock.lock();
+        try {
+            if (pendingByPid.remove(pid) != null) {
+                cancelled++;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Told of each process that terminates, under the process lock
+    void terminated(int pid) {
+        if (kernel.mm.maps(pid)) {
+            queueLock.lock();
+            try {
+                terminated.add(pid);
+            } finally {
+                queueLock.unlock();
+            }
+        }
+    }
+
+    // Picks up processes that terminated mapping memory before terminated was wired in
+    void findTerminated() {
+        for (int pid : kernel.mm.pageHolders()) {
+            findTerminated(pid);
+        }
+        for (int pid : kernel.mm.inheritors()) {
+            findTerminated(pid); // may own nothing yet, but will once the other sharers let go
+        }
+    }
+
+    private void findTerminated(int pid) {
+        PCB process = kernel.pm.getProcessByPid(pid);
+        if (process != null && process.is(PCB.TERMINATED)) {
+            terminated(pid);
+        }
+    }
+
+    // Brings free pages back up: reclaims below low, kills while every process
+    // is blocked and the oldest queued allocation cannot be served, then serves
+    // the queue. Returns true if an allocation was served or a process killed.
+    boolean relieve() {
+        if (kernel.mm.getFreePageCount() < low) {
+            reclaim(high);
+        }
+        if (head() == null) {
+            return false;
+        }
+        drainLock.lock();
+        try {
+            boolean killed = false;
+            Pending head;
+            while ((head = head()) != null && head.pages > kernel.mm.getFreePageCount()
+                    && kernel.pm.countInState(PCB.READY) + kernel.pm.countInState(PCB.RUNNING) == 0) {
+                reclaim(Math.max(high, head.pages)); // a victim may have allocated again before it terminated
+                if ((head = head()) == null || head.pages <= kernel.mm.getFreePageCount()) {
+                    break;
+                }
+                if (!kill()) {
+                    break;
+                }
+                killed = true;
+            }
+            return drain() > 0 || killed;
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    // Serves queued allocations, oldest first, while the oldest fits. Returns how many were served.
+    int drain() {
+        if (head() == null) {
+            return 0;
+        }
+        int count = 0;
+        drainLock.lock();
+        try {
+            Pending head;
+            while ((head = head()) != null && head.pages <= kernel.mm.getFreePageCount()) {
+                Kernel.AllocResult result = kernel.retry(head.pid, head.size, head.resourceId);
+                if (result == Kernel.AllocResult.FAILED) {
+                    break; // beaten to the frames, or no block big enough; stays first in line
+                }
+                queueLock.lock();
+                try {
+                    if (queue.peek() == head) {
+                        queue.poll();
+                    }
+                    pendingByPid.remove(head.pid, head);
+                    if (result == Kernel.AllocResult.ALLOCATED) {
+                        served++;
+                        count++;
+                        queueWait.record(System.nanoTime() - head.since);
+                    } else {
+                        cancelled++; // gone, or now waiting for the resource rather than for memory
+                    }
+                } finally {
+                    queueLock.unlock();
+                }
+            }
+        } finally {
+            drainLock.unlock();
+        }
+        return count;
+    }
+
+    // Oldest live entry, dropping cancelled ones on the way
+    private Pending head() {
+        queueLock.lock();
+        try {
+            Pending head;
+            while ((head = queue.peek()) != null && pendingByPid.get(head.pid) != head) {
+                queue.poll();
+            }
+            return head;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Frees the memory of TERMINATED processes until free pages reach target
+    private void reclaim(int target) {
+        drainLock.lock();
+        try {
+            IntHashSet candidates = takeTerminated();
+            for (int i = 0; i < candidates.tableLength(); i++) {
+                int pid = candidates.entry(i);
+                if (pid == IntHashSet.EMPTY) {
+                    continue;
+                }
+                if (kernel.mm.getFreePageCount() >= target) {
+                    keepTerminated(candidates, i); // stopped early; the rest still hold memory
+                    break;
+                }
+                // The pid may have been freed otherwise, reaped or even reused since
+                PCB process = kernel.pm.getProcessByPid(pid);
+                if (process != null && process.is(PCB.TERMINATED) && kernel.mm.maps(pid)) {
+                    kernel.reclaim(pid);
+                    queueLock.lock();
+                    try {
+                        reclaims++;
+                    } finally {
+                        queueLock.unlock();
+                    }
+                }
+            }
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    // Empties terminated, returning what it held
+    private IntHashSet takeTerminated() {
+        queueLock.lock();
+        try {
+            IntHashSet taken = terminated;
+            terminated = new IntHashSet();
+            return taken;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Puts back the entries of taken from slot i on
+    private void keepTerminated(IntHashSet taken, int i) {
+        queueLock.lock();
+        try {
+            for (; i < taken.tableLength(); i++) {
+                if (taken.entry(i) != IntHashSet.EMPTY) {
+                    terminated.add(taken.entry(i));
+                }
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Kills the live process with the highest badness; false if none holds memory.
+    // TERMINATED processes are left to reclaim.
+    boolean kill() {
+        int numPages = kernel.mm.getNumPages();
+        int victim = -1, victimPages = 0;
+        long worst = Long.MIN_VALUE;
+        for (int pid : kernel.mm.pageHolders()) {
+            PCB process = kernel.pm.getProcessByPid(pid);
+            if (process == null || process.is(PCB.TERMINATED)) {
+                continue;
+            }
+            int pages = kernel.mm.pagesHeldBy(pid);
+            if (pages == 0) {
+                continue;
+            }
+            long badness = pages * 1000L / numPages + process.getPriority() * 10L;
+            if (badness > worst || badness == worst && pid < victim) { // ties go to the lowest pid
+                worst = badness;
+                victim = pid;
+                victimPages = pages;
+            }
+        }
+        if (victim == -1) {
+            return false;
+        }
+        if (Log.enabled) Log.println("Out of memory: killing PID=" + victim + " (" + victimPages + " pages, badness " + worst + ")");
+        Journal.record(Journal.Type.KILL, victim, victimPages, worst);
+        kernel.kill(victim);
+        queueLock.lock();
+        try {
+            kills++;
+            killedPages += victimPages;
+        } finally {
+            queueLock.unlock();
+        }
+        return true;
+    }
+
+    String stats() {
+        int free = kernel.mm.getFreePageCount();
+        String level = free < low ? "high" : free < high ? "moderate" : "none";
+        queueLock.lock();
+        try {
+            return String.format("Watermarks: low %d, high %d pages; %d free, pressure %s%n", low, high, free, level)
+                    + String.format("Allocation queue: %d waiting (peak %d), %d queued, %d served, %d cancelled%n",
+                            pendingByPid.size(), peakQueue, queued, served, cancelled)
+                    + "Queue wait ns: " + queueWait.summary() + "\n"
+                    + String.format("Reclaimed: %d terminated processes; OOM kills: %d (%d pages)%n", reclaims, kills, killedPages);
+        } finally {
+            queueLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.os.rados;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+// Process-wide instrumentation, switched like Log: counters are LongAdders
+// and latencies are Histograms in nanoseconds, so recording from any thread
+// costs a few nanoseconds and never allocates. Gauges (queue length, process
+// states, free pages) are read from the kernel when asked for; see KernelStats.
+final class Metrics {
+    static boolean enabled = true;
+
+    // Kernel.allocate outcomes, indexed by AllocResult ordinal
+    static final LongAdder[] allocations = adders(Kernel.AllocResult.values().length);
+    static final Histogram allocateLatency = new Histogram();
+
+    static final LongAdder deadlockChecks = new LongAdder();
+    static final LongAdder deadlocksFound = new LongAdder();
+    static final Histogram deadlockCheckLatency = new Histogram();
+
+    // Time spent blocked on the process-manager lock and the resource stripes;
+    // uncontended acquisitions are only counted
+    static final LongAdder lockAcquisitions = new LongAdder();
+    static final Histogram lockWait = new Histogram();
+
+    // Time the placement strategy takes to find room, when one is selected
+    static final Histogram placementLatency = new Histogram();
+
+
+    private Metrics() {}
+
+    static long allocations(Kernel.AllocResult result) {
+        return allocations[result.ordinal()].sum();
+    }
+
+    // Takes lock, timing the wait only when it is actually contended
+    static void lock(Lock lock) {
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            if (enabled) lockWait.record(System.nanoTime() - start);
+        }
+        if (enabled) lockAcquisitions.increment();
+    }
+
+    static void reset() {
+        for (LongAdder adder : allocations) {
+            adder.reset();
+        }
+        allocateLatency.reset();
+        deadlockChecks.reset();
+        deadlocksFound.reset();
+        deadlockCheckLatency.reset();
+        lockAcquisitions.reset();
+        lockWait.reset();
+        placementLatency.reset();
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,78 @@
+package com.os.rados;
+
+import java.util.ArrayDeque;
+
+// Multi-level feedback queue. New processes start at level 0; using a whole
+// slice demotes one level, and each level doubles the quantum. Every
+// boostInterval time units all queued processes move back to level 0 so
+// long-running work cannot starve.
+class MlfqScheduler implements Scheduler {
+    private final ArrayDeque<PCB>[] queues;
+    private final long baseQuantum;
+    private final long boostInterval;
+    private long nextBoost;
+    private int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MlfqScheduler(int levels, long baseQuantum, long boostInterval) {
+        if (levels <= 0 || baseQuantum <= 0) {
+            throw new IllegalArgumentException("MLFQ needs at least one level and a positive quantum");
+        }
+        queues = new ArrayDeque[levels];
+        for (int i = 0; i < levels; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        this.baseQuantum = baseQuantum;
+        this.boostInterval = boostInterval;
+        nextBoost = boostInterval;
+    }
+
+    public String getName() { return "MLFQ (" + queues.length + " levels, base quantum " + baseQuantum + ")"; }
+    public String policy() { return "mlfq"; }
+    public long quantum() { return baseQuantum; }
+    public int levels() { return queues.length; }
+    public long boostInterval() { return boostInterval; }
+
+    public void enqueue(PCB process) {
+        int level = Math.min(process.getLevel(), queues.length - 1);
+        queues[level].addLast(process);
+        size++;
+    }
+
+    public PCB dequeue(long now) {
+        if (boostInterval > 0 && now >= nextBoost) {
+            boost();
+            nextBoost = now + boostInterval;
+        }
+        for (ArrayDeque<PCB> queue : queues) {
+            PCB process = queue.pollFirst();
+            if (process != null) {
+                size--;
+                return process;
+            }
+        }
+        return null;
+    }
+
+    public int size() { return size; }
+
+    public long quantumFor(PCB process) {
+        return baseQuantum << Math.min(process.getLevel(), queues.length - 1);
+    }
+
+    public void onQuantumExpired(PCB process) {
+        if (process.getLevel() < queues.length - 1) {
+            process.setLevel(process.getLevel() + 1);
+        }
+    }
+
+    private void boost() {
+        for (int i = 1; i < queues.length; i++) {
+            for (PCB process : queues[i]) {
+                process.setLevel(0);
+            }
+            queues[0].addAll(queues[i]);
+            queues[i].clear();
+        }
+    }
+}
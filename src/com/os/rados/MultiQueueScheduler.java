@@ -0,0 +1,137 @@
+package com.os.rados;
+
+import java.util.function.Supplier;
+
+// One run queue per simulated core, each an instance of the same policy.
+// A process goes back to the core it last ran on, or to the shortest queue
+// when it is new. A process pinned by affinity waits in that core's private
+// queue. An idle core steals from the longest shared queue. Dispatches,
+// steals, migrations and busy time are counted per core.
+class MultiQueueScheduler implements Scheduler {
+    private final Scheduler[] shared; // per-core queues other cores may steal from
+    private final Scheduler[] pinned; // per-core queues for processes with affinity
+    private final long[] busy;
+    private final long[] dispatched;
+    private final long[] steals;
+    private final long[] migrations;  // dispatches onto this core from a different one
+    private final boolean[] stolen;   // the last dequeue for this core took from another's queue
+
+    public MultiQueueScheduler(int cores, Supplier<Scheduler> policy) {
+        if (cores <= 0) {
+            throw new IllegalArgumentException("Need at least one core");
+        }
+        shared = new Scheduler[cores];
+        pinned = new Scheduler[cores];
+        for (int i = 0; i < cores; i++) {
+            shared[i] = policy.get();
+            pinned[i] = policy.get();
+        }
+        busy = new long[cores];
+        dispatched = new long[cores];
+        steals = new long[cores];
+        migrations = new long[cores];
+        stolen = new boolean[cores];
+    }
+
+    public String getName() { return shared[0].getName() + " x " + shared.length + " cores"; }
+
+    public int cores() { return shared.length; }
+    public String policy() { return shared[0].policy(); }
+    public long quantum() { return shared[0].quantum(); }
+    public int levels() { return shared[0].levels(); }
+    public long boostInterval() { return shared[0].boostInterval(); }
+
+    public void enqueue(PCB process) {
+        int affinity = process.getAffinity();
+        if (affinity >= 0 && affinity < shared.length) {
+            pinned[affinity].enqueue(process);
+            return;
+        }
+        int core = process.getLastCore();
+        if (core < 0 || core >= shared.length) {
+            core = 0;
+            for (int i = 1; i < shared.length; i++) {
+                if (load(i) < load(core)) {
+                    core = i;
+                }
+            }
+        }
+        shared[core].enqueue(process);
+    }
+
+    public PCB dequeue(long now) {
+        return dequeue(0, now);
+    }
+
+    // Counting waits for onDispatch: the caller may find the entry stale
+    public PCB dequeue(int core, long now) {
+        stolen[core] = false;
+        PCB process = pinned[core].dequeue(now);
+        if (process == null) {
+            process = shared[core].dequeue(now);
+        }
+        if (process == null) {
+            process = steal(core, now);
+            stolen[core] = process != null;
+        }
+        return process;
+    }
+
+    public void onDispatch(PCB process, int core) {
+        if (process.getLastCore() >= 0 && process.getLastCore() != core) {
+            migrations[core]++;
+        }
+        process.setLastCore(core);
+        dispatched[core]++;
+        if (stolen[core]) {
+            steals[core]++;
+        }
+    }
+
+    private PCB steal(int thief, long now) {
+        int victim = -1;
+        for (int i = 0; i < shared.length; i++) {
+            if (i != thief && shared[i].size() > 0 && (victim < 0 || shared[i].size() > shared[victim].size())) {
+                victim = i;
+            }
+        }
+        return victim < 0 ? null : shared[victim].dequeue(now);
+    }
+
+    private int load(int core) {
+        return shared[core].size() + pinned[core].size();
+    }
+
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < shared.length; i++) {
+            size += load(i);
+        }
+        return size;
+    }
+
+    public long quantumFor(PCB process) {
+        return shared[0].quantumFor(process);
+    }
+
+    public void onQuantumExpired(PCB process) {
+        shared[0].onQuantumExpired(process);
+    }
+
+    public void onSliceEnd(PCB process, long ran) {
+        int core = process.getLastCore();
+        if (core >= 0 && core < busy.length) {
+            busy[core] += ran;
+        }
+    }
+
+    public String coreStats(long elapsed) {
+        StringBuilder out = new StringBuilder();
+        out.append("Core\tDispatches\tBusy\tUtil\tSteals\tMigrations\n");
+        for (int i = 0; i < shared.length; i++) {
+            out.append(String.format("%d\t%d\t\t%d\t%.1f%%\t%d\t%d%n", i, dispatched[i], busy[i],
+                    elapsed == 0 ? 0.0 : 100.0 * busy[i] / elapsed, steals[i], migrations[i]));
+        }
+        return out.toString();
+    }
+}
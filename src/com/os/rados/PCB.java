@@ -1,23 +1,87 @@
 package com.os.rados;
 
 class PCB {
+    static final int READY = 0;
+    static final int RUNNING = 1;
+    static final int BLOCKED = 2;
+    static final int TERMINATED = 3;
+    private static final String[] STATE_NAMES = {"READY", "RUNNING", "BLOCKED", "TERMINATED"};
+
     private int pid;
     private String name;
-    private String state; // READY, RUNNING, BLOCKED
+    private int state; // One of the constants above
     private boolean active;
+    private int priority;  // Lower value runs first under the priority policy
+    private int level;     // Current MLFQ level
+    private long burst;    // Remaining CPU time, -1 for a process that never finishes
+    private int affinity = -1; // Core the process is pinned to, -1 for any
+    private int lastCore = -1;
+
+    // Scheduling bookkeeping, in simulated time units
+    private boolean queued;    // An entry for this process sits in the ready queue
+    private boolean onCpu;     // Dispatched and its slice not yet accounted
+    private long queueSeq;     // FIFO tie-break inside a ready queue
+    private long arrivalTime;
+    private long readySince;
+    private long lastDispatchTime;
+    private long slice;        // Length of the slice granted at the last dispatch
+    private long firstRunTime = -1;
+    private long completionTime = -1;
+    private long waitTime;
+    private long cpuTime;
 
     public PCB(int pid, String name) {
+        this(pid, name, 0, -1);
+    }
+
+    public PCB(int pid, String name, int priority, long burst) {
         this.pid = pid;
         this.name = name;
-        this.state = "READY";
+        this.state = READY;
         this.active = true;
+        this.priority = priority;
+        this.burst = burst;
     }
 
     public int getPid() { return pid; }
     public String getName() { return name; }
-    public String getState() { return state; }
+    public String getState() { return STATE_NAMES[state]; }
+    public int getStateCode() { return state; }
+    public boolean is(int state) { return this.state == state; }
     public boolean isActive() { return active; }
+    public int getPriority() { return priority; }
+    public int getLevel() { return level; }
+    public long getBurst() { return burst; }
+    public int getAffinity() { return affinity; }
+    public int getLastCore() { return lastCore; }
+    public boolean isQueued() { return queued; }
+    public boolean isOnCpu() { return onCpu; }
+    public long getQueueSeq() { return queueSeq; }
+    public long getArrivalTime() { return arrivalTime; }
+    public long getReadySince() { return readySince; }
+    public long getLastDispatchTime() { return lastDispatchTime; }
+    public long getSlice() { return slice; }
+    public long getFirstRunTime() { return firstRunTime; }
+    public long getCompletionTime() { return completionTime; }
+    public long getWaitTime() { return waitTime; }
+    public long getCpuTime() { return cpuTime; }
 
-    public void setState(String state) { this.state = state; }
+    public void setState(int state) { this.state = state; }
     public void setActive(boolean active) { this.active = active; }
-}
\ No newline at end of file
+    public void setPriority(int priority) { this.priority = priority; }
+    public void setLevel(int level) { this.level = level; }
+    public void setBurst(long burst) { this.burst = burst; }
+    public void setAffinity(int affinity) { this.affinity = affinity; }
+    public void setLastCore(int lastCore) { this.lastCore = lastCore; }
+    public void setQueued(boolean queued) { this.queued = queued; }
+    public void setOnCpu(boolean onCpu) { this.onCpu = onCpu; }
+    public void setQueueSeq(long queueSeq) { this.queueSeq = queueSeq; }
+    public void setArrivalTime(long arrivalTime) { this.arrivalTime = arrivalTime; }
+    public void setReadySince(long readySince) { this.readySince = readySince; }
+    public void setLastDispatchTime(long lastDispatchTime) { this.lastDispatchTime = lastDispatchTime; }
+    public void setSlice(long slice) { this.slice = slice; }
+    public void setFirstRunTime(long firstRunTime) { this.firstRunTime = firstRunTime; }
+    public void setCompletionTime(long completionTime) { this.completionTime = completionTime; }
+    public void addWaitTime(long time) { waitTime += time; }
+    public void addCpuTime(long time) { cpuTime += time; }
+}
@@ -0,0 +1,130 @@
+package com.os.rados;
+
+// Free-page bitmap (set bit = free page) with a one-bit-per-word summary so
+// a search skips fully allocated regions 4096 pages at a time.
+final class PageBitmap {
+    private final int numPages;
+    private final long[] words;   // bit i of words[w] -> page w * 64 + i
+    private final long[] summary; // bit i of summary[s] -> words[s * 64 + i] != 0
+    private int freeCount;
+    private int cursor;           // word to start the next search from
+
+    public PageBitmap(int numPages) {
+        this.numPages = numPages;
+        words = new long[(numPages + 63) >>> 6];
+        summary = new long[(words.length + 63) >>> 6];
+        for (int w = 0; w < words.length; w++) {
+            int bits = Math.min(64, numPages - (w << 6));
+            words[w] = bits == 64 ? -1L : (1L << bits) - 1;
+            summary[w >>> 6] |= 1L << w;
+        }
+        freeCount = numPages;
+    }
+
+    public int size() { return numPages; }
+    public int freeCount() { return freeCount; }
+
+    public boolean isFree(int page) {
+        return (words[page >>> 6] & (1L << page)) != 0;
+    }
+
+    // Claims the lowest free page at or after the cursor (wrapping), or returns -1
+    public int allocate() {
+        if (freeCount == 0) {
+            return -1;
+        }
+        int w = nextNonEmptyWord(cursor);
+        if (w < 0) {
+            w = nextNonEmptyWord(0);
+        }
+        long word = words[w];
+        int page = (w << 6) + Long.numberOfTrailingZeros(word);
+        word &= word - 1;
+        words[w] = word;
+        if (word == 0) {
+            summary[w >>> 6] &= ~(1L << w);
+        }
+        freeCount--;
+        cursor = w;
+        return page;
+    }
+
+    // Claims n free pages starting at a multiple of n (a power of two), or returns -1
+    public int allocateAligned(int n) {
+        if (freeCount < n) {
+            return -1;
+        }
+        for (int start = 0; start + n <= numPages; start += n) {
+            if (runFree(start, n)) {
+                for (int page = start; page < start + n; page++) {
+                    int w = page >>> 6;
+                    words[w] &= ~(1L << page);
+                    if (words[w] == 0) {
+                        summary[w >>> 6] &= ~(1L << w);
+                    }
+                }
+                freeCount -= n;
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    private boolean runFree(int start, int n) {
+        if (n < 64) {
+            long mask = ((1L << n) - 1) << start;
+            return (words[start >>> 6] & mask) == mask;
+        }
+        for (int w = start >>> 6; w < (start + n) >>> 6; w++) {
+            if (words[w] != -1L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Marks page allocated, e.g. when rebuilding from a saved frame table
+    public void claim(int page) {
+        int w = page >>> 6;
+        long bit = 1L << page;
+        if ((words[w] & bit) == 0) {
+            return; // already allocated
+        }
+        words[w] &= ~bit;
+        if (words[w] == 0) {
+            summary[w >>> 6] &= ~(1L << w);
+        }
+        freeCount--;
+    }
+
+    public void free(int page) {
+        int w = page >>> 6;
+        long bit = 1L << page;
+        if ((words[w] & bit) != 0) {
+            return; // already free
+        }
+        words[w] |= bit;
+        summary[w >>> 6] |= 1L << w;
+        freeCount++;
+        if (w < cursor) {
+            cursor = w; // keep allocations packed towards low pages
+        }
+    }
+
+    private int nextNonEmptyWord(int from) {
+        if (from >= words.length) {
+            return -1;
+        }
+        int s = from >>> 6;
+        long bits = summary[s] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (s << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++s >= summary.length) {
+                return -1;
+            }
+            bits = summary[s];
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.os.rados;
+
+import java.util.Arrays;
+
+// One process's virtual page -> frame mapping over a 48-bit address space,
+// as a radix tree of 2 to 4 levels. Leaves hold frames for 2^leafBits
+// pages and interior nodes have 512 slots, as on x86-64; the root takes the
+// remaining high bits and is sized on demand, so fewer levels mean a wider
+// root. Nodes are created by the first mapping beneath them and dropped
+// when their last mapping goes, so the table grows with the pages in use
+// rather than with the address space.
+//
+// A huge page maps a whole leaf's span to 2^leafBits contiguous frames with
+// a single entry in the level above. -1 marks a page that is not resident.
+final class PageTable {
+    static final int ADDRESS_BITS = 48;
+    private static final int NODE_BITS = 9;
+    private static final int MAX_ROOT = 1 << 26;
+
+    private static final class Node {
+        Object[] slots; // Node, Leaf or Huge
+        int used;
+
+        Node(int size) {
+            slots = new Object[size];
+        }
+    }
+
+    private static final class Leaf {
+        final int[] frames;
+        int resident;
+
+        Leaf(int size) {
+            frames = new int[size];
+            Arrays.fill(frames, -1);
+        }
+    }
+
+    private static final class Huge {
+        final int frame; // first of the span's frames
+
+        Huge(int frame) {
+            this.frame = frame;
+        }
+    }
+
+    private final int levels;
+    private final int vpnBits;
+    private final int leafBits;
+    private final Node root = new Node(16);
+    private int resident;           // pages, huge ones included
+    private int nodes = 1;          // interior, root included
+    private int leaves;
+    private int huge;
+    private long highestVpn = -1;   // what a flat table would have had to cover
+
+    public PageTable(int pageSize, int levels, int leafBits) {
+        if (levels < 2 || levels > 4) {
+            throw new IllegalArgumentException("Page tables have 2 to 4 levels");
+        }
+        vpnBits = 64 - Long.numberOfLeadingZeros(((1L << ADDRESS_BITS) - 1) / pageSize);
+        if (leafBits <= 0 || leafBits >= vpnBits) {
+            throw new IllegalArgumentException("Invalid leaf size: 2^" + leafBits + " pages");
+        }
+        this.levels = levels;
+        this.leafBits = leafBits;
+    }
+
+    // Pages a table of this shape can map, at most 2^48 bytes' worth
+    static long addressablePages(int pageSize, int levels, int leafBits) {
+        long pages = ((1L << ADDRESS_BITS) - 1) / pageSize + 1;
+        int below = leafBits + (levels - 2) * NODE_BITS; // bits indexed under the root
+        return below >= 64 - 27 ? pages : Math.min(pages, (long) MAX_ROOT << below);
+    }
+
+    public int leafSpan() { return 1 << leafBits; }
+    public int residentPages() { return resident; }
+
+    public int frame(long vpn) {
+        Object entry = leafEntry(vpn);
+        if (entry instanceof Leaf) {
+            return ((Leaf) entry).frames[(int) vpn & (leafSpan() - 1)];
+        }
+        return entry instanceof Huge ? ((Huge) entry).frame + ((int) vpn & (leafSpan() - 1)) : -1;
+    }
+
+    // First frame of the huge page covering vpn, or -1 if it is not in one
+    public int hugeFrame(long vpn) {
+        Object entry = leafEntry(vpn);
+        return entry instanceof Huge ? ((Huge) entry).frame : -1;
+    }
+
+    // True if nothing in vpn's leaf span is mapped
+    public boolean spanEmpty(long vpn) {
+        return leafEntry(vpn) == null;
+    }
+
+    public void map(long vpn, int frame) {
+        Node parent = parentOf(vpn, true);
+        int slot = slot(vpn, 1);
+        Object entry = parent.slots[slot];
+        if (entry instanceof Huge) {
+            throw new IllegalStateException("Page " + vpn + " is inside a huge page");
+        }
+        Leaf leaf = (Leaf) entry;
+        if (leaf == null) {
+            leaf = new Leaf(leafSpan());
+            parent.slots[slot] = leaf;
+            parent.used++;
+            leaves++;
+        }
+        int i = (int) vpn & (leafSpan() - 1);
+        if (leaf.frames[i] == -1) {
+            leaf.resident++;
+            resident++;
+        }
+        leaf.frames[i] = frame;
+        highestVpn = Math.max(highestVpn, vpn);
+    }
+
+    public void unmap(long vpn) {
+        Node[] path = path(vpn);
+        if (path == null) {
+            return;
+        }
+        Node parent = path[levels - 2];
+        int slot = slot(vpn, 1);
+        Object entry = parent.slots[slot];
+        if (entry instanceof Huge) {
+            throw new IllegalStateException("Page " + vpn + " is inside a huge page; demote it first");
+        }
+        Leaf leaf = (Leaf) entry;
+        int i = (int) vpn & (leafSpan() - 1);
+        if (leaf == null || leaf.frames[i] == -1) {
+            return;
+        }
+        leaf.frames[i] = -1;
+        resident--;
+        if (--leaf.resident == 0) {
+            leaves--;
+            clear(path, vpn);
+        }
+    }
+
+    // Maps vpn's whole leaf span to frames first .. first + leafSpan() - 1,
+    // replacing any base mappings there (promotion)
+    public void mapHuge(long vpn, int first) {
+        Node parent = parentOf(vpn, true);
+        int slot = slot(vpn, 1);
+        Object entry = parent.slots[slot];
+        if (entry == null) {
+            parent.used++;
+        } else if (entry instanceof Leaf) {
+            resident -= ((Leaf) entry).resident;
+            leaves--;
+        } else {
+            resident -= leafSpan();
+            huge--;
+        }
+        parent.slots[slot] = new Huge(first);
+        resident += leafSpan();
+        huge++;
+        highestVpn = Math.max(highestVpn, vpn | (leafSpan() - 1));
+    }
+
+    // Splits the huge page covering vpn into base mappings of the same frames
+    public void demote(long vpn) {
+        Node parent = parentOf(vpn, false);
+        int slot = slot(vpn, 1);
+        if (parent == null || !(parent.slots[slot] instanceof Huge)) {
+            return;
+        }
+        int first = ((Huge) parent.slots[slot]).frame;
+        Leaf leaf = new Leaf(leafSpan());
+        for (int i = 0; i < leaf.frames.length; i++) {
+            leaf.frames[i] = first + i;
+        }
+        leaf.resident = leaf.frames.length;
+        parent.slots[slot] = leaf;
+        huge--;
+        leaves++;
+    }
+
+    // First frame if vpn's leaf is fully resident in contiguous frames aligned
+    // to the span, so it can become a huge page where it is; otherwise -1
+    public int promotableInPlace(long vpn) {
+        Object entry = leafEntry(vpn);
+        if (!(entry instanceof Leaf) || ((Leaf) entry).resident != leafSpan()) {
+            return -1;
+        }
+        int[] frames = ((Leaf) entry).frames;
+        int first = frames[0];
+        if ((first & (leafSpan() - 1)) != 0) {
+            return -1;
+        }
+        for (int i = 1; i < frames.length; i++) {
+            if (frames[i] != first + i) {
+                return -1;
+            }
+        }
+        return first;
+    }
+
+    // Pages in vpn's leaf span that are mapped, huge or not
+    public int spanResident(long vpn) {
+        Object entry = leafEntry(vpn);
+        if (entry instanceof Leaf) {
+            return ((Leaf) entry).resident;
+        }
+        return entry == null ? 0 : leafSpan();
+    }
+
+    public int interiorNodes() { return nodes; }
+    public int leafNodes() { return leaves; }
+    public int hugeEntries() { return huge; }
+
+    // Approximate bytes the tree takes: references in interior nodes, ints in leaves
+    public long bytes() {
+        return (long) root.slots.length * 8 + (long) (nodes - 1) * (8L << NODE_BITS) + (long) leaves * (4L << leafBits);
+    }
+
+    // Bytes a flat array up to the highest page ever mapped would take
+    public long flatBytes() {
+        return (highestVpn + 1) * 4;
+    }
+
+    // Index of vpn within its node at the given level: 1 is the leaves' parents, levels - 1 the root
+    private int slot(long vpn, int level) {
+        if (level == levels - 1) {
+            long top = vpn >>> (leafBits + (levels - 2) * NODE_BITS);
+            return top < MAX_ROOT ? (int) top : MAX_ROOT; // past any root the table will grow
+        }
+        return (int) (vpn >>> (leafBits + (level - 1) * NODE_BITS)) & ((1 << NODE_BITS) - 1);
+    }
+
+    private Object leafEntry(long vpn) {
+        Node parent = parentOf(vpn, false);
+        return parent == null ? null : parent.slots[slot(vpn, 1)];
+    }
+
+    // The node holding vpn's leaf entry, created on the way down if create is set
+    private Node parentOf(long vpn, boolean create) {
+        if (vpn < 0 || vpn >>> vpnBits != 0) {
+            throw new IllegalArgumentException("Page out of range: " + vpn);
+        }
+        Node node = root;
+        int top = slot(vpn, levels - 1);
+        if (top >= node.slots.length) {
+            if (!create) {
+                return null;
+            }
+            if (top >= MAX_ROOT) {
+                throw new IllegalArgumentException("Page " + vpn + " needs more page-table levels");
+            }
+            node.slots = Arrays.copyOf(node.slots, Math.max(top + 1, node.slots.length * 2));
+        }
+        for (int level = levels - 1; level > 1; level--) {
+            int slot = slot(vpn, level);
+            Node child = (Node) node.slots[slot];
+            if (child == null) {
+                if (!create) {
+                    return null;
+                }
+                child = new Node(1 << NODE_BITS);
+                node.slots[slot] = child;
+                node.used++;
+                nodes++;
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    // Nodes from the root down to vpn's leaf parent, or null if one is missing
+    private Node[] path(long vpn) {
+        if (slot(vpn, levels - 1) >= root.slots.length) {
+            return null;
+        }
+        Node[] path = new Node[levels - 1];
+        Node node = root;
+        path[0] = root;
+        for (int level = levels - 1; level > 1; level--) {
+            node = (Node) node.slots[slot(vpn, level)];
+            if (node == null) {
+                return null;
+            }
+            path[levels - level] = node;
+        }
+        return path;
+    }
+
+    // Drops vpn's leaf entry and every node left empty above it
+    private void clear(Node[] path, long vpn) {
+        for (int i = path.length - 1; i >= 0; i--) {
+            Node node = path[i];
+            node.slots[slot(vpn, levels - 1 - i)] = null;
+            if (--node.used > 0 || i == 0) {
+                return;
+            }
+            nodes--;
+        }
+    }
+}
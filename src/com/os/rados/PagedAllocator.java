@@ -0,0 +1,61 @@
+package com.os.rados;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The pager's own arithmetic: a request takes whole pages from anywhere, so
+// it loses the tail of its last page but never needs contiguous space.
+class PagedAllocator implements PhysicalAllocator {
+    private final int pageSize;
+    private final long totalUnits;
+    private final Map<Long, Integer> live = new HashMap<>(); // handle -> units requested
+    private int freePages;
+    private long requested;
+    private long nextHandle;
+
+    public PagedAllocator(int pages, int pageSize) {
+        this.pageSize = pageSize;
+        totalUnits = (long) pages * pageSize;
+        freePages = pages;
+    }
+
+    @Override
+    public String getName() { return "paged"; }
+
+    @Override
+    public long allocate(int size) {
+        int pages = pagesFor(size);
+        if (size <= 0 || pages > freePages) {
+            return -1;
+        }
+        freePages -= pages;
+        requested += size;
+        live.put(nextHandle, size);
+        return nextHandle++;
+    }
+
+    @Override
+    public void free(long handle) {
+        Integer size = live.remove(handle);
+        if (size != null) {
+            freePages += pagesFor(size);
+            requested -= size;
+        }
+    }
+
+    private int pagesFor(int size) {
+        return (int) ((size + (long) pageSize - 1) / pageSize);
+    }
+
+    @Override
+    public long requestedUnits() { return requested; }
+
+    @Override
+    public long reservedUnits() { return totalUnits - freeUnits(); }
+
+    @Override
+    public long freeUnits() { return (long) freePages * pageSize; }
+
+    @Override
+    public long largestFreeBlock() { return freeUnits(); }
+}
@@ -0,0 +1,45 @@
+package com.os.rados;
+
+// Placement strategy for physical memory, in units. MemoryManager asks it
+// whether and where each resource allocation fits; the pager still maps the
+// pages that carry ownership, copy-on-write and the display. Not thread-safe:
+// MemoryManager serialises every call.
+interface PhysicalAllocator {
+    String getName();
+
+    // Opaque handle for a block of at least size units, or -1 if none fits
+    long allocate(int size);
+
+    void free(long handle);
+
+    long requestedUnits();   // asked for by live allocations
+    long reservedUnits();    // set aside for them, rounding included
+    long freeUnits();
+    long largestFreeBlock(); // largest single request that would fit now
+
+    static PhysicalAllocator create(String strategy, long memorySize, int pageSize) {
+        int pages = (int) (memorySize / pageSize);
+        switch (strategy) {
+            case "paged":
+                return new PagedAllocator(pages, pageSize);
+            case "buddy":
+                return new BuddyAllocator(pages, pageSize);
+            case "slab":
+                return new SlabAllocator(pages, pageSize);
+            default:
+                throw new IllegalArgumentException("Unknown allocator: " + strategy);
+        }
+    }
+
+    // Space lost inside allocations to rounding, as a share of what is reserved
+    static double internalFragmentation(PhysicalAllocator allocator) {
+        long reserved = allocator.reservedUnits();
+        return reserved == 0 ? 0.0 : 1.0 - (double) allocator.requestedUnits() / reserved;
+    }
+
+    // Share of free space unusable by a request for all of it
+    static double externalFragmentation(PhysicalAllocator allocator) {
+        long free = allocator.freeUnits();
+        return free == 0 ? 0.0 : 1.0 - (double) allocator.largestFreeBlock() / free;
+    }
+}
@@ -0,0 +1,32 @@
+package com.os.rados;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+// Lowest priority value first, FIFO among equals; O(log n) enqueue and dequeue
+class PriorityScheduler implements Scheduler {
+    private final PriorityQueue<PCB> queue = new PriorityQueue<>(
+            Comparator.comparingInt(PCB::getPriority).thenComparingLong(PCB::getQueueSeq));
+    private final long quantum;
+    private long seq;
+
+    public PriorityScheduler(long quantum) {
+        if (quantum <= 0) {
+            throw new IllegalArgumentException("Quantum must be positive");
+        }
+        this.quantum = quantum;
+    }
+
+    public String getName() { return "Priority (quantum " + quantum + ")"; }
+    public String policy() { return "priority"; }
+    public long quantum() { return quantum; }
+
+    public void enqueue(PCB process) {
+        process.setQueueSeq(seq++);
+        queue.add(process);
+    }
+
+    public PCB dequeue(long now) { return queue.poll(); }
+    public int size() { return queue.size(); }
+    public long quantumFor(PCB process) { return quantum; }
+}
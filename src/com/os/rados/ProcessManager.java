@@ -1,169 +1,1176 @@
 package com.os.rados;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Formatter;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
+// Thread-safe: every mutation takes the write side of a StampedLock, and the
+// display and statistics readers copy what they need under an optimistic
+// read, so refreshing the UI never blocks a writer.
 class ProcessManager {
-    public List<PCB> processes;
-    private int nextPid;
-    List<List<Integer>> resourceAllocation; // Process -> Resources held
-    List<List<Integer>> resourceRequests;   // Process -> Resources requested
-    private List<Integer> resources; // List of resource IDs
+    static final long DEFAULT_QUANTUM = 5000; // Matches the original 5 seconds per process
+    private static final int[] NONE = new int[0];
+
+    private final StampedLock lock = new StampedLock();
+    private final ProcessTable table; // Process, resources held and requested, by pid
+    private final Set<Integer> resources; // Set of resource IDs
+    private final WaitForGraph waitFor;    // Maintained alongside the table above
+    private final Map<Integer, WaitQueue> waitQueues; // resourceId -> processes waiting for it
+    private final Map<Long, WaitQueue.Waiter> waits = new HashMap<>(); // (pid, resourceId) -> current queue entry
+    private boolean priorityWaits;  // Wait queues order by priority rather than arrival
+    private long waitSeq;
+    private final int[] stateCounts = new int[4]; // live processes per PCB state
+    private final BitSet dirtyPids = new BitSet(); // created, changed state or reaped since takeDirtyPids
+    private Banker banker;           // Non-null once deadlock avoidance is enabled
+    private final IntSet deferred = new IntSet(); // free resources whose waiters were unsafe to grant
+    private volatile boolean anyDeferred;          // !deferred.isEmpty(), for checks without the lock
+    private Scheduler scheduler;     // Orders READY processes; BLOCKED ones stay off the queue
+    private long clock;              // Simulated time, advanced by slices and simulation events
+    private long dispatches;
+    private int onCpu;               // dispatched processes whose slice is not yet accounted
+    private volatile Runnable onEnqueue; // told whenever a process joins the ready queue; may be null
+    private volatile IntConsumer onTerminate; // told the pid of each process that terminates; may be null
+    private long finished;
+    private long totalTurnaround;
 
     public ProcessManager() {
-        processes = new ArrayList<>();
-        nextPid = 1;
-        resourceAllocation = new ArrayList<>();
-        resourceRequests = new ArrayList<>();
-        resources = new ArrayList<>();
+        table = new ProcessTable();
+        resources = new HashSet<>();
+        waitFor = new WaitForGraph();
+        waitQueues = new HashMap<>();
+        scheduler = new RoundRobinScheduler(DEFAULT_QUANTUM);
+    }
+
+    public int createProcess(String name) {
+        return createProcess(name, 0, -1);
+    }
+
+    // New READY process with pid's name, priority and remaining burst, or -1 if
+    // pid is unknown. Its memory is the caller's business (MemoryManager.fork).
+    public int fork(int pid) {
+        PCB parent = getProcessByPid(pid);
+        if (parent == null) {
+            return -1;
+        }
+        int child = createProcess(parent.getName(), parent.getPriority(), parent.getBurst());
+        Journal.record(Journal.Type.FORK, child, pid, 0);
+        return child;
+    }
+
+    // burst is the CPU time the process needs before it terminates, -1 to run forever
+    public int createProcess(String name, int priority, long burst) {
+        PCB process;
+        long stamp = writeLock();
+        try {
+            process = new PCB(table.allocatePid(), name, priority, burst);
+            table.add(process);
+            dirtyPids.set(process.getPid());
+            stateCounts[PCB.READY]++;
+            process.setArrivalTime(clock);
+            toReady(process);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        Journal.record(Journal.Type.CREATE, process.getPid(), 0, 0);
+        if (Log.enabled) Log.println("Process created: PID=" + process.getPid() + ", Name=" + name);
+        return process.getPid();
+    }
+
+    // Switches policy; READY processes move to the new queue in their current order
+    public void setScheduler(Scheduler next) {
+        long stamp = writeLock();
+        try {
+            List<PCB> ready = new ArrayList<>();
+            for (PCB process; (process = scheduler.dequeue(clock)) != null; ) {
+                process.setQueued(false);
+                process.setLastCore(-1); // placement starts over under the new policy
+                if (process.is(PCB.READY)) {
+                    ready.add(process);
+                }
+            }
+            scheduler = next;
+            for (PCB process : ready) {
+                enqueue(process);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public Scheduler getScheduler() {
+        long stamp = readLock();
+        try {
+            return scheduler;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long getClock() {
+        long stamp = lock.tryOptimisticRead();
+        long time = clock;
+        if (!lock.validate(stamp)) {
+            stamp = readLock();
+            try {
+                time = clock;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return time;
+    }
+
+    // Moves simulated time forward; the clock never runs backwards
+    public void advanceClockTo(long time) {
+        long stamp = writeLock();
+        try {
+            tick(time);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void tick(long time) {
+        if (time > clock) {
+            clock = time;
+        }
+    }
+
+    public int cores() {
+        return getScheduler().cores();
+    }
+
+    // Pins pid to a core (-1 to unpin); takes effect the next time it is queued
+    public boolean setAffinity(int pid, int core) {
+        long stamp = writeLock();
+        try {
+            PCB process = findProcess(pid);
+            if (process == null || core >= scheduler.cores()) {
+                return false;
+            }
+            process.setAffinity(core);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
-    public void createProcess(String name) {
-        PCB process = new PCB(nextPid++, name);
-        processes.add(process);
-        resourceAllocation.add(new ArrayList<>());
-        resourceRequests.add(new ArrayList<>());
-        System.out.println("Process created: PID=" + process.getPid() + ", Name=" + name);
+    // Live processes in the given PCB state
+    public int countInState(int state) {
+        long stamp = readLock();
+        try {
+            return stateCounts[state];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long getDispatches() {
+        long stamp = readLock();
+        try {
+            return dispatches;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int readyQueueLength() {
+        long stamp = readLock();
+        try {
+            return scheduler.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
     }
 
     public void schedule() {
-        for (PCB process : processes) {
-            if (process.isActive() && process.getState().equals("READY")) {
-                process.setState("RUNNING");
-                System.out.println("Running: PID=" + process.getPid() + ", Name=" + process.getName());
-                try {
-                    Thread.sleep(5000); // Simulate 5 seconds of running
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        schedule(0, null);
+    }
+
+    // Gives every process that is READY now one time slice. pacing is wall-clock
+    // milliseconds per simulated time unit (0 runs as fast as possible);
+    // listener (may be null) is told about each state change. The lock is
+    // only held while dispatching and accounting, never across a paced slice.
+    public void schedule(double pacing, Consumer<PCB> listener) {
+        for (int n = readyQueueLength(); n > 0; n--) {
+            PCB process = dispatch();
+            if (process == null) {
+                break;
+            }
+            if (listener != null) {
+                listener.accept(process);
+            }
+            long slice = process.getSlice();
+            pace(slice, pacing);
+            endSlice(process, slice);
+            if (listener != null) {
+                listener.accept(process);
+            }
+        }
+    }
+
+    static void pace(long slice, double pacing) {
+        long millis = (long) (slice * pacing);
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public PCB dispatch() {
+        return dispatch(0);
+    }
+
+    // Takes the next READY process for core off the queue, marks it RUNNING and fixes its slice, or returns null
+    public PCB dispatch(int core) {
+        PCB process;
+        long stamp = writeLock();
+        try {
+            while ((process = scheduler.dequeue(core, clock)) != null) {
+                process.setQueued(false);
+                if (process.isActive() && process.is(PCB.READY)) {
+                    break; // otherwise a stale entry left behind by a blocked process
+                }
+            }
+            if (process == null) {
+                return null;
+            }
+            scheduler.onDispatch(process, core);
+            transition(process, PCB.RUNNING);
+            process.setOnCpu(true);
+            onCpu++;
+            process.setLastDispatchTime(clock);
+            process.setSlice(sliceFor(process));
+            process.addWaitTime(clock - process.getReadySince());
+            if (process.getFirstRunTime() < 0) {
+                process.setFirstRunTime(clock);
+            }
+            dispatches++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        Journal.record(Journal.Type.DISPATCH, process.getPid(), core, process.getLastDispatchTime());
+        if (Log.enabled) Log.println("Running: PID=" + process.getPid() + ", Name=" + process.getName());
+        return process;
+    }
+
+    private long sliceFor(PCB process) {
+        long quantum = scheduler.quantumFor(process);
+        return process.getBurst() < 0 ? quantum : Math.min(quantum, process.getBurst());
+    }
+
+    // Accounts for a slice of ran time units since dispatch and requeues, parks or retires the process
+    public void endSlice(PCB process, long ran) {
+        endSlice(process, ran, false);
+    }
+
+    // Accounts for a last slice and retires the process whatever its burst says
+    public void exit(PCB process, long ran) {
+        endSlice(process, ran, true);
+    }
+
+    private void endSlice(PCB process, long ran, boolean exit) {
+        long stamp = writeLock();
+        try {
+            tick(process.getLastDispatchTime() + ran);
+            process.addCpuTime(ran);
+            process.setOnCpu(false);
+            onCpu--;
+            if (process.is(PCB.TERMINATED)) {
+                return; // killed while on a core
+            }
+            scheduler.onSliceEnd(process, ran);
+            if (process.getBurst() >= 0) {
+                process.setBurst(Math.max(0, process.getBurst() - ran));
+            }
+            if (exit || process.getBurst() == 0) {
+                terminate(process);
+                return;
+            }
+            if (process.is(PCB.RUNNING)) {
+                if (ran >= scheduler.quantumFor(process)) {
+                    scheduler.onQuantumExpired(process);
+                }
+                toReady(process);
+            } else if (process.is(PCB.READY) && !process.isQueued()) {
+                enqueue(process); // blocked and woken again before the slice was accounted
+            }
+            // A process that blocked while running stays off the queue until it is woken
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Blocks pid until its allocation of pages for resourceId can be served;
+    // addResource wakes it when the pages are mapped
+    public void waitForMemory(int pid, int resourceId, int pages) {
+        long stamp = writeLock();
+        try {
+            PCB process = findProcess(pid);
+            if (process != null) {
+                block(process);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        Journal.record(Journal.Type.QUEUE, pid, resourceId, pages);
+    }
+
+    // Terminates pid whatever it is doing; its memory is the caller's business.
+    // False if pid is unknown or already terminated.
+    public boolean kill(int pid) {
+        long stamp = writeLock();
+        try {
+            PCB process = findProcess(pid);
+            if (process == null || process.is(PCB.TERMINATED)) {
+                return false;
+            }
+            terminate(process);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void terminate(PCB process) {
+        if (banker != null) {
+            banker.retire(process.getPid()); // it will ask for nothing more
+        }
+        transition(process, PCB.TERMINATED);
+        process.setActive(false);
+        process.setCompletionTime(clock);
+        finished++;
+        totalTurnaround += clock - process.getArrivalTime();
+        Journal.record(Journal.Type.TERMINATE, process.getPid(), 0, clock);
+        IntConsumer listener = onTerminate;
+        if (listener != null) {
+            listener.accept(process.getPid()); // under the write lock, like onEnqueue
+        }
+    }
+
+    // BLOCKED -> READY
+    private void makeReady(PCB process) {
+        if (process.is(PCB.BLOCKED)) {
+            toReady(process);
+        }
+    }
+
+    // Marks the process READY and puts it on the ready queue. One still on a
+    // core is queued when its slice is accounted, so no other core can
+    // dispatch it before then.
+    private void toReady(PCB process) {
+        transition(process, PCB.READY);
+        process.setReadySince(clock);
+        if (!process.isQueued() && !process.isOnCpu()) {
+            enqueue(process);
+        }
+    }
+
+    private void block(PCB process) {
+        if (process.isActive()) {
+            transition(process, PCB.BLOCKED);
+        }
+    }
+
+    private void transition(PCB process, int state) {
+        dirtyPids.set(process.getPid());
+        stateCounts[process.getStateCode()]--;
+        stateCounts[state]++;
+        process.setState(state);
+    }
+
+    private void enqueue(PCB process) {
+        process.setQueued(true);
+        scheduler.enqueue(process);
+        Runnable listener = onEnqueue;
+        if (listener != null) {
+            listener.run(); // under the write lock, so it must not take this lock itself
+        }
+    }
+
+    public void setEnqueueListener(Runnable listener) {
+        onEnqueue = listener;
+    }
+
+    public void setTerminateListener(IntConsumer listener) {
+        onTerminate = listener;
+    }
+
+    // Nothing READY and nothing on a core that could become READY again, read
+    // together so a slice being accounted elsewhere cannot slip in between
+    public boolean isIdle() {
+        long stamp = readLock();
+        try {
+            return stateCounts[PCB.READY] == 0 && onCpu == 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Turnaround, wait and response times averaged over the processes they apply to
+    public String schedulerStats() {
+        long stamp = readLock();
+        try {
+            long waited = 0, responded = 0, responseTotal = 0;
+            for (int pid = 1; pid <= table.highestPid(); pid++) {
+                PCB process = table.get(pid);
+                if (process == null) {
+                    continue;
+                }
+                waited += process.getWaitTime();
+                if (process.getFirstRunTime() >= 0) {
+                    responded++;
+                    responseTotal += process.getFirstRunTime() - process.getArrivalTime();
                 }
-                process.setState("READY");
             }
+            return String.format("Policy: %s%nClock: %d, dispatches: %d, ready: %d, finished: %d%n"
+                            + "Avg turnaround: %.1f, avg wait: %.1f, avg response: %.1f%n",
+                    scheduler.getName(), clock, dispatches, scheduler.size(), finished,
+                    finished == 0 ? 0.0 : (double) totalTurnaround / finished,
+                    table.size() == 0 ? 0.0 : (double) waited / table.size(),
+                    responded == 0 ? 0.0 : (double) responseTotal / responded)
+                    + scheduler.coreStats(clock);
+        } finally {
+            lock.unlockRead(stamp);
         }
     }
 
     public String listProcesses() {
-        String output = "";
-        output += "PID\t\tName\t\t\tState\n";
-        output += "--------------------------------\n";
-        for (PCB process : processes) {
-            output += String.format("%-15d %-20s %-10s%n", process.getPid(), process.getName(), process.getState());
+        // Copy the table without blocking writers; retry under the read lock if one got in
+        long stamp = lock.tryOptimisticRead();
+        Object[][] rows = snapshotRows();
+        if (rows == null || !lock.validate(stamp)) {
+            stamp = readLock();
+            try {
+                rows = snapshotRows();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        StringBuilder output = new StringBuilder(64 + rows.length * 48);
+        output.append("PID\t\tName\t\t\tState\n");
+        output.append("--------------------------------\n");
+        Formatter formatter = new Formatter(output);
+        for (Object[] row : rows) {
+            formatter.format("%-15d %-20s %-10s%n", row[0], row[1], row[2]);
+        }
+        return output.toString();
+    }
+
+    // Pids created, changed or reaped since the last call, ascending; clears the set
+    public int[] takeDirtyPids() {
+        long stamp = writeLock();
+        try {
+            int[] pids = dirtyPids.stream().toArray();
+            dirtyPids.clear();
+            return pids;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // {pid, name, state} for one process, or null if pid is not in use
+    public Object[] describe(int pid) {
+        long stamp = readLock();
+        try {
+            PCB process = table.get(pid);
+            return process == null ? null : new Object[]{pid, process.getName(), process.getState()};
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Returns null if a concurrent writer made the copy fail outright
+    private Object[][] snapshotRows() {
+        try {
+            List<Object[]> rows = new ArrayList<>(table.size());
+            for (int pid = 1; pid <= table.highestPid(); pid++) {
+                PCB process = table.get(pid);
+                if (process != null) {
+                    rows.add(new Object[]{pid, process.getName(), process.getState()});
+                }
+            }
+            return rows.toArray(new Object[0][]);
+        } catch (RuntimeException e) {
+            return null;
         }
-        return output;
     }
 
     public PCB getProcessByPid(int pid) {
-        for (PCB process : processes) {
-            if (process.getPid() == pid) {
-                return process;
+        long stamp = readLock();
+        try {
+            return findProcess(pid);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private PCB findProcess(int pid) {
+        return table.get(pid);
+    }
+
+    private boolean known(int pid) {
+        return table.contains(pid);
+    }
+
+    // Pids reap would remove now, ascending
+    public int[] reapable() {
+        long stamp = readLock();
+        try {
+            int[] pids = new int[table.highestPid()];
+            int count = 0;
+            for (int pid = 1; pid <= table.highestPid(); pid++) {
+                if (reapable(pid)) {
+                    pids[count++] = pid;
+                }
             }
+            return Arrays.copyOf(pids, count);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private boolean reapable(int pid) {
+        PCB process = table.get(pid);
+        return process != null && process.is(PCB.TERMINATED)
+                && table.held(pid).isEmpty() && table.requested(pid).isEmpty();
+    }
+
+    // Drops those of pids (from reapable) that are still TERMINATED and hold
+    // and wait for nothing, freeing them for reuse. onReap (may be null) sees
+    // each pid before it can be handed out again. Returns how many were removed.
+    public int reap(int[] pids, IntConsumer onReap) {
+        long stamp = writeLock();
+        try {
+            int reaped = 0;
+            for (int pid : pids) {
+                if (reapable(pid)) {
+                    if (banker != null) {
+                        banker.forget(pid);
+                    }
+                    if (onReap != null) {
+                        onReap.accept(pid);
+                    }
+                    table.remove(pid);
+                    dirtyPids.set(pid);
+                    stateCounts[PCB.TERMINATED]--;
+                    reaped++;
+                }
+            }
+            return reaped;
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        return null;
     }
 
     public void addResource(int pid, int resourceId) {
-        if (pid <= resourceAllocation.size()) {
-            resourceAllocation.get(pid - 1).add(resourceId);
-            resourceRequests.get(pid - 1).remove((Integer) resourceId); // Clear request
-            PCB process = getProcessByPid(pid);
-            if (process != null && process.getState().equals("BLOCKED")) {
-                process.setState("READY"); // Move back to READY after acquiring resource
-            }
-            if (!resources.contains(resourceId)) {
+        long stamp = writeLock();
+        try {
+            if (known(pid)) {
+                if (table.held(pid).add(resourceId) && banker != null) {
+                    banker.allocate(pid, resourceId, 1);
+                }
+                dropRequest(pid, resourceId);
+                waitFor.acquire(pid, resourceId);
+                PCB process = findProcess(pid);
+                if (process != null) {
+                    makeReady(process); // Move back to READY after acquiring resource
+                }
                 resources.add(resourceId);
             }
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
     public void removeResource(int pid, int resourceId, boolean isHeld) {
-        if (pid <= resourceAllocation.size()) {
+        long stamp = writeLock();
+        try {
+            remove(pid, resourceId, isHeld);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void remove(int pid, int resourceId, boolean isHeld) {
+        if (known(pid)) {
             if (isHeld) {
-                resourceAllocation.get(pid - 1).remove((Integer) resourceId);
-                // Notify processes waiting for this resource
-                notifyWaitingProcesses(resourceId);
+                table.held(pid).remove(resourceId);
+                waitFor.release(pid, resourceId);
+                if (banker != null) {
+                    banker.release(pid, resourceId);
+                }
+                // Waiters are not woken here; the caller hands the resource on with takeWaiter
             }
-            resourceRequests.get(pid - 1).remove((Integer) resourceId);
+            dropRequest(pid, resourceId);
+            waitFor.cancel(pid, resourceId);
             if (isHeld) {
-                PCB process = getProcessByPid(pid);
-                if (process != null && process.getState().equals("BLOCKED")) {
-                    process.setState("READY"); // Clear BLOCKED state if resource is freed
+                PCB process = findProcess(pid);
+                if (process != null) {
+                    makeReady(process); // Clear BLOCKED state if resource is freed
                 }
             }
         }
     }
 
-    public void requestResource(int pid, int resourceId, int pidHolding) {
-        if (pid <= resourceRequests.size()) {
-            if (!resourceRequests.get(pid - 1).contains(resourceId)) {
-                resourceRequests.get(pid - 1).add(resourceId);
-                PCB process = getProcessByPid(pid);
-                if (process != null) {
-                    process.setState("BLOCKED"); // Set to BLOCKED when waiting
+    // Drops every resource pid holds or requests
+    public void releaseAll(int pid) {
+        long stamp = writeLock();
+        try {
+            if (known(pid)) {
+                for (int resourceId : table.held(pid).toArray()) {
+                    remove(pid, resourceId, true);
+                }
+                // Clear requests
+                for (int resourceId : table.requested(pid).toArray()) {
+                    remove(pid, resourceId, false);
                 }
+                // Nothing left to wait for, even if it held nothing
+                makeReady(findProcess(pid));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // pid waits for resourceId, wanting size units mapped when it is handed over
+    public void requestResource(int pid, int resourceId, int size, int pidHolding) {
+        long stamp = writeLock();
+        try {
+            request(pid, resourceId, size, pidHolding);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Records the request and runs deadlock detection on it in one step
+    public boolean requestAndDetect(int pid, int resourceId, int size, int pidHolding) {
+        long stamp = writeLock();
+        try {
+            request(pid, resourceId, size, pidHolding);
+            return deadlocked(pid, resourceId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void request(int pid, int resourceId, int size, int pidHolding) {
+        if (known(pid)) {
+            if (table.requested(pid).add(resourceId)) {
+                waitFor.request(pid, resourceId);
+                PCB process = findProcess(pid);
+                enqueueWaiter(process, resourceId, size);
+                block(process); // Set to BLOCKED when waiting
+                Journal.record(Journal.Type.BLOCK, pid, resourceId, 0);
+            } else if (size > 0) {
+                waits.get(key(pid, resourceId)).size = size; // asked again, maybe after an implicit wait; keeps its place
             }
             // Add implicit request: pidHolding requests a resource held by pid
-            if (pidHolding > 0 && pidHolding <= resourceAllocation.size()) {
-                for (Integer heldResource : resourceAllocation.get(pid - 1)) {
-                    if (!resourceRequests.get(pidHolding - 1).contains(heldResource)) {
-                        resourceRequests.get(pidHolding - 1).add(heldResource);
-                        PCB holdingProcess = getProcessByPid(pidHolding);
-                        if (holdingProcess != null) {
-                            holdingProcess.setState("BLOCKED");
-                        }
+            if (known(pidHolding)) {
+                IntSet held = table.held(pid);
+                for (int i = 0; i < held.size(); i++) {
+                    int heldResource = held.get(i);
+                    if (table.requested(pidHolding).add(heldResource)) {
+                        waitFor.request(pidHolding, heldResource);
+                        PCB holdingProcess = findProcess(pidHolding);
+                        enqueueWaiter(holdingProcess, heldResource, 0); // woken, not granted, on release
+                        block(holdingProcess);
+                        Journal.record(Journal.Type.BLOCK, pidHolding, heldResource, 0);
                     }
                 }
             }
         }
     }
 
+    // Switches on Banker's-algorithm avoidance; resources already held are carried over
+    public void enableAvoidance() {
+        long stamp = writeLock();
+        try {
+            if (banker != null) {
+                return;
+            }
+            banker = new Banker();
+            for (int pid = 1; pid <= table.highestPid(); pid++) {
+                if (table.contains(pid)) {
+                    IntSet held = table.held(pid);
+                    for (int i = 0; i < held.size(); i++) {
+                        banker.allocate(pid, held.get(i), 1);
+                    }
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean isAvoidanceEnabled() {
+        long stamp = readLock();
+        try {
+            return banker != null;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Declares the maximum units of resourceId that pid may hold at once
+    public void declareClaim(int pid, int resourceId, int units) {
+        long stamp = writeLock();
+        try {
+            if (banker == null) {
+                throw new IllegalStateException("Deadlock avoidance is not enabled");
+            }
+            banker.declareClaim(pid, resourceId, units);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean hasClaim(int pid, int resourceId) {
+        long stamp = readLock();
+        try {
+            return banker != null && banker.hasClaim(pid, resourceId, 1);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Banker's safety check and grant in one step: on success pid is recorded as
+    // holding resourceId before any other request can be judged against it.
+    // Returns false, recording a wait instead, if the grant would be unsafe.
+    public boolean grantIfSafe(int pid, int resourceId, int size) {
+        long stamp = writeLock();
+        try {
+            if (banker != null && !banker.isSafeToGrant(pid, resourceId, 1)) {
+                request(pid, resourceId, size, -1);
+                if (known(pid)) {
+                    defer(resourceId);
+                }
+                return false;
+            }
+            if (known(pid) && table.held(pid).add(resourceId) && banker != null) {
+                banker.allocate(pid, resourceId, 1);
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public String avoidanceStats() {
+        long stamp = readLock();
+        try {
+            return banker == null ? "Deadlock avoidance is not enabled\n" : banker.stats();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // True if pid waiting on resourceId is (or would be) part of a cycle, i.e. the
+    // holder of resourceId already waits, directly or transitively, on pid
     public boolean detectDeadlock(int pid, int resourceId) {
-        // Temporarily add the request
-        List<Integer> tempRequests = new ArrayList<>(resourceRequests.get(pid - 1));
-        if (!tempRequests.contains(resourceId)) {
-            tempRequests.add(resourceId);
-        }
-
-        HashSet<Integer> visited = new HashSet<>();
-        HashSet<Integer> recStack = new HashSet<>();
-        return hasCycle(pid - 1, visited, recStack, tempRequests);
-    }
-
-    private boolean hasCycle(int pid, HashSet<Integer> visited, HashSet<Integer> recStack, List<Integer> tempRequests) {
-        if (!visited.contains(pid)) {
-            visited.add(pid);
-            recStack.add(pid);
-
-            // Use tempRequests for the requesting process, otherwise use resourceRequests
-            List<Integer> requests = (pid == processes.size() - 1 && tempRequests != null) ? tempRequests : resourceRequests.get(pid);
-
-            for (Integer resource : requests) {
-                // Find processes holding this resource
-                for (int i = 0; i < resourceAllocation.size(); i++) {
-                    if (resourceAllocation.get(i).contains(resource)) {
-                        if (!visited.contains(i)) {
-                            if (hasCycle(i, visited, recStack, resourceRequests.get(i))) {
-                                return true;
-                            }
-                        } else if (recStack.contains(i)) {
-                            return true; // Cycle detected
-                        }
+        long stamp = readLock();
+        try {
+            return deadlocked(pid, resourceId);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private boolean deadlocked(int pid, int resourceId) {
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        int holder = waitFor.getHolder(resourceId);
+        boolean found = holder != -1 && holder != pid && waitFor.reaches(holder, pid);
+        if (Metrics.enabled) {
+            Metrics.deadlockCheckLatency.record(System.nanoTime() - start);
+            Metrics.deadlockChecks.increment();
+            if (found) {
+                Metrics.deadlocksFound.increment();
+            }
+        }
+        if (found) {
+            Journal.record(Journal.Type.DEADLOCK, pid, resourceId, holder);
+        }
+        return found;
+    }
+
+    // Lock acquisition that records how long a contended caller waited
+    private long writeLock() {
+        long stamp = lock.tryWriteLock();
+        if (stamp == 0) {
+            long start = System.nanoTime();
+            stamp = lock.writeLock();
+            if (Metrics.enabled) Metrics.lockWait.record(System.nanoTime() - start);
+        }
+        if (Metrics.enabled) Metrics.lockAcquisitions.increment();
+        return stamp;
+    }
+
+    private long readLock() {
+        long stamp = lock.tryReadLock();
+        if (stamp == 0) {
+            long start = System.nanoTime();
+            stamp = lock.readLock();
+            if (Metrics.enabled) Metrics.lockWait.record(System.nanoTime() - start);
+        }
+        if (Metrics.enabled) Metrics.lockAcquisitions.increment();
+        return stamp;
+    }
+
+    // Every set of processes currently deadlocked on each other
+    public List<List<Integer>> findDeadlocks() {
+        long stamp = readLock();
+        try {
+            return waitFor.findDeadlocks();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Holds the process lock across a Snapshot, after MemoryManager.lockAll,
+    // so that processes and memory are saved at one point in time
+    long lockForSnapshot() {
+        return writeLock();
+    }
+
+    void unlockForSnapshot(long stamp) {
+        lock.unlockWrite(stamp);
+    }
+
+    // Writes processes, resource sets, wait queues, the ready queue with its
+    // scheduling policy, Banker claims and the counters for a Snapshot.
+    // Callers hold lockForSnapshot.
+    void save(DataOutputStream out) throws IOException {
+        out.writeLong(clock);
+        out.writeLong(dispatches);
+        out.writeLong(finished);
+        out.writeLong(totalTurnaround);
+        out.writeLong(waitSeq);
+        out.writeBoolean(priorityWaits);
+        out.writeUTF(scheduler.policy());
+        Trace.writeVarLong(out, scheduler.quantum());
+        Trace.writeVarLong(out, scheduler.levels());
+        Trace.writeVarLong(out, scheduler.boostInterval());
+        Trace.writeVarLong(out, scheduler.cores());
+        Trace.writeVarLong(out, table.highestPid());
+        int[] free = table.freePids();
+        Trace.writeVarLong(out, free.length);
+        for (int pid : free) {
+            Trace.writeVarLong(out, pid);
+        }
+        Trace.writeVarLong(out, table.size());
+        for (int pid = 1; pid <= table.highestPid(); pid++) {
+            PCB process = table.get(pid);
+            if (process != null) {
+                writeProcess(out, process);
+                writeSet(out, table.held(pid));
+                writeSet(out, table.requested(pid));
+            }
+        }
+        Trace.writeVarLong(out, resources.size());
+        for (int resourceId : resources) {
+            Trace.writeVarLong(out, Trace.zigzag(resourceId));
+        }
+        Trace.writeVarLong(out, waitQueues.size());
+        for (Map.Entry<Integer, WaitQueue> entry : waitQueues.entrySet()) {
+            int resourceId = entry.getKey();
+            List<WaitQueue.Waiter> live = new ArrayList<>();
+            for (WaitQueue.Waiter waiter : entry.getValue().inArrivalOrder()) {
+                int pid = waiter.process.getPid();
+                if (waits.get(key(pid, resourceId)) == waiter) {
+                    live.add(waiter);
+                }
+            }
+            Trace.writeVarLong(out, Trace.zigzag(resourceId));
+            Trace.writeVarLong(out, live.size());
+            for (WaitQueue.Waiter waiter : live) {
+                Trace.writeVarLong(out, waiter.process.getPid());
+                Trace.writeVarLong(out, waiter.size);
+                Trace.writeVarLong(out, waiter.seq);
+            }
+        }
+        // The ready queue can only be read by draining it, as setScheduler does
+        List<PCB> ready = new ArrayList<>();
+        for (PCB process; (process = scheduler.dequeue(clock)) != null; ) {
+            process.setQueued(false);
+            if (process.is(PCB.READY)) {
+                ready.add(process);
+            }
+        }
+        Trace.writeVarLong(out, ready.size());
+        for (PCB process : ready) {
+            Trace.writeVarLong(out, process.getPid());
+            enqueue(process);
+        }
+        out.writeBoolean(banker != null);
+        if (banker != null) {
+            banker.save(out);
+        }
+        writeSet(out, deferred);
+    }
+
+    // Loads what save wrote into this manager, which must not have created any process yet
+    void restore(DataInputStream in) throws IOException {
+        long stamp = writeLock();
+        try {
+            if (table.highestPid() > 0) {
+                throw new IllegalStateException("Only a fresh process manager can be restored");
+            }
+            clock = in.readLong();
+            dispatches = in.readLong();
+            finished = in.readLong();
+            totalTurnaround = in.readLong();
+            waitSeq = in.readLong();
+            priorityWaits = in.readBoolean();
+            String policy = in.readUTF();
+            long quantum = Trace.readVarLong(in);
+            int levels = (int) Trace.readVarLong(in);
+            long boostInterval = Trace.readVarLong(in);
+            scheduler = Scheduler.create(policy, quantum, levels, boostInterval, (int) Trace.readVarLong(in));
+            int highest = (int) Trace.readVarLong(in);
+            int[] free = new int[(int) Trace.readVarLong(in)];
+            for (int i = 0; i < free.length; i++) {
+                free[i] = (int) Trace.readVarLong(in);
+            }
+            table.restorePids(highest, free);
+            for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+                PCB process = readProcess(in);
+                int pid = process.getPid();
+                table.add(process);
+                readSet(in, table.held(pid));
+                readSet(in, table.requested(pid));
+                stateCounts[process.getStateCode()]++;
+                dirtyPids.set(pid);
+            }
+            // Holders first, so each request finds the edge it waits along
+            for (int pid = 1; pid <= highest; pid++) {
+                if (table.contains(pid)) {
+                    IntSet held = table.held(pid);
+                    for (int i = 0; i < held.size(); i++) {
+                        waitFor.acquire(pid, held.get(i));
                     }
                 }
             }
+            for (int pid = 1; pid <= highest; pid++) {
+                if (table.contains(pid)) {
+                    IntSet requested = table.requested(pid);
+                    for (int i = 0; i < requested.size(); i++) {
+                        waitFor.request(pid, requested.get(i));
+                    }
+                }
+            }
+            for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+                resources.add((int) Trace.unzigzag(Trace.readVarLong(in)));
+            }
+            for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+                int resourceId = (int) Trace.unzigzag(Trace.readVarLong(in));
+                WaitQueue queue = new WaitQueue(priorityWaits);
+                for (int k = (int) Trace.readVarLong(in); k > 0; k--) {
+                    PCB process = table.get((int) Trace.readVarLong(in));
+                    int size = (int) Trace.readVarLong(in);
+                    WaitQueue.Waiter waiter = new WaitQueue.Waiter(process, size, Trace.readVarLong(in));
+                    queue.add(waiter);
+                    waits.put(key(process.getPid(), resourceId), waiter);
+                }
+                if (!queue.isEmpty()) {
+                    waitQueues.put(resourceId, queue);
+                }
+            }
+            for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+                enqueue(table.get((int) Trace.readVarLong(in)));
+            }
+            if (in.readBoolean()) {
+                banker = new Banker();
+                banker.restore(in);
+            }
+            readSet(in, deferred);
+            anyDeferred = !deferred.isEmpty();
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        recStack.remove(pid);
-        return false;
     }
 
-    private void notifyWaitingProcesses(int resourceId) {
-        // Find processes requesting the freed resource
-        for (int i = 0; i < resourceRequests.size(); i++) {
-            if (resourceRequests.get(i).contains(resourceId)) {
-                PCB process = getProcessByPid(i + 1);
-                if (process != null && process.getState().equals("BLOCKED")) {
-                    process.setState("READY"); // Transition to READY
+    private static void writeProcess(DataOutputStream out, PCB process) throws IOException {
+        Trace.writeVarLong(out, process.getPid());
+        out.writeUTF(process.getName());
+        out.writeByte(process.getStateCode());
+        out.writeBoolean(process.isActive());
+        Trace.writeVarLong(out, Trace.zigzag(process.getPriority()));
+        Trace.writeVarLong(out, process.getLevel());
+        Trace.writeVarLong(out, Trace.zigzag(process.getBurst()));
+        Trace.writeVarLong(out, Trace.zigzag(process.getAffinity()));
+        Trace.writeVarLong(out, Trace.zigzag(process.getLastCore()));
+        Trace.writeVarLong(out, process.getQueueSeq());
+        Trace.writeVarLong(out, process.getArrivalTime());
+        Trace.writeVarLong(out, process.getReadySince());
+        Trace.writeVarLong(out, process.getLastDispatchTime());
+        Trace.writeVarLong(out, process.getSlice());
+        Trace.writeVarLong(out, Trace.zigzag(process.getFirstRunTime()));
+        Trace.writeVarLong(out, Trace.zigzag(process.getCompletionTime()));
+        Trace.writeVarLong(out, process.getWaitTime());
+        Trace.writeVarLong(out, process.getCpuTime());
+    }
+
+    private static PCB readProcess(DataInputStream in) throws IOException {
+        int pid = (int) Trace.readVarLong(in);
+        String name = in.readUTF();
+        int state = in.readUnsignedByte();
+        boolean active = in.readBoolean();
+        int priority = (int) Trace.unzigzag(Trace.readVarLong(in));
+        int level = (int) Trace.readVarLong(in);
+        long burst = Trace.unzigzag(Trace.readVarLong(in));
+        PCB process = new PCB(pid, name, priority, burst);
+        process.setState(state);
+        process.setActive(active);
+        process.setLevel(level);
+        process.setAffinity((int) Trace.unzigzag(Trace.readVarLong(in)));
+        process.setLastCore((int) Trace.unzigzag(Trace.readVarLong(in)));
+        process.setQueueSeq(Trace.readVarLong(in));
+        process.setArrivalTime(Trace.readVarLong(in));
+        process.setReadySince(Trace.readVarLong(in));
+        process.setLastDispatchTime(Trace.readVarLong(in));
+        process.setSlice(Trace.readVarLong(in));
+        process.setFirstRunTime(Trace.unzigzag(Trace.readVarLong(in)));
+        process.setCompletionTime(Trace.unzigzag(Trace.readVarLong(in)));
+        process.addWaitTime(Trace.readVarLong(in));
+        process.addCpuTime(Trace.readVarLong(in));
+        return process;
+    }
+
+    static void writeSet(DataOutputStream out, IntSet set) throws IOException {
+        Trace.writeVarLong(out, set.size());
+        for (int i = 0; i < set.size(); i++) {
+            Trace.writeVarLong(out, Trace.zigzag(set.get(i)));
+        }
+    }
+
+    static void readSet(DataInputStream in, IntSet into) throws IOException {
+        for (int n = (int) Trace.readVarLong(in); n > 0; n--) {
+            into.add((int) Trace.unzigzag(Trace.readVarLong(in)));
+        }
+    }
+
+    // Orders new and existing wait queues by process priority instead of arrival
+    public void setPriorityWaits(boolean byPriority) {
+        long stamp = writeLock();
+        try {
+            priorityWaits = byPriority;
+            waitQueues.replaceAll((resourceId, queue) -> queue.reorder(byPriority));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void enqueueWaiter(PCB process, int resourceId, int size) {
+        WaitQueue.Waiter waiter = new WaitQueue.Waiter(process, size, waitSeq++);
+        waitQueues.computeIfAbsent(resourceId, k -> new WaitQueue(priorityWaits)).add(waiter);
+        waits.put(key(process.getPid(), resourceId), waiter);
+    }
+
+    private void dropRequest(int pid, int resourceId) {
+        if (table.requested(pid).remove(resourceId)) {
+            waits.remove(key(pid, resourceId));
+        }
+    }
+
+    private static long key(int pid, int resourceId) {
+        return (long) pid << 32 | (resourceId & 0xffffffffL);
+    }
+
+    // Next process to hand the free resourceId to, already recorded as holding
+    // it; the caller maps its pages and then calls addResource, or gives the
+    // grant back with removeResource(pid, resourceId, true). Waiters that only
+    // need waking are woken on the way. Under avoidance, waiters it would be
+    // unsafe to grant now are passed over and keep their places; if nobody
+    // else can take it the resource stays deferred (see deferredResources).
+    // Returns null when nobody can take it or it is held again.
+    public WaitQueue.Waiter takeWaiter(int resourceId) {
+        long stamp = writeLock();
+        try {
+            WaitQueue queue = waitQueues.get(resourceId);
+            if (queue == null || waitFor.getHolder(resourceId) != -1) {
+                undefer(resourceId); // nothing to hand on, or its release will
+                return null;
+            }
+            List<WaitQueue.Waiter> unsafe = null;
+            WaitQueue.Waiter waiter;
+            while ((waiter = queue.poll()) != null) {
+                int pid = waiter.process.getPid();
+                if (waits.get(key(pid, resourceId)) != waiter) {
+                    continue; // stale: the wait was cancelled, or asked for again behind later arrivals
                 }
+                if (waiter.size == 0) {
+                    remove(pid, resourceId, false);
+                    makeReady(waiter.process);
+                    Journal.record(Journal.Type.WAKE, pid, resourceId, 0);
+                    continue;
+                }
+                if (banker != null && !banker.isSafeToGrant(pid, resourceId, 1)) {
+                    if (unsafe == null) {
+                        unsafe = new ArrayList<>();
+                    }
+                    unsafe.add(waiter);
+                    continue;
+                }
+                if (table.held(pid).add(resourceId) && banker != null) {
+                    banker.allocate(pid, resourceId, 1);
+                }
+                break;
             }
+            if (unsafe != null) {
+                queue.putBack(unsafe);
+            }
+            if (waiter == null && unsafe != null) {
+                defer(resourceId);
+            } else {
+                undefer(resourceId);
+            }
+            if (queue.isEmpty()) {
+                waitQueues.remove(resourceId);
+            }
+            return waiter;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Free resources whose waiters were all unsafe to grant when last tried.
+    // Worth offering to them again (takeWaiter) whenever Available grows or a
+    // claim goes away.
+    public int[] deferredResources() {
+        if (!anyDeferred) {
+            return NONE;
+        }
+        long stamp = readLock();
+        try {
+            return deferred.toArray();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void defer(int resourceId) {
+        deferred.add(resourceId);
+        anyDeferred = true;
+    }
+
+    private void undefer(int resourceId) {
+        if (deferred.remove(resourceId)) {
+            anyDeferred = !deferred.isEmpty();
         }
     }
-}
\ No newline at end of file
+}
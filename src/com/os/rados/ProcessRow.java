@@ -0,0 +1,24 @@
+package com.os.rados;
+
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+
+// One line of the process table. Updating a property redraws just that cell.
+class ProcessRow {
+    private final ReadOnlyIntegerWrapper pid;
+    private final StringProperty name;
+    private final StringProperty state;
+
+    ProcessRow(int pid, String name, String state) {
+        this.pid = new ReadOnlyIntegerWrapper(pid);
+        this.name = new SimpleStringProperty(name);
+        this.state = new SimpleStringProperty(state);
+    }
+
+    public int getPid() { return pid.get(); }
+    public ReadOnlyIntegerProperty pidProperty() { return pid.getReadOnlyProperty(); }
+    public StringProperty nameProperty() { return name; }
+    public StringProperty stateProperty() { return state; }
+}
@@ -0,0 +1,93 @@
+package com.os.rados;
+
+import java.util.Arrays;
+
+// Processes indexed directly by pid. Per-process columns (the PCB, held and
+// requested resources) are parallel arrays, so a lookup is one array load.
+// Pids of reaped processes go on a free stack and are handed out again
+// before the table grows. Not thread-safe; ProcessManager guards it.
+//
+// The PCB stays one object per process rather than a column per field:
+// schedulers, wait queues and dispatch listeners hold PCB references across
+// calls, and would otherwise need pid handles and the table at every use.
+// What made big runs slow was the boxing and linear searches, which are
+// gone either way. Its state is an int code (PCB.READY ...), so state
+// checks compare ints.
+final class ProcessTable {
+    private PCB[] pcbs = new PCB[16];        // index 0 unused: pids start at 1
+    private IntSet[] held = new IntSet[16];
+    private IntSet[] requested = new IntSet[16];
+    private int[] freePids = new int[16];
+    private int freeCount;
+    private int highestPid;                 // largest pid ever issued
+    private int live;
+
+    // Claims a pid, preferring a recycled one
+    public int allocatePid() {
+        int pid = freeCount > 0 ? freePids[--freeCount] : ++highestPid;
+        if (pid >= pcbs.length) {
+            int length = Math.max(pid + 1, pcbs.length * 2);
+            pcbs = Arrays.copyOf(pcbs, length);
+            held = Arrays.copyOf(held, length);
+            requested = Arrays.copyOf(requested, length);
+        }
+        return pid;
+    }
+
+    public void add(PCB process) {
+        int pid = process.getPid();
+        pcbs[pid] = process;
+        if (held[pid] == null) {
+            held[pid] = new IntSet();
+            requested[pid] = new IntSet();
+        }
+        live++;
+    }
+
+    // Drops pid and makes it available for reuse; its resource sets must already be empty
+    public void remove(int pid) {
+        if (get(pid) == null) {
+            return;
+        }
+        pcbs[pid] = null;
+        held[pid].clear();
+        requested[pid].clear();
+        if (freeCount == freePids.length) {
+            freePids = Arrays.copyOf(freePids, freeCount * 2);
+        }
+        freePids[freeCount++] = pid;
+        live--;
+    }
+
+    // Pids waiting for reuse, next to be handed out last
+    public int[] freePids() {
+        return Arrays.copyOf(freePids, freeCount);
+    }
+
+    // Sets up an empty table to issue pids as a saved one would have
+    public void restorePids(int highest, int[] free) {
+        highestPid = highest;
+        int length = Math.max(16, highest + 1);
+        pcbs = Arrays.copyOf(pcbs, length);
+        held = Arrays.copyOf(held, length);
+        requested = Arrays.copyOf(requested, length);
+        freePids = Arrays.copyOf(free, Math.max(16, free.length));
+        freeCount = free.length;
+    }
+
+    public PCB get(int pid) {
+        return pid >= 1 && pid < pcbs.length ? pcbs[pid] : null;
+    }
+
+    public boolean contains(int pid) {
+        return get(pid) != null;
+    }
+
+    public IntSet held(int pid) { return held[pid]; }
+    public IntSet requested(int pid) { return requested[pid]; }
+
+    public int size() { return live; }
+
+    // Upper bound for iterating pids: every live pid is in [1, highestPid()]
+    public int highestPid() { return highestPid; }
+}
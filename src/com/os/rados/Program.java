@@ -0,0 +1,104 @@
+package com.os.rados;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// What a live process does: CPU bursts and the system calls between them,
+// in order. Written as words, e.g. "cpu 50 alloc 8 3 cpu 20 release 3":
+//   cpu [time]                 run for time units
+//   alloc [size] [resourceId]  take the resource, blocking while another process holds it
+//   release [resourceId]       hand the resource back
+//   write [resourceId] [page]  write one page of a held resource
+//   free                       release everything held
+// A resourceId written @n stands for n + pid, a resource of each process's own.
+// A program can drive any number of processes; each keeps its own place in it.
+final class Program {
+    static final int CPU = 0;
+    static final int ALLOC = 1;
+    static final int RELEASE = 2;
+    static final int WRITE = 3;
+    static final int FREE = 4;
+
+    static final class Step {
+        final int op;
+        final long time;      // cpu
+        final int size;       // alloc
+        final int resourceId; // alloc, release, write
+        final boolean own;    // resourceId is offset by the pid
+        final int page;       // write
+
+        Step(int op, long time, int size, String resource, int page) {
+            this.op = op;
+            this.time = time;
+            this.size = size;
+            own = resource != null && resource.startsWith("@");
+            this.resourceId = resource == null ? 0 : Integer.parseInt(own ? resource.substring(1) : resource);
+            this.page = page;
+        }
+
+        int resourceFor(int pid) {
+            return own ? resourceId + pid : resourceId;
+        }
+    }
+
+    private final String name;
+    private final Step[] steps;
+
+    private Program(String name, Step[] steps) {
+        this.name = name;
+        this.steps = steps;
+    }
+
+    public String getName() { return name; }
+    public int length() { return steps.length; }
+    public Step step(int i) { return steps[i]; }
+
+    // Parses words[from..] as steps
+    static Program parse(String name, String[] words, int from) {
+        List<Step> steps = new ArrayList<>();
+        int i = from;
+        while (i < words.length) {
+            String word = words[i++];
+            switch (word) {
+                case "cpu": {
+                    long time = Long.parseLong(argument(words, i++, word));
+                    if (time <= 0) {
+                        throw new IllegalArgumentException("CPU bursts must be positive");
+                    }
+                    steps.add(new Step(CPU, time, 0, null, 0));
+                    break;
+                }
+                case "alloc": {
+                    int size = Integer.parseInt(argument(words, i++, word));
+                    steps.add(new Step(ALLOC, 0, size, argument(words, i++, word), 0));
+                    break;
+                }
+                case "release":
+                    steps.add(new Step(RELEASE, 0, 0, argument(words, i++, word), 0));
+                    break;
+                case "write": {
+                    String resource = argument(words, i++, word);
+                    int page = Integer.parseInt(argument(words, i++, word));
+                    steps.add(new Step(WRITE, 0, 0, resource, page));
+                    break;
+                }
+                case "free":
+                    steps.add(new Step(FREE, 0, 0, null, 0));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown program step: " + word);
+            }
+        }
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("Program " + name + " has no steps");
+        }
+        return new Program(name, steps.toArray(new Step[0]));
+    }
+
+    private static String argument(String[] words, int i, String step) {
+        if (i >= words.length) {
+            throw new IllegalArgumentException("Missing argument to " + step);
+        }
+        return words[i];
+    }
+}
@@ -0,0 +1,220 @@
+package com.os.rados;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs processes that follow a Program. Each one is a task, its program and
+// the step it has reached, rather than a thread: only a process on a core
+// occupies one. A step that blocks (an alloc whose resource is held) parks
+// the task by leaving the process BLOCKED and off the ready queue; the
+// kernel's hand-off makes it READY again and whichever core dispatches it
+// next resumes the task where it stopped. One carrier thread per simulated
+// core therefore serves any number of live processes.
+//
+// Processes without a program share the cores as plain CPU bursts.
+class ProgramRunner {
+
+    private static final class Task {
+        final PCB process;
+        final Program program;
+        int step;
+        long remaining; // time left in the current cpu step
+        boolean parked; // blocked in the current alloc step
+
+        Task(PCB process, Program program) {
+            this.process = process;
+            this.program = program;
+            start();
+        }
+
+        void next() {
+            step++;
+            start();
+        }
+
+        private void start() {
+            remaining = step < program.length() && program.step(step).op == Program.CPU ? program.step(step).time : 0;
+        }
+
+        boolean done() {
+            return step == program.length();
+        }
+    }
+
+    private final Kernel kernel;
+    private Task[] tasks = new Task[64]; // by pid; only grows between runs
+    private int spawned;
+    private final AtomicInteger inFlight = new AtomicInteger(); // slices dispatched but not yet accounted
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder parks = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder finished = new LongAdder();
+    private long[] busyNanos = new long[0];
+    private long[] slices = new long[0];
+    private long elapsedNanos;
+
+    public ProgramRunner(Kernel kernel) {
+        this.kernel = kernel;
+    }
+
+    // Creates count READY processes running program. Not while a run is in progress.
+    public void spawn(Program program, int count, int priority) {
+        for (int i = 0; i < count; i++) {
+            int pid = kernel.createProcess(program.getName(), priority, -1);
+            if (pid >= tasks.length) {
+                tasks = Arrays.copyOf(tasks, Math.max(pid + 1, tasks.length * 2));
+            }
+            tasks[pid] = new Task(kernel.pm.getProcessByPid(pid), program);
+            spawned++;
+        }
+    }
+
+    // Runs every core on its own thread until nothing is READY or the virtual clock passes until
+    public void run(long until) throws InterruptedException {
+        int cores = kernel.cores();
+        busyNanos = new long[cores];
+        slices = new long[cores];
+        elapsedNanos = 0;
+        do {
+            runCarriers(cores, until);
+            // Every process left is blocked. If memory pressure control can
+            // free frames (or kill for them), some may run again.
+        } while (kernel.getClock() < until && kernel.relieveMemory());
+    }
+
+    private void runCarriers(int cores, long until) throws InterruptedException {
+        Thread[] carriers = new Thread[cores];
+        CountDownLatch go = new CountDownLatch(1);
+        for (int i = 0; i < cores; i++) {
+            int core = i;
+            carriers[i] = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                carry(core, until);
+            }, "radOS-carrier-" + i);
+            carriers[i].start();
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread carrier : carriers) {
+            carrier.join();
+        }
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    private void carry(int core, long until) {
+        while (kernel.getClock() < until) {
+            inFlight.incrementAndGet();
+            PCB process = kernel.dispatch(core);
+            if (process == null) {
+                if (inFlight.decrementAndGet() == 0) {
+                    return; // nothing queued anywhere and nothing running that could wake a task
+                }
+                Thread.yield(); // leave the kernel lock to the carriers with work
+                continue;
+            }
+            long begin = System.nanoTime();
+            int pid = process.getPid();
+            Task task = pid < tasks.length ? tasks[pid] : null;
+            if (task != null && task.process == process) {
+                resume(task);
+            } else {
+                kernel.endSlice(process, process.getSlice());
+            }
+            inFlight.decrementAndGet();
+            busyNanos[core] += System.nanoTime() - begin;
+            slices[core]++;
+        }
+    }
+
+    // Runs task's steps until its slice is used up, it parks or its program ends
+    private void resume(Task task) {
+        PCB process = task.process;
+        long slice = process.getSlice();
+        long ran = 0;
+        while (!task.done() && ran < slice && process.isActive()) {
+            Program.Step step = task.program.step(task.step);
+            if (step.op == Program.CPU) {
+                long used = Math.min(slice - ran, task.remaining);
+                ran += used;
+                task.remaining -= used;
+                if (task.remaining == 0) {
+                    task.next();
+                }
+                continue;
+            }
+            steps.increment();
+            if (!call(process.getPid(), step, task)) {
+                parks.increment();
+                kernel.endSlice(process, ran); // BLOCKED, so it stays off the ready queue
+                return;
+            }
+            task.next();
+        }
+        if (!process.isActive()) {
+            tasks[process.getPid()] = null; // killed for its memory
+            kernel.endSlice(process, ran);
+        } else if (task.done()) {
+            kernel.free(process.getPid()); // whatever the program left held goes, waking its waiters
+            tasks[process.getPid()] = null;
+            finished.increment();
+            kernel.exit(process, ran);
+        } else {
+            kernel.endSlice(process, ran);
+        }
+    }
+
+    // Makes one system call; false if the process blocked in it
+    private boolean call(int pid, Program.Step step, Task task) {
+        switch (step.op) {
+            case Program.ALLOC:
+                if (task.parked) {
+                    task.parked = false;
+                    if (kernel.holderOf(step.resourceFor(pid)) == pid) {
+                        return true; // handed over while parked
+                    }
+                    // woken without it (its pages no longer fit, or the wait was cancelled); try again
+                }
+                switch (kernel.allocate(pid, step.size, step.resourceFor(pid))) {
+                    case WAITING:
+                    case QUEUED:
+                    case UNSAFE:
+                    case DEADLOCK: // parked until something breaks the cycle
+                        task.parked = true;
+                        return false;
+                    case FAILED:
+                    case EXCEEDS_CLAIM:
+                        failed.increment(); // the program carries on without it
+                        return true;
+                    default:
+                        return true;
+                }
+            case Program.RELEASE:
+                kernel.release(pid, step.resourceFor(pid));
+                return true;
+            case Program.WRITE:
+                kernel.write(pid, step.resourceFor(pid), step.page);
+                return true;
+            default:
+                kernel.free(pid);
+                return true;
+        }
+    }
+
+    public String stats() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Live processes: %d spawned, %d finished, %d system calls, %d parks, %d failed allocations%n",
+                spawned, finished.sum(), steps.sum(), parks.sum(), failed.sum()));
+        out.append(String.format("Wall time: %.3f ms on %d carrier threads%n", elapsedNanos / 1e6, busyNanos.length));
+        for (int i = 0; i < busyNanos.length; i++) {
+            out.append(String.format("Carrier %d: %d slices, %.1f%% of wall time in slices%n", i, slices[i],
+                    elapsedNanos == 0 ? 0.0 : 100.0 * busyNanos[i] / elapsedNanos));
+        }
+        return out.toString();
+    }
+}
@@ -1,21 +1,37 @@
 package com.os.rados;
 
-import javafx.application.Platform;
+import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
 import javafx.scene.control.*;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class RadOSController {
 
     @FXML
-    private Label processDisplay;
+    private TableView<ProcessRow> processTable;
+
+    @FXML
+    private TableColumn<ProcessRow, Number> pidColumn;
+
+    @FXML
+    private TableColumn<ProcessRow, String> nameColumn;
+
+    @FXML
+    private TableColumn<ProcessRow, String> stateColumn;
 
     @FXML
     private TextField processNameBox;
@@ -24,7 +40,10 @@ public class RadOSController {
     private Button createProcessButton;
 
     @FXML
-    private Label memoryDisplay;
+    private Canvas memoryHeatmap;
+
+    @FXML
+    private ListView<Integer> memoryList;
 
     @FXML
     public TextField memoryPIDBox;
@@ -44,28 +63,124 @@ public class RadOSController {
     @FXML
     public Button freeMemoryButton;
 
+    @FXML
+    public CheckBox pressureToggle;
+
     @FXML
     public Label activityLogDisplay;
 
     @FXML
-    protected void createProcess() throws InterruptedException {
-        Main.semaphore.waitSem();
+    public Label statsDisplay;
+
+    private static final Duration STATS_REFRESH = Duration.millis(500);
+    private static final int LOG_LINES = 25; // what fits in activityLogDisplay
+
+    private final Map<Integer, ProcessRow> rows = new HashMap<>(); // pid -> row in processTable
+    private MemoryHeatmap heatmap;
+    private long logStart = -1;   // journal events up to here are hidden from the log
+    private long logShown = -1;   // latest journal event the log shows
+    private volatile boolean scheduling; // a paced round is running; set on the FX thread, cleared by the round
+
+    @FXML
+    public void initialize() {
+        pidColumn.setCellValueFactory(cell -> cell.getValue().pidProperty());
+        nameColumn.setCellValueFactory(cell -> cell.getValue().nameProperty());
+        stateColumn.setCellValueFactory(cell -> cell.getValue().stateProperty());
+        processTable.setPlaceholder(new Label("No processes created"));
+        memoryList.setCellFactory(list -> new PageCell());
+
+        // Live statistics, refreshed on the FX thread
+        Timeline refresh = new Timeline(new KeyFrame(STATS_REFRESH,
+                event -> statsDisplay.setText(Main.kernel.statsSummary() + Main.commands.stats())));
+        refresh.setCycleCount(Animation.INDEFINITE);
+        refresh.play();
+
+        // Whatever changed since the last pulse is applied once per pulse,
+        // however many actions or scheduler slices happened in between
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                applyChanges();
+            }
+        }.start();
+    }
+
+    private void applyChanges() {
+        for (int pid : Main.kernel.takeDirtyPids()) {
+            Object[] process = Main.kernel.describeProcess(pid);
+            ProcessRow row = rows.get(pid);
+            if (process == null) {
+                if (row != null) {
+                    rows.remove(pid);
+                    processTable.getItems().remove(row);
+                }
+            } else if (row != null) {
+                row.nameProperty().set((String) process[1]);
+                row.stateProperty().set((String) process[2]);
+            } else {
+                row = new ProcessRow(pid, (String) process[1], (String) process[2]);
+                rows.put(pid, row);
+                insertByPid(row);
+            }
+        }
+        long seq = Journal.lastSeq();
+        if (seq != logShown) {
+            logShown = seq;
+            activityLogDisplay.setText(Journal.tail(LOG_LINES, logStart));
+        }
+        int[] pages = Main.kernel.takeDirtyPages();
+        if (pages.length > 0 && heatmap != null) {
+            heatmap.redrawPages(pages, Main.kernel::pageOwner);
+            memoryList.refresh(); // rebuilds only the visible cells
+        }
+    }
+
+    // Recycled pids can come back below the end of the table
+    private void insertByPid(ProcessRow row) {
+        List<ProcessRow> items = processTable.getItems();
+        int low = 0, high = items.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (items.get(mid).getPid() < row.getPid()) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        items.add(low, row);
+    }
+
+    // Renders a page row on demand from the current frame table
+    private static final class PageCell extends ListCell<Integer> {
+        @Override
+        protected void updateItem(Integer page, boolean empty) {
+            super.updateItem(page, empty);
+            if (empty || page == null) {
+                setText(null);
+                return;
+            }
+            int pid = Main.kernel.pageOwner(page);
+            setText(pid == -1 ? "Page " + page + "\tFree"
+                    : "Page " + page + "\tAllocated\tPID " + pid + "\tResource " + Main.kernel.pageResource(page));
+        }
+    }
+
+    // Kernel work goes through Main.commands, off the FX thread; results come back on it
+
+    @FXML
+    protected void createProcess() {
         String name = processNameBox.getText();
         if(name.equals("")){
             displayMessage("Process was not created.\n\nPlease enter a name\nof the process to create");
         }
         else {
-            Main.pm.createProcess(name);
-            processDisplay.setText(Main.pm.listProcesses());
-
+            Main.commands.submit(kernel -> kernel.createProcess(name), null);
         }
         processNameBox.setText("");
-        Main.semaphore.signal();
     }
 
     @FXML
-    public void allocateMemory(ActionEvent actionEvent) throws InterruptedException {
-        Main.semaphore.waitSem();
+    public void allocateMemory(ActionEvent actionEvent) {
         boolean valid = true;
         int pid = -1, size = -1, rid = -1;
         if(memoryPIDBox.getText().equals("")){
@@ -85,111 +200,107 @@ public class RadOSController {
             displayMessage("Memory was not allocated.\n\nPlease enter the following\nPID, Size, and ResourceID\nto allocated memory");
         }
         else{
-            if(Main.pm.getProcessByPid(pid) == null){
-                displayMessage("Process with PID=" + pid + "\ndoes not exist");
-            }
-            else{
-                int pidHolding = Main.mm.getPidHoldingResource(rid);
-                if(pidHolding != -1 && pidHolding != pid){
-                    // Resource is held by another process; request it
-                    Main.pm.requestResource(pid, rid, pidHolding);
-                    if(Main.pm.detectDeadlock(pid, rid)){
-                        displayMessage("Allocated denied for PID=" + pid + "\nPotential deadlock detected");
-                        // Keep request and BLOCKED state
-                    }
-                    else{
-                        displayMessage("Resource " + rid + " is held by PID=" + pidHolding + "\nPID=" + pid + " is waiting");
-                        // Keep request in resourceRequests
-                    }
-                }
-                else{
-                    if(Main.mm.allocate(pid, size, rid)){
-                        Main.pm.addResource(pid, rid);
-                        memoryDisplay.setText(Main.mm.printMemory());
-
-                    }
-                    else{
-                        Main.pm.removeResource(pid, rid, false);
-                    }
+            int p = pid, s = size, r = rid;
+            Main.commands.submit(kernel -> allocationMessage(kernel, p, s, r), message -> {
+                if (message != null) {
+                    displayMessage(message);
                 }
-            }
-            processDisplay.setText(Main.pm.listProcesses());
+            });
             memoryPIDBox.setText("");
             memorySizeBox.setText("");
             memoryRIDBox.setText("");
-            Main.semaphore.signal();
+        }
+    }
+
+    // Runs on the kernel thread; null when there is nothing to report
+    private static String allocationMessage(Kernel kernel, int pid, int size, int rid) {
+        switch (kernel.allocate(pid, size, rid)) {
+            case NO_SUCH_PROCESS:
+                return "Process with PID=" + pid + "\ndoes not exist";
+            case DEADLOCK:
+                return "Allocated denied for PID=" + pid + "\nPotential deadlock detected";
+            case WAITING:
+                return "Resource " + rid + " is held by PID=" + kernel.holderOf(rid) + "\nPID=" + pid + " is waiting";
+            case QUEUED:
+                return "Memory is short\nPID=" + pid + " is waiting for free pages";
+            case FAILED:
+                return "Memory was not allocated.\n\nNot enough free pages\nfor PID=" + pid;
+            default:
+                return null;
         }
     }
 
     @FXML
-    public void freeMemory() throws InterruptedException {
-        Main.semaphore.waitSem();
+    public void freeMemory() {
         String pidBoxText = freeMemoryPIDBox.getText();
         if(pidBoxText.equals("")){
             displayMessage("No memory was freed.\n\nPlease enter a PID\nto free memory");
         }
         else {
             int pid = Integer.parseInt(pidBoxText);
-            Main.mm.free(pid);
-            if(pid <= Main.pm.resourceAllocation.size()){
-                List<Integer> heldResources = new ArrayList<>(Main.pm.resourceAllocation.get(pid - 1));
-                for (Integer resourceId : heldResources) {
-                    Main.pm.removeResource(pid, resourceId, true);
-                }
-                // Clear requests
-                List<Integer> requestedResources = new ArrayList<>(Main.pm.resourceRequests.get(pid - 1));
-                for (Integer resourceId : requestedResources) {
-                    Main.pm.removeResource(pid, resourceId, false);
-                }
-            }
+            Main.commands.submit(kernel -> {
+                kernel.free(pid);
+                return null;
+            }, null);
         }
-        processDisplay.setText(Main.pm.listProcesses());
-        memoryDisplay.setText(Main.mm.printMemory());
         freeMemoryPIDBox.setText("");
-        Main.semaphore.signal();
     }
 
+    // Pressure control queues allocations that don't fit instead of failing them
     @FXML
-    public void schedule(){
-        // Run in a background thread to avoid freezing UI
-        new Thread(() -> {
-            Main.semaphore.waitSem();
-
-            // Clear display on JavaFX thread
-            Platform.runLater(() -> activityLogDisplay.setText(""));
-
-            for (PCB process : Main.pm.processes) {
-                if (process.isActive() && process.getState().equals("READY")) {
-                    process.setState("RUNNING");
-                    Platform.runLater(() -> processDisplay.setText(Main.pm.listProcesses()));
-
-                    // Append to label on JavaFX thread
-                    String logEntry = "Running: PID=" + process.getPid() + ", Name=" + process.getName() + "\n";
-                    Platform.runLater(() -> {
-                        String oldText = activityLogDisplay.getText();
-                        activityLogDisplay.setText(oldText + logEntry);
-                    });
-
-                    // Simulate execution delay (on background thread)
-                    try {
-                        Thread.sleep(5000); // Now safe
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-
-                    process.setState("READY");
-                    // Update process display
-                    Platform.runLater(() -> processDisplay.setText(Main.pm.listProcesses()));
-                }
+    public void togglePressure() {
+        boolean on = pressureToggle.isSelected();
+        Main.commands.submit(kernel -> pressureMessage(kernel, on), message -> {
+            if (message != null) {
+                pressureToggle.setSelected(!on); // unchanged
+                displayMessage(message);
             }
+        });
+    }
 
-            Main.semaphore.signal();
-        }).start();
+    // Runs on the kernel thread; null when the switch went through
+    private static String pressureMessage(Kernel kernel, boolean on) {
+        try {
+            if (on) {
+                kernel.enablePressureControl(-1, -1);
+            } else {
+                kernel.disablePressureControl();
+            }
+            return null;
+        } catch (IllegalStateException e) {
+            return "Pressure control was not changed.\n\n" + e.getMessage();
+        }
+    }
 
+    @FXML
+    public void schedule(){
+        if (scheduling) {
+            return; // one round at a time; clicks during it are ignored
+        }
+        scheduling = true;
+
+        // The log starts afresh; dispatches reach it through the journal
+        logStart = Journal.lastSeq();
+        logShown = -2;
+
+        // Run in a background thread to avoid freezing UI. Not through
+        // Main.commands: a paced round sleeps through every slice and would
+        // hold up every command queued behind it. The managers lock for
+        // themselves, so the round may run beside the kernel thread.
+        // Pace slices in real time so each 5000-unit quantum runs for 5 seconds
+        Thread round = new Thread(() -> {
+            try {
+                Main.kernel.schedule(1.0, null);
+            } finally {
+                scheduling = false;
+            }
+        }, "radOS-schedule");
+        round.setDaemon(true);
+        round.start();
     }
 
     @FXML
-    public void displayMessage(String message) throws InterruptedException{
+    public void displayMessage(String message) {
         try {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("resources/ErrorMessage.fxml"));
             Parent root = loader.load();
@@ -210,6 +321,15 @@ public class RadOSController {
 
     @FXML
     public void memoryText(){
-        memoryDisplay.setText(Main.mm.printMemory());
+        // Full rebuild; later changes arrive through applyChanges
+        int pages = Main.kernel.numPages();
+        List<Integer> items = new ArrayList<>(pages);
+        for (int page = 0; page < pages; page++) {
+            items.add(page);
+        }
+        memoryList.getItems().setAll(items);
+        Main.kernel.takeDirtyPages();
+        heatmap = new MemoryHeatmap(memoryHeatmap, pages);
+        heatmap.redrawAll(Main.kernel::pageOwner);
     }
 }
@@ -0,0 +1,35 @@
+package com.os.rados;
+
+// Page-replacement policy over a fixed set of frames. VirtualMemory owns the
+// page tables; a policy only tracks which frames are resident and picks one
+// to evict when a fault finds none free. now counts memory references.
+interface Replacement {
+    String getName();
+
+    // frame now holds a freshly loaded page
+    void loaded(int frame, long now);
+
+    // frame was referenced by an access that did not fault
+    void accessed(int frame, long now);
+
+    // frame was emptied without being chosen as a victim (its process exited)
+    void removed(int frame);
+
+    // A resident frame to evict; only called when every frame is in use
+    int victim(long now);
+
+    static Replacement create(String policy, int frames, long window) {
+        switch (policy) {
+            case "fifo":
+                return new FifoReplacement(frames);
+            case "lru":
+                return new LruReplacement(frames);
+            case "clock":
+                return new ClockReplacement(frames);
+            case "ws":
+                return new WorkingSetReplacement(frames, window);
+            default:
+                throw new IllegalArgumentException("Unknown replacement policy: " + policy);
+        }
+    }
+}
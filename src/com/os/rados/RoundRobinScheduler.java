@@ -0,0 +1,24 @@
+package com.os.rados;
+
+import java.util.ArrayDeque;
+
+// FIFO ready queue with a fixed quantum; O(1) enqueue and dequeue
+class RoundRobinScheduler implements Scheduler {
+    private final ArrayDeque<PCB> queue = new ArrayDeque<>();
+    private final long quantum;
+
+    public RoundRobinScheduler(long quantum) {
+        if (quantum <= 0) {
+            throw new IllegalArgumentException("Quantum must be positive");
+        }
+        this.quantum = quantum;
+    }
+
+    public String getName() { return "Round robin (quantum " + quantum + ")"; }
+    public String policy() { return "rr"; }
+    public long quantum() { return quantum; }
+    public void enqueue(PCB process) { queue.addLast(process); }
+    public PCB dequeue(long now) { return queue.pollFirst(); }
+    public int size() { return queue.size(); }
+    public long quantumFor(PCB process) { return quantum; }
+}
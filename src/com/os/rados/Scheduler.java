@@ -0,0 +1,73 @@
+package com.os.rados;
+
+// Ready-queue policy. ProcessManager owns state transitions and timing; a
+// Scheduler only orders READY processes and picks each one's time slice.
+// Entries may go stale (the process blocked after being queued), so callers
+// skip anything dequeued that is no longer READY.
+interface Scheduler {
+    String getName();
+
+    void enqueue(PCB process);
+
+    // Next queued process, or null when the queue is empty
+    PCB dequeue(long now);
+
+    // Next process for a particular core; single-queue policies ignore the core
+    default PCB dequeue(int core, long now) {
+        return dequeue(now);
+    }
+
+    default int cores() {
+        return 1;
+    }
+
+    // What create needs to build an empty scheduler like this one, for Snapshot
+    String policy();
+    long quantum();
+
+    default int levels() {
+        return 1;
+    }
+
+    default long boostInterval() {
+        return 0;
+    }
+
+    int size();
+
+    long quantumFor(PCB process);
+
+    // The process used its whole slice and is going back to the queue
+    default void onQuantumExpired(PCB process) {}
+
+    default void onSliceEnd(PCB process, long ran) {}
+
+    // The process last dequeued for core is going onto it (it was not stale)
+    default void onDispatch(PCB process, int core) {}
+
+    // Per-core breakdown for multi-core policies, empty otherwise
+    default String coreStats(long elapsed) {
+        return "";
+    }
+
+    static Scheduler create(String policy, long quantum, int levels, int cores) {
+        return create(policy, quantum, levels, quantum * 20 * levels, cores);
+    }
+
+    // boostInterval only matters to mlfq
+    static Scheduler create(String policy, long quantum, int levels, long boostInterval, int cores) {
+        if (cores > 1) {
+            return new MultiQueueScheduler(cores, () -> create(policy, quantum, levels, boostInterval, 1));
+        }
+        switch (policy) {
+            case "rr":
+                return new RoundRobinScheduler(quantum);
+            case "priority":
+                return new PriorityScheduler(quantum);
+            case "mlfq":
+                return new MlfqScheduler(levels, quantum, boostInterval);
+            default:
+                throw new IllegalArgumentException("Unknown scheduling policy: " + policy);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.os.rados;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+// Discrete-event driver for a Kernel. Process slices on each simulated core
+// and scripted actions (arrivals, allocations, releases) are events on the
+// kernel's virtual clock. The loop jumps straight from one event to the
+// next, so a run is deterministic and takes only as long as the CPU needs.
+// Optional pacing stretches it back out to wall-clock time for the UI.
+class Simulation {
+
+    private static final class Event {
+        final long time;
+        final long seq;        // FIFO among events at the same time
+        final int core;        // core whose slice ends, or -1 for an action
+        final Runnable action;
+        boolean cancelled;
+
+        Event(long time, long seq, int core, Runnable action) {
+            this.time = time;
+            this.seq = seq;
+            this.core = core;
+            this.action = action;
+        }
+    }
+
+    private final Kernel kernel;
+    private final PriorityQueue<Event> events = new PriorityQueue<>(
+            Comparator.comparingLong((Event e) -> e.time).thenComparingLong(e -> e.seq));
+    private long seq;
+    private PCB[] running;      // process on each core, null when idle
+    private Event[] runningSlice;
+    private double pacing;      // wall-clock milliseconds per time unit, 0 for none
+    private Consumer<PCB> listener;
+    private long processed;
+
+    public Simulation(Kernel kernel) {
+        this.kernel = kernel;
+    }
+
+    public void setPacing(double pacing) {
+        this.pacing = pacing;
+    }
+
+    // Told about every dispatch and slice end; may be null
+    public void setListener(Consumer<PCB> listener) {
+        this.listener = listener;
+    }
+
+    public long getEventsProcessed() {
+        return processed;
+    }
+
+    public int pendingEvents() {
+        return events.size();
+    }
+
+    // Runs action once the virtual clock reaches time
+    public void at(long time, Runnable action) {
+        events.add(new Event(time, seq++, -1, action));
+    }
+
+    // Processes events up to and including time until (Long.MAX_VALUE for
+    // "until nothing is left"; processes that never finish keep a run going,
+    // so give those a limit). Returns the clock when the run stopped.
+    public long run(long until) {
+        long startClock = kernel.getClock();
+        long startWall = System.nanoTime();
+        int cores = kernel.cores();
+        if (running == null) {
+            running = new PCB[cores];
+            runningSlice = new Event[cores];
+        } else if (running.length < cores) {
+            // Policy gained cores since the last run; slices already in flight carry on
+            running = Arrays.copyOf(running, cores);
+            runningSlice = Arrays.copyOf(runningSlice, cores);
+        }
+        while (true) {
+            for (int core = 0; core < cores; core++) {
+                if (running[core] == null) {
+                    dispatch(core);
+                }
+            }
+            Event next = events.peek();
+            if (next == null || next.time > until) {
+                break;
+            }
+            events.poll();
+            if (next.cancelled) {
+                continue;
+            }
+            pace(next.time - startClock, startWall);
+            kernel.advanceClockTo(next.time);
+            processed++;
+            if (next.core >= 0) {
+                endSlice(next.core, running[next.core].getSlice());
+            } else {
+                next.action.run();
+                // An action may have blocked running processes; they give up their cores now
+                for (int core = 0; core < cores; core++) {
+                    PCB process = running[core];
+                    if (process != null && !process.is(PCB.RUNNING)) {
+                        runningSlice[core].cancelled = true;
+                        endSlice(core, next.time - process.getLastDispatchTime());
+                    }
+                }
+            }
+        }
+        return kernel.getClock();
+    }
+
+    private void dispatch(int core) {
+        PCB process = kernel.dispatch(core);
+        if (process == null) {
+            return;
+        }
+        running[core] = process;
+        runningSlice[core] = new Event(process.getLastDispatchTime() + process.getSlice(), seq++, core, null);
+        events.add(runningSlice[core]);
+        if (listener != null) {
+            listener.accept(process);
+        }
+    }
+
+    private void endSlice(int core, long ran) {
+        PCB process = running[core];
+        running[core] = null;
+        runningSlice[core] = null;
+        kernel.endSlice(process, ran);
+        if (listener != null) {
+            listener.accept(process);
+        }
+    }
+
+    private void pace(long elapsed, long startWall) {
+        if (pacing <= 0) {
+            return;
+        }
+        long target = startWall + (long) (elapsed * pacing * 1_000_000);
+        long wait = target - System.nanoTime();
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.os.rados;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+// Size-class allocator for objects smaller than a page. Each power-of-two
+// class carves same-sized slots out of slabs, SLAB_PAGES-page blocks taken
+// from a buddy allocator, so small requests round up to the class instead
+// of to a whole page. A slab goes back to the buddy allocator when its last
+// slot is freed. Requests bigger than the largest class below a page go to
+// the buddy allocator directly. Slot handles have bit 62 set, the slab's
+// first page from bit 21 and the slot number below that.
+class SlabAllocator implements PhysicalAllocator {
+    static final int SLAB_PAGES = 8;
+    private static final long SLOT = 1L << 62;
+    private static final int SLOT_BITS = 21;
+
+    private static final class Slab {
+        final long block;      // buddy handle
+        final int first;       // first page
+        final int cls;
+        final int slotSize;
+        final BitSet used = new BitSet();
+        final int[] requested; // units asked for, per slot
+        int inUse;
+        boolean listed;        // on its class's partial list
+        boolean released;
+
+        Slab(long block, int cls, int slotSize, int slots) {
+            this.block = block;
+            this.first = (int) (block >>> 6);
+            this.cls = cls;
+            this.slotSize = slotSize;
+            this.requested = new int[slots];
+        }
+    }
+
+    private final BuddyAllocator pages;
+    private final int pageSize;
+    private final int slabUnits;
+    private final int minClass;                 // smallest class whose slots can be numbered in SLOT_BITS
+    private final int classes;                  // class c holds slots of 2^c units
+    private final ArrayDeque<Slab>[] partial;   // per class, slabs that may have a free slot
+    private final Map<Integer, Slab> slabs = new HashMap<>(); // by first page
+    private long slabBacking;                   // units of buddy blocks held as slabs
+    private long slotUnits;                     // units of slots in use
+    private long slotRequested;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SlabAllocator(int pages, int pageSize) {
+        this.pages = new BuddyAllocator(pages, pageSize);
+        this.pageSize = pageSize;
+        slabUnits = SLAB_PAGES * pageSize;
+        classes = 32 - Integer.numberOfLeadingZeros(pageSize - 1); // 2^(classes-1) < pageSize
+        minClass = Math.max(0, 32 - Integer.numberOfLeadingZeros(slabUnits - 1) - SLOT_BITS);
+        partial = new ArrayDeque[classes];
+        for (int c = 0; c < classes; c++) {
+            partial[c] = new ArrayDeque<>();
+        }
+    }
+
+    @Override
+    public String getName() { return "slab"; }
+
+    @Override
+    public long allocate(int size) {
+        if (size <= 0) {
+            return -1;
+        }
+        int cls = Math.max(minClass, 32 - Integer.numberOfLeadingZeros(size - 1));
+        if (cls >= classes) {
+            return pages.allocate(size);
+        }
+        Slab slab = partialSlab(cls);
+        if (slab == null) {
+            long block = pages.allocate(slabUnits);
+            if (block == -1) {
+                return -1;
+            }
+            slab = new Slab(block, cls, 1 << cls, slabUnits >> cls);
+            slabs.put(slab.first, slab);
+            slabBacking += slabUnits;
+            slab.listed = true;
+            partial[cls].push(slab);
+        }
+        int slot = slab.used.nextClearBit(0);
+        slab.used.set(slot);
+        slab.inUse++;
+        slab.requested[slot] = size;
+        slotUnits += slab.slotSize;
+        slotRequested += size;
+        return SLOT | ((long) slab.first << SLOT_BITS) | slot;
+    }
+
+    // A listed slab of class cls with a free slot; full ones are dropped from the list on the way
+    private Slab partialSlab(int cls) {
+        ArrayDeque<Slab> list = partial[cls];
+        Slab slab;
+        while ((slab = list.peek()) != null) {
+            if (!slab.released && slab.inUse < slab.requested.length) {
+                return slab;
+            }
+            list.poll();
+            slab.listed = false;
+        }
+        return null;
+    }
+
+    @Override
+    public void free(long handle) {
+        if ((handle & SLOT) == 0) {
+            pages.free(handle);
+            return;
+        }
+        Slab slab = slabs.get((int) ((handle & ~SLOT) >>> SLOT_BITS));
+        int slot = (int) (handle & ((1L << SLOT_BITS) - 1));
+        if (slab == null || !slab.used.get(slot)) {
+            return;
+        }
+        slab.used.clear(slot);
+        slab.inUse--;
+        slotUnits -= slab.slotSize;
+        slotRequested -= slab.requested[slot];
+        if (slab.inUse == 0) {
+            slab.released = true;
+            slabs.remove(slab.first);
+            slabBacking -= slabUnits;
+            pages.free(slab.block);
+        } else if (!slab.listed) {
+            slab.listed = true;
+            partial[slab.cls].push(slab);
+        }
+    }
+
+    @Override
+    public long requestedUnits() {
+        return pages.requestedUnits() - slabBacking + slotRequested;
+    }
+
+    @Override
+    public long reservedUnits() {
+        return pages.reservedUnits() - slabBacking + slotUnits;
+    }
+
+    @Override
+    public long freeUnits() {
+        return pages.freeUnits() + slabBacking - slotUnits;
+    }
+
+    @Override
+    public long largestFreeBlock() {
+        long largest = pages.largestFreeBlock();
+        for (int c = classes - 1; c >= minClass && (1L << c) > largest; c--) {
+            if (partialSlab(c) != null) {
+                return 1L << c;
+            }
+        }
+        return largest;
+    }
+}
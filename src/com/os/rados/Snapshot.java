@@ -0,0 +1,323 @@
+package com.os.rados;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32C;
+
+// Kernel state saved to a memory-mapped file and loaded back, so a long run
+// can be checkpointed and experiments started from a saved state.
+//
+// The file holds two slots, each a full copy of the frame table (region by
+// region, owners then resourceIds) plus a checksum per region, and a section
+// with everything else: the process table, resource sets, wait queues, the
+// ready queue and the scheduling policy it runs under, Banker claims, the
+// memory manager's page lists, and the pressure and virtual memory settings.
+// The image is taken with every stripe and the process lock held, so it is
+// one point in time. A snapshot writes into the
+// slot the latest commit does not use, rewriting only the regions that slot
+// is missing, then forces it to disk and only then writes its commit record
+// (generation, where its tables are, checksums). A crash at any point leaves
+// the previous commit intact; restore takes the newest record that checks out.
+//
+// Not saved: per-core and policy statistics, and virtual memory's resident
+// pages (a restored kernel faults them in again). Snapshots are refused while
+// a placement strategy is selected.
+final class Snapshot {
+    private static final int MAGIC = 0x52534E50; // "RSNP"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 8192;
+    private static final int RECORD_OFFSET = 64;
+    private static final int RECORD_BYTES = 32;
+    private static final int REGION_BYTES = MemoryManager.REGION_PAGES * 8;
+    private static final long SEGMENT_BYTES = 1L << 30; // a whole number of regions; one mapping each
+
+    private Snapshot() {}
+
+    // Where a slot's tables are, as read from or written to its commit record
+    private static final class Commit {
+        long generation = -1;
+        long tablesOffset;
+        int tablesLength;
+        int tablesCrc;
+        int checksumsCrc;
+    }
+
+    static final class Writer implements AutoCloseable {
+        private final Path path;
+        private final FileChannel channel;
+        private final int regions;
+        private final long frameBytes;
+        private final MappedByteBuffer[][] segments = new MappedByteBuffer[2][];
+        private final int[][] checksums = new int[2][];
+        private final BitSet[] missing = new BitSet[2]; // per slot, regions it does not have current
+        private final Commit[] commits = {new Commit(), new Commit()};
+        private int latest = -1; // slot of the newest commit
+
+        // Opens or creates file for mm's geometry. A file with a different
+        // geometry is started over; otherwise its newest commit is kept until
+        // the next one lands.
+        Writer(Path path, MemoryManager mm) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            regions = mm.getRegionCount();
+            frameBytes = (long) regions * REGION_BYTES;
+            boolean reuse = false;
+            if (channel.size() >= HEADER_BYTES) {
+                ByteBuffer header = read(channel, 0, HEADER_BYTES);
+                reuse = header.getInt(0) == MAGIC && header.get(4) == VERSION
+                        && header.getLong(8) == mm.getMemorySize() && header.getInt(16) == mm.getPageSize();
+                for (int slot = 0; reuse && slot < 2; slot++) {
+                    Commit commit = readCommit(header, slot);
+                    if (commit != null) {
+                        commits[slot] = commit;
+                        if (latest < 0 || commit.generation > commits[latest].generation) {
+                            latest = slot;
+                        }
+                    }
+                }
+            }
+            if (!reuse) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(0, MAGIC).put(4, (byte) VERSION).putLong(8, mm.getMemorySize())
+                        .putInt(16, mm.getPageSize()).putInt(20, regions);
+                channel.write(header, 0);
+            }
+            for (int slot = 0; slot < 2; slot++) {
+                checksums[slot] = new int[regions];
+                missing[slot] = new BitSet(regions);
+                missing[slot].set(0, regions);
+            }
+        }
+
+        Path getPath() { return path; }
+
+        // Writes a snapshot of kernel and commits it; returns a one-line summary
+        String write(Kernel kernel) throws IOException {
+            ProcessManager pm = kernel.pm;
+            MemoryManager mm = kernel.mm;
+            long start = System.nanoTime();
+            int slot = latest == 0 ? 1 : 0;
+            int written = 0;
+            byte[] tables;
+            mm.lockAll();
+            long stamp = pm.lockForSnapshot();
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                pm.save(out);
+                mm.save(out);
+                kernel.saveSettings(out);
+                out.flush();
+                tables = bytes.toByteArray();
+                BitSet changed = mm.takeDirtyRegions();
+                missing[0].or(changed);
+                missing[1].or(changed);
+                int[] owners = new int[MemoryManager.REGION_PAGES];
+                int[] resources = new int[MemoryManager.REGION_PAGES];
+                CRC32C crc = new CRC32C();
+                for (int r = missing[slot].nextSetBit(0); r >= 0; r = missing[slot].nextSetBit(r + 1)) {
+                    int n = mm.copyRegion(r, owners, resources);
+                    Arrays.fill(owners, n, owners.length, -1); // past the last page
+                    Arrays.fill(resources, n, resources.length, -1);
+                    ByteBuffer region = region(slot, r);
+                    region.asIntBuffer().put(owners).put(resources);
+                    crc.reset();
+                    crc.update(region);
+                    checksums[slot][r] = (int) crc.getValue();
+                    written++;
+                }
+                missing[slot].clear();
+            } finally {
+                pm.unlockForSnapshot(stamp);
+                mm.unlockAll();
+            }
+
+            // Tables go after the fixed part, clear of the other slot's
+            Commit other = commits[1 - slot];
+            long offset = HEADER_BYTES + 2 * frameBytes + 8L * regions;
+            if (other.generation >= 0 && offset + tables.length > other.tablesOffset) {
+                offset = Math.max(offset, other.tablesOffset + other.tablesLength);
+            }
+            ByteBuffer sums = ByteBuffer.allocate(4 * regions);
+            sums.asIntBuffer().put(checksums[slot]);
+            channel.write(sums, checksumsOffset(slot));
+            channel.write(ByteBuffer.wrap(tables), offset);
+            if (segments[slot] != null) {
+                for (MappedByteBuffer segment : segments[slot]) {
+                    if (segment != null) {
+                        segment.force();
+                    }
+                }
+            }
+            channel.force(false);
+
+            Commit commit = new Commit();
+            commit.generation = commits[1 - slot].generation + 1;
+            commit.tablesOffset = offset;
+            commit.tablesLength = tables.length;
+            commit.tablesCrc = crc(ByteBuffer.wrap(tables));
+            commit.checksumsCrc = crc(sums.rewind());
+            ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+            record.putLong(commit.generation).putLong(commit.tablesOffset).putInt(commit.tablesLength)
+                    .putInt(commit.tablesCrc).putInt(commit.checksumsCrc);
+            record.putInt(crc(ByteBuffer.wrap(record.array(), 0, RECORD_BYTES - 4)));
+            channel.write(record.flip(), RECORD_OFFSET + (long) slot * RECORD_BYTES);
+            channel.force(false);
+            commits[slot] = commit;
+            latest = slot;
+            return String.format("Snapshot %d to %s: %d of %d regions, %d bytes of tables, %.3f ms%n",
+                    commit.generation, path, written, regions, tables.length, (System.nanoTime() - start) / 1e6);
+        }
+
+        // Region r of slot's frame table, mapped in 1 GiB segments
+        private ByteBuffer region(int slot, int r) throws IOException {
+            long at = (long) r * REGION_BYTES;
+            int index = (int) (at / SEGMENT_BYTES);
+            if (segments[slot] == null) {
+                segments[slot] = new MappedByteBuffer[(int) ((frameBytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            }
+            MappedByteBuffer segment = segments[slot][index];
+            if (segment == null) {
+                long base = (long) index * SEGMENT_BYTES;
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, framesOffset(slot) + base,
+                        Math.min(SEGMENT_BYTES, frameBytes - base));
+                segments[slot][index] = segment;
+            }
+            int from = (int) (at % SEGMENT_BYTES);
+            return segment.slice(from, REGION_BYTES);
+        }
+
+        private long framesOffset(int slot) {
+            return HEADER_BYTES + slot * frameBytes;
+        }
+
+        private long checksumsOffset(int slot) {
+            return HEADER_BYTES + 2 * frameBytes + 4L * regions * slot;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Builds a kernel from file's newest intact commit, falling back to the older one
+    static Kernel restore(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a radOS snapshot");
+            }
+            if (header.get(4) != VERSION) {
+                throw new IOException("Unsupported snapshot version " + header.get(4));
+            }
+            long memorySize = header.getLong(8);
+            int pageSize = header.getInt(16);
+            int regions = header.getInt(20);
+            Commit[] commits = {readCommit(header, 0), readCommit(header, 1)};
+            int first = commits[1] != null && (commits[0] == null || commits[1].generation > commits[0].generation) ? 1 : 0;
+            IOException failure = new IOException("Snapshot has no complete commit");
+            for (int slot : new int[] {first, 1 - first}) {
+                if (commits[slot] == null) {
+                    continue;
+                }
+                try {
+                    return load(channel, memorySize, pageSize, regions, slot, commits[slot]);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            throw failure;
+        }
+    }
+
+    private static Kernel load(FileChannel channel, long memorySize, int pageSize, int regions, int slot, Commit commit)
+            throws IOException {
+        long frameBytes = (long) regions * REGION_BYTES;
+        ByteBuffer sums = read(channel, HEADER_BYTES + 2 * frameBytes + 4L * regions * slot, 4 * regions);
+        if (crc(sums) != commit.checksumsCrc) {
+            throw new IOException("Snapshot " + commit.generation + ": region checksums are corrupt");
+        }
+        ByteBuffer tables = read(channel, commit.tablesOffset, commit.tablesLength);
+        if (crc(tables) != commit.tablesCrc) {
+            throw new IOException("Snapshot " + commit.generation + ": tables are corrupt");
+        }
+        Kernel kernel = new Kernel(memorySize, pageSize);
+        if (kernel.mm.getRegionCount() != regions) {
+            throw new IOException("Snapshot geometry does not match its region count");
+        }
+        int[] owners = new int[MemoryManager.REGION_PAGES];
+        int[] resources = new int[MemoryManager.REGION_PAGES];
+        CRC32C crc = new CRC32C();
+        long base = HEADER_BYTES + slot * frameBytes;
+        for (long done = 0; done < frameBytes; done += SEGMENT_BYTES) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, base + done,
+                    Math.min(SEGMENT_BYTES, frameBytes - done));
+            for (int at = 0; at < segment.capacity(); at += REGION_BYTES) {
+                int r = (int) ((done + at) / REGION_BYTES);
+                ByteBuffer region = segment.slice(at, REGION_BYTES);
+                crc.reset();
+                crc.update(region.duplicate());
+                if ((int) crc.getValue() != sums.getInt(4 * r)) {
+                    throw new IOException("Snapshot " + commit.generation + ": region " + r + " is corrupt");
+                }
+                IntBuffer ints = region.asIntBuffer();
+                ints.get(owners).get(resources);
+                kernel.mm.restoreRegion(r, owners, resources);
+            }
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(tables.array()));
+        kernel.pm.restore(in);
+        kernel.mm.restore(in);
+        kernel.restoreSettings(in);
+        if (Log.enabled) Log.println("Restored snapshot " + commit.generation + " (" + regions + " regions)");
+        return kernel;
+    }
+
+    // The slot's commit record, or null if it was never written or is torn
+    private static Commit readCommit(ByteBuffer header, int slot) {
+        int at = RECORD_OFFSET + slot * RECORD_BYTES;
+        ByteBuffer record = header.duplicate().position(at).limit(at + RECORD_BYTES).slice();
+        if (record.getLong(0) == 0 && record.getInt(RECORD_BYTES - 4) == 0) {
+            return null; // never written
+        }
+        if (crc(record.duplicate().limit(RECORD_BYTES - 4)) != record.getInt(RECORD_BYTES - 4)) {
+            return null;
+        }
+        Commit commit = new Commit();
+        commit.generation = record.getLong(0);
+        commit.tablesOffset = record.getLong(8);
+        commit.tablesLength = record.getInt(16);
+        commit.tablesCrc = record.getInt(20);
+        commit.checksumsCrc = record.getInt(24);
+        return commit;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Snapshot is truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static int crc(ByteBuffer bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.duplicate());
+        return (int) crc.getValue();
+    }
+}
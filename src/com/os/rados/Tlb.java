@@ -0,0 +1,66 @@
+package com.os.rados;
+
+import java.util.Arrays;
+
+// Direct-mapped translation cache from (pid, virtual page) to frame. Tags and
+// frames live in primitive arrays; a lookup is one hash and two compares.
+// VirtualMemory caches a huge page under a tag of its own, so one entry
+// covers the whole page.
+final class Tlb {
+    private final int[] pids;
+    private final long[] vpns; // -1 when empty
+    private final int[] frames;
+    private final int mask;
+
+    // entries is rounded up to a power of two
+    public Tlb(int entries) {
+        if (entries <= 0) {
+            throw new IllegalArgumentException("TLB needs at least one entry");
+        }
+        int size = Integer.highestOneBit(entries);
+        if (size < entries) {
+            size <<= 1;
+        }
+        pids = new int[size];
+        vpns = new long[size];
+        frames = new int[size];
+        mask = size - 1;
+        Arrays.fill(vpns, -1L);
+    }
+
+    public int size() { return vpns.length; }
+
+    // Cached frame for the page, or -1 on a miss
+    public int lookup(int pid, long vpn) {
+        int slot = slot(pid, vpn);
+        return vpns[slot] == vpn && pids[slot] == pid ? frames[slot] : -1;
+    }
+
+    public void insert(int pid, long vpn, int frame) {
+        int slot = slot(pid, vpn);
+        pids[slot] = pid;
+        vpns[slot] = vpn;
+        frames[slot] = frame;
+    }
+
+    public void invalidate(int pid, long vpn) {
+        int slot = slot(pid, vpn);
+        if (vpns[slot] == vpn && pids[slot] == pid) {
+            vpns[slot] = -1L;
+        }
+    }
+
+    // Drops every entry belonging to pid
+    public void flush(int pid) {
+        for (int i = 0; i < vpns.length; i++) {
+            if (pids[i] == pid) {
+                vpns[i] = -1L;
+            }
+        }
+    }
+
+    private int slot(int pid, long vpn) {
+        long h = (((long) pid << 32) ^ vpn) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & mask;
+    }
+}
@@ -0,0 +1,287 @@
+package com.os.rados;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Compact binary record of the calls that change kernel state, for replaying
+// a workload exactly. A trace starts with a header (magic, version, memory
+// geometry) followed by one record per call: an opcode, the arguments as
+// variable-length integers, and the result the call returned, so a replay
+// can tell where it diverged. Replaying a trace while recording produces
+// the same bytes again.
+//
+// Calls are recorded in the order they complete. That is the order they ran
+// in only when one thread drives the kernel, as the batch runner and the
+// command pipeline do.
+final class Trace {
+    private static final int MAGIC = 0x52545243; // "RTRC"
+    private static final int VERSION = 1;
+
+    private static final int CREATE = 1;
+    private static final int ALLOCATE = 2;
+    private static final int FREE = 3;
+    private static final int RELEASE = 4;
+    private static final int FORK = 5;
+    private static final int WRITE = 6;
+    private static final int SHARE = 7;
+
+    private Trace() {}
+
+    // Appends records to a stream; the kernel calls it while recording is on
+    static final class Recorder implements AutoCloseable {
+        private final DataOutputStream out;
+        private long records;
+
+        Recorder(OutputStream stream, long memorySize, int pageSize) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeVarLong(out, memorySize);
+            writeVarLong(out, pageSize);
+        }
+
+        synchronized void create(String name, int priority, long burst, int pid) {
+            try {
+                out.writeByte(CREATE);
+                out.writeUTF(name);
+                writeVarLong(out, zigzag(priority));
+                writeVarLong(out, zigzag(burst));
+                writeVarLong(out, pid);
+                records++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        synchronized void allocate(int pid, int size, int resourceId, Kernel.AllocResult result) {
+            try {
+                out.writeByte(ALLOCATE);
+                writeVarLong(out, zigzag(pid));
+                writeVarLong(out, zigzag(size));
+                writeVarLong(out, zigzag(resourceId));
+                out.writeByte(result.ordinal());
+                records++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        synchronized void free(int pid, boolean freed) {
+            try {
+                out.writeByte(FREE);
+                writeVarLong(out, zigzag(pid));
+                out.writeBoolean(freed);
+                records++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        synchronized void release(int pid, int resourceId, boolean released) {
+            try {
+                out.writeByte(RELEASE);
+                writeVarLong(out, zigzag(pid));
+                writeVarLong(out, zigzag(resourceId));
+                out.writeBoolean(released);
+                records++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        synchronized void fork(int parent, int child) {
+            try {
+                out.writeByte(FORK);
+                writeVarLong(out, zigzag(parent));
+                writeVarLong(out, zigzag(child));
+                records++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        synchronized void write(int pid, int resourceId, int index, MemoryManager.Write result) {
+            try {
+                out.writeByte(WRITE);
+                writeVarLong(out, zigzag(pid));
+                writeVarLong(out, zigzag(resourceId));
+                writeVarLong(out, zigzag(index));
+                out.writeByte(result.ordinal());
+                records++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        synchronized void share(int pid, int resourceId, boolean shared) {
+            try {
+                out.writeByte(SHARE);
+                writeVarLong(out, zigzag(pid));
+                writeVarLong(out, zigzag(resourceId));
+                out.writeBoolean(shared);
+                records++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        synchronized long getRecords() {
+            return records;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+
+        private static void failed(IOException e) {
+            throw new IllegalStateException("Could not write trace: " + e.getMessage(), e);
+        }
+    }
+
+    // Outcome of a replay
+    static final class Replay {
+        long records;
+        long mismatches;     // calls whose result differs from the recorded one
+        long firstMismatch = -1;
+        long nanos;
+
+        @Override
+        public String toString() {
+            return String.format("Replayed %d records in %.3f ms, %d mismatches%s%n",
+                    records, nanos / 1e6, mismatches,
+                    firstMismatch < 0 ? "" : " (first at record " + firstMismatch + ")");
+        }
+    }
+
+    // Memory size and page size a trace was recorded with, so a replay can build the same kernel
+    static long[] geometry(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        readHeader(in);
+        return new long[] {readVarLong(in), readVarLong(in)};
+    }
+
+    // Reissues every recorded call against kernel as fast as it will take them
+    static Replay replay(InputStream stream, Kernel kernel) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        readHeader(in);
+        readVarLong(in);
+        readVarLong(in);
+        Kernel.AllocResult[] results = Kernel.AllocResult.values();
+        MemoryManager.Write[] writes = MemoryManager.Write.values();
+        Replay replay = new Replay();
+        long start = System.nanoTime();
+        int op;
+        while ((op = in.read()) != -1) {
+            boolean matched;
+            switch (op) {
+                case CREATE: {
+                    String name = in.readUTF();
+                    int priority = (int) unzigzag(readVarLong(in));
+                    long burst = unzigzag(readVarLong(in));
+                    int pid = (int) readVarLong(in);
+                    matched = kernel.createProcess(name, priority, burst) == pid;
+                    break;
+                }
+                case ALLOCATE: {
+                    int pid = (int) unzigzag(readVarLong(in));
+                    int size = (int) unzigzag(readVarLong(in));
+                    int resourceId = (int) unzigzag(readVarLong(in));
+                    Kernel.AllocResult result = results[in.readUnsignedByte()];
+                    matched = kernel.allocate(pid, size, resourceId) == result;
+                    break;
+                }
+                case FREE: {
+                    int pid = (int) unzigzag(readVarLong(in));
+                    matched = kernel.free(pid) == in.readBoolean();
+                    break;
+                }
+                case RELEASE: {
+                    int pid = (int) unzigzag(readVarLong(in));
+                    int resourceId = (int) unzigzag(readVarLong(in));
+                    matched = kernel.release(pid, resourceId) == in.readBoolean();
+                    break;
+                }
+                case FORK: {
+                    int parent = (int) unzigzag(readVarLong(in));
+                    int child = (int) unzigzag(readVarLong(in));
+                    matched = kernel.fork(parent) == child;
+                    break;
+                }
+                case WRITE: {
+                    int pid = (int) unzigzag(readVarLong(in));
+                    int resourceId = (int) unzigzag(readVarLong(in));
+                    int index = (int) unzigzag(readVarLong(in));
+                    MemoryManager.Write result = writes[in.readUnsignedByte()];
+                    matched = kernel.write(pid, resourceId, index) == result;
+                    break;
+                }
+                case SHARE: {
+                    int pid = (int) unzigzag(readVarLong(in));
+                    int resourceId = (int) unzigzag(readVarLong(in));
+                    matched = kernel.share(pid, resourceId) == in.readBoolean();
+                    break;
+                }
+                default:
+                    throw new IOException("Corrupt trace: unknown opcode " + op + " at record " + replay.records);
+            }
+            if (!matched) {
+                if (replay.mismatches++ == 0) {
+                    replay.firstMismatch = replay.records;
+                }
+            }
+            replay.records++;
+        }
+        replay.nanos = System.nanoTime() - start;
+        return replay;
+    }
+
+    private static void readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a radOS trace");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported trace version " + version);
+        }
+    }
+
+    // LEB128: seven bits per byte, high bit set on all but the last
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Truncated trace");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt trace: variable-length integer too long");
+    }
+
+    // Small negative numbers (pid -1, burst -1) stay one byte
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
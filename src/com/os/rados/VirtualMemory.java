@@ -0,0 +1,316 @@
+package com.os.rados;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Demand-paged virtual memory over a fixed pool of frames. Each process gets
+// a page table that fills in as it touches addresses; a TLB caches recent
+// translations. When a fault finds no free frame the replacement policy
+// picks a victim, which is written to the backing store first if dirty.
+// Time is measured in references, which is what the working-set window uses.
+//
+// With huge pages on, a fault in an untouched leaf span maps the whole span
+// at once if an aligned run of free frames is left, and a span that fills
+// up with base pages is promoted: in place when its frames happen to be
+// contiguous and aligned, otherwise by copying into a free run. Evicting
+// any frame of a huge page demotes it to base pages first.
+class VirtualMemory {
+
+    enum Access {
+        TLB_HIT,         // translation cached
+        HIT,             // resident, found by walking the page table
+        FAULT,           // loaded into a free frame
+        FAULT_EVICTED,   // loaded after evicting another page
+        NO_SUCH_PROCESS
+    }
+
+    static final int DEFAULT_LEVELS = 4;
+    static final int DEFAULT_LEAF_BITS = 9;
+    private static final long HUGE_TAG = 1L << 62; // TLB tag bit for a huge page's entry
+
+    private final int pageSize;
+    private final int levels;
+    private final int leafBits;
+    private final boolean hugePages;
+    private final long addressablePages;
+    private final int[] framePid;   // owner of each frame, -1 when free
+    private final long[] frameVpn;
+    private final boolean[] dirty;
+    private final PageBitmap freeFrames;
+    private final Replacement policy;
+    private final String policyName; // as given to the constructor
+    private final long window;
+    private final int hugeSpan;
+    private final Tlb tlb;
+    private final BackingStore store = new BackingStore();
+    private final Map<Integer, PageTable> tables = new HashMap<>();
+
+    private long references;
+    private long tlbHits;
+    private long faults;
+    private long evictions;
+    private long hugeFaults;
+    private long promotions;
+    private long promotionCopies; // promotions that had to move the span
+    private long demotions;
+
+    public VirtualMemory(int frames, int pageSize, String policy, int tlbEntries, long window) {
+        this(frames, pageSize, policy, tlbEntries, window, DEFAULT_LEVELS, 0);
+    }
+
+    // levels is the page-table depth (2 to 4); hugeSpan is the huge-page size
+    // in pages, a power of two, or 0 for base pages only
+    public VirtualMemory(int frames, int pageSize, String policy, int tlbEntries, long window, int levels, int hugeSpan) {
+        if (frames <= 0) {
+            throw new IllegalArgumentException("Virtual memory needs at least one frame");
+        }
+        if (hugeSpan < 0 || hugeSpan == 1 || Integer.bitCount(hugeSpan) > 1) {
+            throw new IllegalArgumentException("Huge pages span a power of two pages: " + hugeSpan);
+        }
+        this.pageSize = pageSize;
+        this.levels = levels;
+        hugePages = hugeSpan > 0;
+        leafBits = hugePages ? Integer.numberOfTrailingZeros(hugeSpan) : DEFAULT_LEAF_BITS;
+        new PageTable(pageSize, levels, leafBits); // reject a bad geometry now rather than on the first access
+        addressablePages = PageTable.addressablePages(pageSize, levels, leafBits);
+        framePid = new int[frames];
+        frameVpn = new long[frames];
+        dirty = new boolean[frames];
+        Arrays.fill(framePid, -1);
+        freeFrames = new PageBitmap(frames);
+        this.policy = Replacement.create(policy, frames, window);
+        policyName = policy;
+        this.window = window;
+        this.hugeSpan = hugeSpan;
+        tlb = new Tlb(tlbEntries);
+    }
+
+    // Writes how this was configured, for a Snapshot; resident pages are not saved
+    void saveSettings(DataOutputStream out) throws IOException {
+        Trace.writeVarLong(out, framePid.length);
+        out.writeUTF(policyName);
+        Trace.writeVarLong(out, tlb.size());
+        Trace.writeVarLong(out, window);
+        Trace.writeVarLong(out, levels);
+        Trace.writeVarLong(out, hugeSpan);
+    }
+
+    // An empty virtual memory configured as saveSettings wrote
+    static VirtualMemory restoreSettings(DataInputStream in, int pageSize) throws IOException {
+        int frames = (int) Trace.readVarLong(in);
+        String policy = in.readUTF();
+        int tlbEntries = (int) Trace.readVarLong(in);
+        long window = Trace.readVarLong(in);
+        int levels = (int) Trace.readVarLong(in);
+        return new VirtualMemory(frames, pageSize, policy, tlbEntries, window, levels, (int) Trace.readVarLong(in));
+    }
+
+    public synchronized Access access(int pid, long address, boolean write) {
+        if (address < 0 || address / pageSize >= addressablePages) {
+            throw new IllegalArgumentException("Address out of range for a " + levels + "-level page table: " + address);
+        }
+        long vpn = address / pageSize;
+        long now = ++references;
+
+        int frame = tlb.lookup(pid, vpn);
+        if (frame < 0 && hugePages) {
+            int first = tlb.lookup(pid, HUGE_TAG | (vpn >>> leafBits));
+            if (first >= 0) {
+                frame = first + offset(vpn);
+            }
+        }
+        if (frame >= 0) {
+            tlbHits++;
+            touch(frame, now, write);
+            return Access.TLB_HIT;
+        }
+        PageTable table = tables.computeIfAbsent(pid, k -> new PageTable(pageSize, levels, leafBits));
+        frame = table.frame(vpn);
+        if (frame >= 0) {
+            int first = table.hugeFrame(vpn);
+            if (first >= 0) {
+                tlb.insert(pid, HUGE_TAG | (vpn >>> leafBits), first);
+            } else {
+                tlb.insert(pid, vpn, frame);
+            }
+            touch(frame, now, write);
+            return Access.HIT;
+        }
+
+        // Page fault
+        faults++;
+        if (hugePages && table.spanEmpty(vpn) && faultHuge(pid, table, vpn, now, write)) {
+            return Access.FAULT;
+        }
+        Access result = Access.FAULT;
+        frame = freeFrames.allocate();
+        if (frame < 0) {
+            frame = policy.victim(now);
+            evict(frame);
+            result = Access.FAULT_EVICTED;
+        }
+        store.read(pid, vpn); // swap in if it was ever written out, otherwise zero-fill
+        framePid[frame] = pid;
+        frameVpn[frame] = vpn;
+        dirty[frame] = write;
+        table.map(vpn, frame);
+        tlb.insert(pid, vpn, frame);
+        policy.loaded(frame, now);
+        Journal.record(Journal.Type.FAULT, pid, frame, vpn);
+        if (Log.enabled) Log.println("Page fault: PID=" + pid + ", page " + vpn + " -> frame " + frame);
+        if (hugePages && table.spanResident(vpn) == table.leafSpan()) {
+            promote(pid, table, vpn, now);
+        }
+        return result;
+    }
+
+    // Maps vpn's whole span as one huge page; false if no aligned run of frames is free
+    private boolean faultHuge(int pid, PageTable table, long vpn, long now, boolean write) {
+        int span = table.leafSpan();
+        int first = freeFrames.allocateAligned(span);
+        if (first < 0) {
+            return false;
+        }
+        long base = vpn - offset(vpn);
+        for (int i = 0; i < span; i++) {
+            store.read(pid, base + i);
+            framePid[first + i] = pid;
+            frameVpn[first + i] = base + i;
+            dirty[first + i] = false;
+            policy.loaded(first + i, now);
+        }
+        int frame = first + offset(vpn);
+        dirty[frame] = write;
+        table.mapHuge(vpn, first);
+        tlb.insert(pid, HUGE_TAG | (vpn >>> leafBits), first);
+        hugeFaults++;
+        Journal.record(Journal.Type.FAULT, pid, frame, vpn);
+        if (Log.enabled) Log.println("Page fault: PID=" + pid + ", page " + vpn + " -> frame " + frame + " (huge page at frame " + first + ")");
+        return true;
+    }
+
+    // Turns vpn's fully resident span into a huge page, moving it to an aligned
+    // run of free frames if it is not already in one. Leaves it alone if neither works.
+    private void promote(int pid, PageTable table, long vpn, long now) {
+        int span = table.leafSpan();
+        long base = vpn - offset(vpn);
+        int first = table.promotableInPlace(vpn);
+        if (first < 0) {
+            first = freeFrames.allocateAligned(span);
+            if (first < 0) {
+                return;
+            }
+            for (int i = 0; i < span; i++) {
+                int from = table.frame(base + i), to = first + i;
+                framePid[to] = pid;
+                frameVpn[to] = base + i;
+                dirty[to] = dirty[from];
+                policy.loaded(to, now);
+                framePid[from] = -1;
+                dirty[from] = false;
+                policy.removed(from);
+                freeFrames.free(from);
+            }
+            promotionCopies++;
+        }
+        for (int i = 0; i < span; i++) {
+            tlb.invalidate(pid, base + i);
+        }
+        table.mapHuge(vpn, first);
+        tlb.insert(pid, HUGE_TAG | (vpn >>> leafBits), first);
+        promotions++;
+        Journal.record(Journal.Type.PROMOTE, pid, first, base);
+        if (Log.enabled) Log.println("Promoted PID=" + pid + ", pages " + base + ".." + (base + span - 1) + " to a huge page at frame " + first);
+    }
+
+    private int offset(long vpn) {
+        return (int) vpn & ((1 << leafBits) - 1);
+    }
+
+    private void touch(int frame, long now, boolean write) {
+        if (write) {
+            dirty[frame] = true;
+        }
+        policy.accessed(frame, now);
+    }
+
+    private void evict(int frame) {
+        int pid = framePid[frame];
+        long vpn = frameVpn[frame];
+        if (dirty[frame]) {
+            store.write(pid, vpn);
+        }
+        PageTable table = tables.get(pid);
+        int first = table.hugeFrame(vpn);
+        if (first >= 0) {
+            // Split it so the rest of the span stays resident
+            table.demote(vpn);
+            tlb.invalidate(pid, HUGE_TAG | (vpn >>> leafBits));
+            demotions++;
+            Journal.record(Journal.Type.DEMOTE, pid, first, vpn - offset(vpn));
+        }
+        table.unmap(vpn);
+        tlb.invalidate(pid, vpn);
+        evictions++;
+        Journal.record(Journal.Type.EVICT, pid, frame, vpn);
+        if (Log.enabled) Log.println("Evicted PID=" + pid + ", page " + vpn + " from frame " + frame);
+    }
+
+    // Returns every frame and swap slot pid holds
+    public synchronized void release(int pid) {
+        PageTable table = tables.remove(pid);
+        if (table == null) {
+            return;
+        }
+        for (int frame = 0; frame < framePid.length; frame++) {
+            if (framePid[frame] == pid) {
+                framePid[frame] = -1;
+                dirty[frame] = false;
+                policy.removed(frame);
+                freeFrames.free(frame);
+            }
+        }
+        tlb.flush(pid);
+        store.drop(pid);
+    }
+
+    public synchronized long getFaults() {
+        return faults;
+    }
+
+    public synchronized int residentPages(int pid) {
+        PageTable table = tables.get(pid);
+        return table == null ? 0 : table.residentPages();
+    }
+
+    public synchronized String stats() {
+        long interior = 0, leaves = 0, huge = 0, bytes = 0, flat = 0;
+        for (PageTable table : tables.values()) {
+            interior += table.interiorNodes();
+            leaves += table.leafNodes();
+            huge += table.hugeEntries();
+            bytes += table.bytes();
+            flat += table.flatBytes();
+        }
+        String hugeLine = !hugePages ? "Huge pages: off%n"
+                : String.format("Huge pages: %d pages each, %d mapped; %d faulted in whole, %d promoted (%d by copying), %d demoted%n",
+                        1 << leafBits, huge, hugeFaults, promotions, promotionCopies, demotions);
+        return String.format("Replacement: %s, frames: %d (%d free), TLB entries: %d%n"
+                        + "References: %d, faults: %d (%.2f%%), TLB hits: %.2f%%, evictions: %d%n"
+                        + "Swap-outs: %d, swap-ins: %d, swap slots in use: %d%n"
+                        + "Page tables: %d levels, %d interior nodes, %d leaves, %d KiB (flat tables would take %d KiB)%n"
+                        + hugeLine,
+                policy.getName(), framePid.length, freeFrames.freeCount(), tlb.size(),
+                references, faults, percent(faults), percent(tlbHits), evictions,
+                store.getWrites(), store.getReads(), store.slotsInUse(),
+                levels, interior, leaves, (bytes + 1023) / 1024, (flat + 1023) / 1024);
+    }
+
+    private double percent(long count) {
+        return references == 0 ? 0.0 : 100.0 * count / references;
+    }
+}
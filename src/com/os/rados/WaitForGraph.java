@@ -0,0 +1,559 @@
+package com.os.rados;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Wait-for graph over pids, maintained incrementally as resources are
+// acquired, requested and released. Each resource in use is a node of its
+// own: p -> r means p waits for resource r and r -> q that q holds it, so p
+// waits for q through r. Handing a resource to a new holder moves one edge
+// however many processes wait for it. Only pids appear in results.
+//
+// Strongly connected components (deadlocked sets, or single nodes) are kept
+// in a dynamic topological order (Pearce-Kelly), merging the components on
+// a cycle when an edge closes one. Every edge then respects the order, so
+// "does p reach q?" is usually answered by comparing two order indices and
+// otherwise by a search bounded to the part of the order between them,
+// however many cycles exist. Removing an edge inside a component re-runs
+// Tarjan on that component alone, splitting it in place if it broke.
+//
+// Nodes are slots in primitive arrays, a component is named by one of its
+// nodes, and a node whose last edge goes gives its slot back, so the graph
+// stays the size of what is held and waited for now.
+class WaitForGraph {
+    private static final long UNORDERED = Long.MIN_VALUE;
+    private static final long GAP = 1L << 16; // between fresh order indices, so a split fits in between
+
+    private final Map<Integer, Integer> holder = new HashMap<>();         // resourceId -> pid
+    private final Map<Integer, Set<Integer>> waiters = new HashMap<>();   // resourceId -> waiting pids
+    private final Map<Integer, Integer> pidNodes = new HashMap<>();       // pid -> its node
+    private final Map<Integer, Integer> resourceNodes = new HashMap<>();  // resourceId -> its node
+    private final ArrayDeque<Integer> freeNodes = new ArrayDeque<>();
+    private final TreeMap<Long, Integer> byOrd = new TreeMap<>();         // order index -> component
+    private final Set<Integer> cyclic = new HashSet<>();                  // components of more than one node
+
+    // Per node; edge sets are null while empty
+    private int[] pidAt = new int[16];      // 0 for a resource node
+    private int[] resourceAt = new int[16];
+    private int[] degree = new int[16];
+    private IntHashSet[] succ = new IntHashSet[16];
+    private IntHashSet[] pred = new IntHashSet[16];
+    private int[] comp = new int[16];       // the component's naming node
+    private int[] local = new int[16];      // scratch index while splitting a component
+    // Per component, at its naming node
+    private long[] ord = new long[16];      // topological index, UNORDERED while the node has no edges
+    private int[][] members = new int[16][]; // null for a component of just the naming node
+    // Search marks: == stamp when visited by the current search
+    private int[] forwardMark = new int[16];
+    private int[] backwardMark = new int[16];
+    private int stamp;
+    private int nodeCount;
+    private int[] stack = new int[16];
+
+    public int getHolder(int resourceId) {
+        Integer pid = holder.get(resourceId);
+        return pid == null ? -1 : pid;
+    }
+
+    // pid now holds resourceId; any outstanding request of its own is satisfied
+    public void acquire(int pid, int resourceId) {
+        cancel(pid, resourceId);
+        Integer previous = holder.put(resourceId, pid);
+        if (previous != null && previous == pid) {
+            return;
+        }
+        int node = node(resourceNodes, resourceId, false);
+        addEdge(node, node(pidNodes, pid, true)); // first, so the resource keeps its node
+        if (previous != null) {
+            removeEdge(node, pidNodes.get(previous));
+        }
+    }
+
+    public void release(int pid, int resourceId) {
+        Integer current = holder.get(resourceId);
+        if (current == null || current != pid) {
+            return;
+        }
+        holder.remove(resourceId);
+        removeEdge(resourceNodes.get(resourceId), pidNodes.get(pid));
+    }
+
+    // Records that pid waits for resourceId. Returns true if the new edge closed a cycle.
+    public boolean request(int pid, int resourceId) {
+        if (!waiters.computeIfAbsent(resourceId, k -> new HashSet<>()).add(pid)) {
+            return false; // already waiting
+        }
+        Integer h = holder.get(resourceId);
+        int from = node(pidNodes, pid, true);
+        return addEdge(from, node(resourceNodes, resourceId, false)) && (h == null || h != pid); // waiting on itself is no deadlock
+    }
+
+    public void cancel(int pid, int resourceId) {
+        Set<Integer> waiting = waiters.get(resourceId);
+        if (waiting == null || !waiting.remove(pid)) {
+            return;
+        }
+        if (waiting.isEmpty()) {
+            waiters.remove(resourceId);
+        }
+        removeEdge(pidNodes.get(pid), resourceNodes.get(resourceId));
+    }
+
+    // True if a path from -> to exists
+    public boolean reaches(int fromPid, int toPid) {
+        if (fromPid == toPid) {
+            return true;
+        }
+        Integer from = pidNodes.get(fromPid), to = pidNodes.get(toPid);
+        if (from == null || to == null) {
+            return false;
+        }
+        int source = comp[from], target = comp[to];
+        if (source == target) {
+            return true; // in one deadlocked set
+        }
+        long limit = ord[target];
+        if (ord[source] > limit) {
+            return false; // topological order rules the path out
+        }
+        // Search forward; nothing past ord(to) can lead back to it
+        int visit = nextStamp();
+        int sp = push(0, source);
+        forwardMark[source] = visit;
+        while (sp > 0) {
+            int c = stack[--sp];
+            for (int i = 0, n = size(c); i < n; i++) {
+                IntHashSet next = succ[member(c, i)];
+                for (int j = 0; next != null && j < next.tableLength(); j++) {
+                    int m = next.entry(j);
+                    if (m == IntHashSet.EMPTY) {
+                        continue;
+                    }
+                    int cm = comp[m];
+                    if (cm == target) {
+                        return true;
+                    }
+                    if (ord[cm] < limit && forwardMark[cm] != visit) {
+                        forwardMark[cm] = visit;
+                        sp = push(sp, cm);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean hasCycles() {
+        return !cyclic.isEmpty();
+    }
+
+    // Every deadlocked set of pids (strongly connected components with a cycle)
+    public List<List<Integer>> findDeadlocks() {
+        List<List<Integer>> result = new ArrayList<>();
+        for (int c : cyclic) {
+            List<Integer> component = new ArrayList<>();
+            for (int node : members[c]) {
+                if (pidAt[node] != 0) {
+                    component.add(pidAt[node]);
+                }
+            }
+            if (component.size() > 1) {
+                result.add(component);
+            }
+        }
+        return result;
+    }
+
+    // The node standing for id in nodes, given a slot on first use
+    private int node(Map<Integer, Integer> nodes, int id, boolean isPid) {
+        Integer node = nodes.get(id);
+        if (node != null) {
+            return node;
+        }
+        int n = freeNodes.isEmpty() ? grow() : freeNodes.pop();
+        pidAt[n] = isPid ? id : 0;
+        resourceAt[n] = isPid ? 0 : id;
+        comp[n] = n;
+        ord[n] = UNORDERED;
+        members[n] = null;
+        nodes.put(id, n);
+        return n;
+    }
+
+    private int grow() {
+        if (nodeCount == ord.length) {
+            int length = nodeCount * 2;
+            pidAt = Arrays.copyOf(pidAt, length);
+            resourceAt = Arrays.copyOf(resourceAt, length);
+            degree = Arrays.copyOf(degree, length);
+            succ = Arrays.copyOf(succ, length);
+            pred = Arrays.copyOf(pred, length);
+            comp = Arrays.copyOf(comp, length);
+            local = Arrays.copyOf(local, length);
+            ord = Arrays.copyOf(ord, length);
+            members = Arrays.copyOf(members, length);
+            forwardMark = Arrays.copyOf(forwardMark, length);
+            backwardMark = Arrays.copyOf(backwardMark, length);
+        }
+        return nodeCount++;
+    }
+
+    // A node whose last edge went is a component of its own; it gives its slot back
+    private void forgetIfIsolated(int node) {
+        if (--degree[node] == 0) {
+            byOrd.remove(ord[node]);
+            ord[node] = UNORDERED;
+            if (pidAt[node] != 0) {
+                pidNodes.remove(pidAt[node]);
+            } else {
+                resourceNodes.remove(resourceAt[node]);
+            }
+            freeNodes.push(node);
+        }
+    }
+
+    private int size(int c) {
+        return members[c] == null ? 1 : members[c].length;
+    }
+
+    private int member(int c, int i) {
+        return members[c] == null ? c : members[c][i];
+    }
+
+    private int nextStamp() {
+        if (++stamp == 0) {
+            Arrays.fill(forwardMark, 0);
+            Arrays.fill(backwardMark, 0);
+            stamp = 1;
+        }
+        return stamp;
+    }
+
+    private int push(int sp, int c) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, sp * 2);
+        }
+        stack[sp] = c;
+        return sp + 1;
+    }
+
+    // Puts a component with no edges yet first or last in the order
+    private void place(int c, boolean last) {
+        if (ord[c] == UNORDERED) {
+            long at = byOrd.isEmpty() ? 0 : last ? byOrd.lastKey() + GAP : byOrd.firstKey() - GAP;
+            setOrd(c, at);
+        }
+    }
+
+    private void setOrd(int c, long at) {
+        if (ord[c] != UNORDERED) {
+            byOrd.remove(ord[c]);
+        }
+        ord[c] = at;
+        byOrd.put(at, c);
+    }
+
+    // Returns true if from and to are now in one component, i.e. the edge lies on a cycle
+    private boolean addEdge(int from, int to) {
+        if (succ[from] != null && succ[from].contains(to)) {
+            return comp[from] == comp[to];
+        }
+        succ[from] = addTo(succ[from], to);
+        pred[to] = addTo(pred[to], from);
+        degree[from]++;
+        degree[to]++;
+        place(comp[from], false); // a new waiter goes first, a new holder last
+        place(comp[to], true);
+        return insertOrdered(comp[from], comp[to]);
+    }
+
+    private void removeEdge(int from, int to) {
+        if (succ[from] == null || !succ[from].contains(to)) {
+            return;
+        }
+        succ[from] = removeFrom(succ[from], to);
+        pred[to] = removeFrom(pred[to], from);
+        if (comp[from] == comp[to]) {
+            split(comp[from]);
+        }
+        forgetIfIsolated(from);
+        forgetIfIsolated(to);
+    }
+
+    private static IntHashSet addTo(IntHashSet set, int node) {
+        if (set == null) {
+            set = new IntHashSet();
+        }
+        set.add(node);
+        return set;
+    }
+
+    private static IntHashSet removeFrom(IntHashSet set, int node) {
+        return set != null && set.remove(node) && set.isEmpty() ? null : set;
+    }
+
+    // Pearce-Kelly insertion of an edge between components, merging the
+    // components on a cycle if it closes one. Returns true if it did.
+    private boolean insertOrdered(int from, int to) {
+        if (from == to) {
+            return true;
+        }
+        long lb = ord[to], ub = ord[from];
+        if (lb > ub) {
+            return false;
+        }
+        if (members[to] == null && succ[to] == null) {
+            setOrd(to, byOrd.lastKey() + GAP); // nothing follows 'to', so it can move past everything
+            return false;
+        }
+        if (members[from] == null && pred[from] == null) {
+            setOrd(from, byOrd.firstKey() - GAP); // nothing leads to 'from'
+            return false;
+        }
+        int visit = nextStamp();
+        // Components reachable from 'to' inside the affected window
+        List<Integer> forward = new ArrayList<>();
+        boolean cycle = false;
+        int sp = push(0, to);
+        forwardMark[to] = visit;
+        while (sp > 0) {
+            int c = stack[--sp];
+            forward.add(c);
+            for (int i = 0, n = size(c); i < n; i++) {
+                IntHashSet next = succ[member(c, i)];
+                for (int j = 0; next != null && j < next.tableLength(); j++) {
+                    int m = next.entry(j);
+                    if (m == IntHashSet.EMPTY) {
+                        continue;
+                    }
+                    int cm = comp[m];
+                    if (cm == from) {
+                        cycle = true;
+                    } else if (ord[cm] < ub && forwardMark[cm] != visit) {
+                        forwardMark[cm] = visit;
+                        sp = push(sp, cm);
+                    }
+                }
+            }
+        }
+        // Components that reach 'from' inside the window
+        List<Integer> backward = new ArrayList<>();
+        sp = push(0, from);
+        backwardMark[from] = visit;
+        while (sp > 0) {
+            int c = stack[--sp];
+            backward.add(c);
+            for (int i = 0, n = size(c); i < n; i++) {
+                IntHashSet prev = pred[member(c, i)];
+                for (int j = 0; prev != null && j < prev.tableLength(); j++) {
+                    int m = prev.entry(j);
+                    if (m == IntHashSet.EMPTY) {
+                        continue;
+                    }
+                    int cm = comp[m];
+                    if (ord[cm] > lb && backwardMark[cm] != visit) {
+                        backwardMark[cm] = visit;
+                        sp = push(sp, cm);
+                    }
+                }
+            }
+        }
+        // Reassign the freed indices: backward set first, then forward set,
+        // each keeping its relative order. On a cycle, the components both
+        // reachable from 'to' and reaching 'from' become one, between the two,
+        // and any indices left over stay free.
+        long[] slots = new long[forward.size() + backward.size()];
+        int s = 0;
+        for (int c : forward) {
+            slots[s++] = ord[c];
+        }
+        for (int c : backward) {
+            if (forwardMark[c] != visit) {
+                slots[s++] = ord[c];
+            }
+        }
+        Arrays.sort(slots, 0, s);
+        for (int i = 0; i < s; i++) {
+            byOrd.remove(slots[i]);
+        }
+        List<Integer> cycleMembers = new ArrayList<>();
+        if (cycle) {
+            for (int c : forward) {
+                if (c == to || backwardMark[c] == visit) {
+                    cycleMembers.add(c);
+                }
+            }
+            cycleMembers.add(from);
+            forward.removeIf(c -> c == to || backwardMark[c] == visit);
+            backward.removeIf(c -> c == from || forwardMark[c] == visit);
+        }
+        backward.sort((a, b) -> Long.compare(ord[a], ord[b]));
+        forward.sort((a, b) -> Long.compare(ord[a], ord[b]));
+        int next = 0;
+        for (int c : backward) {
+            ord[c] = UNORDERED;
+            setOrd(c, slots[next++]);
+        }
+        if (cycle) {
+            ord[from] = UNORDERED;
+            setOrd(merge(from, cycleMembers), slots[next]);
+        }
+        next = s - forward.size(); // the forward set keeps the top, never moving below a predecessor
+        for (int c : forward) {
+            ord[c] = UNORDERED;
+            setOrd(c, slots[next++]);
+        }
+        return cycle;
+    }
+
+    // Makes the components one, named by into
+    private int merge(int into, List<Integer> components) {
+        int count = 0;
+        for (int c : components) {
+            count += size(c);
+        }
+        int[] nodes = new int[count];
+        int n = 0;
+        for (int c : components) {
+            for (int i = 0, size = size(c); i < size; i++) {
+                nodes[n++] = member(c, i);
+            }
+            cyclic.remove(c);
+            if (c != into) {
+                ord[c] = UNORDERED;
+                members[c] = null;
+            }
+        }
+        for (int node : nodes) {
+            comp[node] = into;
+        }
+        members[into] = nodes;
+        cyclic.add(into);
+        return into;
+    }
+
+    // An edge inside c went; if c is no longer strongly connected, its
+    // components take its place in the order, in topological order themselves
+    private void split(int c) {
+        int[] nodes = members[c];
+        List<int[]> parts = components(nodes, c);
+        if (parts.size() == 1) {
+            return;
+        }
+        int k = parts.size();
+        Long next = byOrd.higherKey(ord[c]);
+        if (next != null && (next - ord[c]) / k == 0) {
+            renumber(Math.max(GAP, k));
+            next = byOrd.higherKey(ord[c]);
+        }
+        long lo = ord[c];
+        long step = next == null ? GAP : (next - lo) / k;
+        byOrd.remove(lo);
+        cyclic.remove(c);
+        members[c] = null;
+        for (int i = 0; i < k; i++) {
+            int[] part = parts.get(k - 1 - i); // Tarjan finishes sinks first
+            int name = part[0];
+            for (int node : part) {
+                comp[node] = name;
+            }
+            members[name] = part.length > 1 ? part : null;
+            if (part.length > 1) {
+                cyclic.add(name);
+            }
+            ord[name] = UNORDERED;
+            setOrd(name, lo + i * step);
+        }
+    }
+
+    // Spreads the order indices out again once a split finds no room
+    private void renumber(long gap) {
+        List<Integer> order = new ArrayList<>(byOrd.values());
+        byOrd.clear();
+        long at = 0;
+        for (int c : order) {
+            ord[c] = at;
+            byOrd.put(at, c);
+            at += gap;
+        }
+    }
+
+    // Strongly connected components of nodes, all in component c, over the
+    // edges between them, via iterative Tarjan. Sinks come first.
+    private List<int[]> components(int[] nodes, int c) {
+        int k = nodes.length;
+        for (int i = 0; i < k; i++) {
+            local[nodes[i]] = i;
+        }
+        int[] index = new int[k];
+        int[] low = new int[k];
+        boolean[] onStack = new boolean[k];
+        int[] sccStack = new int[k];
+        int[] callNode = new int[k];
+        int[] callPos = new int[k];   // next table entry of the node's successors
+        Arrays.fill(index, -1);
+        int sccTop = 0, callTop = 0, counter = 0;
+        List<int[]> result = new ArrayList<>();
+        for (int root = 0; root < k; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            index[root] = low[root] = counter++;
+            sccStack[sccTop++] = root;
+            onStack[root] = true;
+            callNode[callTop] = root;
+            callPos[callTop++] = 0;
+            while (callTop > 0) {
+                int v = callNode[callTop - 1];
+                IntHashSet next = succ[nodes[v]];
+                int w = -1;
+                int pos = callPos[callTop - 1];
+                while (next != null && pos < next.tableLength()) {
+                    int m = next.entry(pos++);
+                    if (m != IntHashSet.EMPTY && comp[m] == c) {
+                        w = local[m];
+                        break;
+                    }
+                }
+                callPos[callTop - 1] = pos;
+                if (w >= 0) {
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        sccStack[sccTop++] = w;
+                        onStack[w] = true;
+                        callNode[callTop] = w;
+                        callPos[callTop++] = 0;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                callTop--;
+                if (callTop > 0) {
+                    int parent = callNode[callTop - 1];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+                if (low[v] == index[v]) {
+                    int start = sccTop;
+                    do {
+                        onStack[sccStack[--start]] = false;
+                    } while (sccStack[start] != v);
+                    int[] part = new int[sccTop - start];
+                    for (int i = start; i < sccTop; i++) {
+                        part[i - start] = nodes[sccStack[i]];
+                    }
+                    sccTop = start;
+                    result.add(part);
+                }
+            }
+        }
+        return result;
+    }
+}
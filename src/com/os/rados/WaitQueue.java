@@ -0,0 +1,70 @@
+package com.os.rados;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+// Processes waiting for one resource, served first-come first-served or by
+// priority (lower value first, FIFO among equals). Each request gets an
+// entry of its own. Entries are not removed when a wait is cancelled;
+// whoever polls skips the stale ones.
+final class WaitQueue {
+
+    static final class Waiter {
+        final PCB process;
+        int size;       // to map on hand-off, in memory units; 0 only wakes the process
+        final long seq;
+
+        Waiter(PCB process, int size, long seq) {
+            this.process = process;
+            this.size = size;
+            this.seq = seq;
+        }
+    }
+
+    private static final Comparator<Waiter> BY_PRIORITY =
+            Comparator.comparingInt((Waiter w) -> w.process.getPriority()).thenComparingLong(w -> w.seq);
+
+    private final Queue<Waiter> waiters;
+    private final ArrayDeque<Waiter> fifo; // waiters itself when first-come first-served, else null
+
+    public WaitQueue(boolean byPriority) {
+        fifo = byPriority ? null : new ArrayDeque<>();
+        waiters = byPriority ? new PriorityQueue<>(BY_PRIORITY) : fifo;
+    }
+
+    public void add(Waiter waiter) { waiters.add(waiter); }
+    public Waiter peek() { return waiters.peek(); }
+    public Waiter poll() { return waiters.poll(); }
+    public boolean isEmpty() { return waiters.isEmpty(); }
+
+    // Returns entries polled (in order) and passed over to the head of the queue
+    public void putBack(List<Waiter> polled) {
+        if (fifo == null) {
+            waiters.addAll(polled);
+            return;
+        }
+        for (int i = polled.size() - 1; i >= 0; i--) {
+            fifo.addFirst(polled.get(i));
+        }
+    }
+
+    // Same entries under a different ordering
+    public WaitQueue reorder(boolean byPriority) {
+        WaitQueue copy = new WaitQueue(byPriority);
+        for (Waiter waiter : inArrivalOrder()) {
+            copy.add(waiter);
+        }
+        return copy;
+    }
+
+    // Every entry, stale ones included, oldest first
+    public Waiter[] inArrivalOrder() {
+        Waiter[] entries = waiters.toArray(new Waiter[0]);
+        Arrays.sort(entries, Comparator.comparingLong(w -> w.seq));
+        return entries;
+    }
+}
@@ -0,0 +1,60 @@
+package com.os.rados;
+
+// WSClock: a clock sweep that evicts the first unreferenced frame whose last
+// use is more than window references old, i.e. outside its process's working
+// set. If a full lap finds none, the oldest unreferenced frame seen goes.
+class WorkingSetReplacement implements Replacement {
+    private final boolean[] resident;
+    private final boolean[] referenced;
+    private final long[] lastUse;
+    private final long window;
+    private int hand;
+
+    public WorkingSetReplacement(int frames, long window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Working-set window must be positive");
+        }
+        resident = new boolean[frames];
+        referenced = new boolean[frames];
+        lastUse = new long[frames];
+        this.window = window;
+    }
+
+    public String getName() { return "Working set (window " + window + ")"; }
+
+    public void loaded(int frame, long now) {
+        resident[frame] = true;
+        referenced[frame] = true;
+        lastUse[frame] = now;
+    }
+
+    public void accessed(int frame, long now) {
+        referenced[frame] = true;
+    }
+
+    public void removed(int frame) {
+        resident[frame] = false;
+        referenced[frame] = false;
+    }
+
+    public int victim(long now) {
+        int oldest = -1;
+        // Two laps at most: the first may only clear reference bits
+        for (int step = 0; step < 2 * resident.length; step++) {
+            int frame = hand;
+            hand = (hand + 1) % resident.length;
+            if (!resident[frame]) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                lastUse[frame] = now;
+            } else if (now - lastUse[frame] > window) {
+                return frame;
+            } else if (oldest < 0 || lastUse[frame] < lastUse[oldest]) {
+                oldest = frame;
+            }
+        }
+        return oldest;
+    }
+}
@@ -0,0 +1,190 @@
+package com.os.rados;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Seeded synthetic load: process arrivals interleaved with allocations,
+// releases and frees, driven straight into a kernel. The same seed and
+// parameters always produce the same calls, so a run can be recorded once
+// (Kernel.startRecording) and replayed for comparisons.
+//
+// Mixes:
+//   UNIFORM    allocations spread evenly over the resources
+//   CONTENDED  resource popularity follows a Zipf law, so a few are fought over
+//   DEADLOCK   pairs of processes take two resources in opposite orders, closing
+//              a cycle each round, and one of them is freed to break it
+class Workload {
+
+    enum Mix { UNIFORM, CONTENDED, DEADLOCK }
+
+    private static final double ZIPF_EXPONENT = 1.2;
+    private static final double ARRIVAL_SHARE = 0.2; // chance a step creates a process while some are still to come
+
+    private final Mix mix;
+    private final SplittableRandom random;
+    private final int processes;
+    private final int operations;
+    private final int resources;
+    private final int meanSize;
+    private final double[] popularity; // cumulative, for CONTENDED
+
+    private int[] pids;
+    private int created;
+    private final long[] outcomes = new long[Kernel.AllocResult.values().length];
+    private long releases;
+    private long frees;
+
+    public Workload(Mix mix, long seed, int processes, int operations, int resources, int meanSize) {
+        if (processes < 2 || operations < 0 || resources < 2 || meanSize <= 0) {
+            throw new IllegalArgumentException("Workload needs at least 2 processes and 2 resources and a positive size");
+        }
+        this.mix = mix;
+        this.random = new SplittableRandom(seed);
+        this.processes = processes;
+        this.operations = operations;
+        this.resources = resources;
+        this.meanSize = meanSize;
+        popularity = mix == Mix.CONTENDED ? zipf(resources) : null;
+    }
+
+    // Issues every call against kernel and summarises the outcomes
+    public String run(Kernel kernel) {
+        pids = new int[processes];
+        // Two processes to start with, so there is always someone to contend with
+        create(kernel);
+        create(kernel);
+        int issued = 0;
+        while (issued < operations) {
+            if (created < processes && random.nextDouble() < ARRIVAL_SHARE) {
+                create(kernel);
+            } else if (mix == Mix.DEADLOCK) {
+                issued += deadlockRound(kernel, operations - issued);
+                continue;
+            } else {
+                step(kernel);
+            }
+            issued++;
+        }
+        StringBuilder out = new StringBuilder();
+        out.append("Workload ").append(mix).append(": ").append(created).append(" processes, ")
+                .append(issued).append(" operations\n");
+        Kernel.AllocResult[] results = Kernel.AllocResult.values();
+        for (int i = 0; i < results.length; i++) {
+            if (outcomes[i] > 0) {
+                out.append("  ").append(results[i]).append(": ").append(outcomes[i]).append('\n');
+            }
+        }
+        out.append("  releases: ").append(releases).append(", frees: ").append(frees).append('\n');
+        return out.toString();
+    }
+
+    private void create(Kernel kernel) {
+        int priority = random.nextInt(4);
+        pids[created] = kernel.createProcess("w" + created, priority, -1);
+        created++;
+    }
+
+    private void step(Kernel kernel) {
+        int pid = pickRunnable(kernel);
+        double roll = random.nextDouble();
+        if (pid == -1) {
+            // Everyone sampled is blocked: some holder gives a resource up, as a timeout would
+            releaseOrFree(kernel, pickPid());
+        } else if (roll < 0.6) {
+            allocate(kernel, pid, pickResource());
+        } else if (roll < 0.9) {
+            releaseOrFree(kernel, pid);
+        } else {
+            kernel.free(pid);
+            frees++;
+        }
+    }
+
+    // Two running processes take a and b in opposite orders; the second
+    // crossing request closes the cycle. Freeing one of them hands its
+    // resource on.
+    private int deadlockRound(Kernel kernel, int budget) {
+        int p = pickRunnable(kernel), q = pickRunnable(kernel);
+        if (p == -1 || q == -1 || p == q) {
+            releaseOrFree(kernel, pickPid());
+            return 1;
+        }
+        int a = pickResource(), b;
+        do {
+            b = pickResource();
+        } while (b == a);
+        int[][] calls = {{p, a}, {q, b}, {p, b}, {q, a}};
+        int issued = 0;
+        for (int[] call : calls) {
+            if (issued == budget) {
+                return issued;
+            }
+            allocate(kernel, call[0], call[1]);
+            issued++;
+        }
+        if (issued < budget) {
+            kernel.free(random.nextBoolean() ? p : q);
+            frees++;
+            issued++;
+        }
+        return issued;
+    }
+
+    // Releases one of pid's resources, or frees pid if it holds none
+    private void releaseOrFree(Kernel kernel, int pid) {
+        List<Integer> held = kernel.mm.getResourcesHeldBy(pid);
+        if (held.isEmpty()) {
+            kernel.free(pid);
+            frees++;
+        } else if (kernel.release(pid, held.get(random.nextInt(held.size())))) {
+            releases++;
+        }
+    }
+
+    private void allocate(Kernel kernel, int pid, int resourceId) {
+        outcomes[kernel.allocate(pid, pickSize(), resourceId).ordinal()]++;
+    }
+
+    private int pickPid() {
+        return pids[random.nextInt(created)];
+    }
+
+    // A blocked process issues no requests of its own
+    private int pickRunnable(Kernel kernel) {
+        for (int attempt = 0; attempt < 8; attempt++) {
+            int pid = pickPid();
+            PCB process = kernel.pm.getProcessByPid(pid);
+            if (process != null && !process.is(PCB.BLOCKED)) {
+                return pid;
+            }
+        }
+        return -1;
+    }
+
+    private int pickResource() {
+        if (popularity == null) {
+            return 1 + random.nextInt(resources);
+        }
+        int i = Arrays.binarySearch(popularity, random.nextDouble());
+        return 1 + Math.min(resources - 1, i < 0 ? -i - 1 : i);
+    }
+
+    // Exponentially distributed around meanSize, at least one unit
+    private int pickSize() {
+        return 1 + (int) Math.min(Integer.MAX_VALUE - 1, -Math.log(1 - random.nextDouble()) * (meanSize - 1));
+    }
+
+    private static double[] zipf(int n) {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+}
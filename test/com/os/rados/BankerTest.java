@@ -0,0 +1,232 @@
+package com.os.rados;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Safety decisions against the textbook check, and what becomes of a
+// request that had to wait for one
+class BankerTest {
+    private static final int PIDS = 5;
+    private static final int TYPES = 4;
+
+    private final Banker banker = new Banker();
+    private final int[] total = new int[TYPES + 1];
+    private final int[][] max = new int[PIDS + 1][TYPES + 1];
+    private final int[][] alloc = new int[PIDS + 1][TYPES + 1];
+    private final boolean[] claimed = new boolean[PIDS + 1]; // pid has a claims row at all
+
+    @Test
+    void textbookExample() {
+        define(1, 10);
+        define(2, 5);
+        define(3, 7);
+        int[][] claims = {{7, 5, 3}, {3, 2, 2}, {9, 0, 2}, {2, 2, 2}, {4, 3, 3}};
+        int[][] held = {{0, 1, 0}, {2, 0, 0}, {3, 0, 2}, {2, 1, 1}, {0, 0, 2}};
+        for (int p = 0; p < claims.length; p++) {
+            for (int r = 0; r < 3; r++) {
+                claim(p + 1, r + 1, claims[p][r]);
+                if (held[p][r] > 0) {
+                    allocate(p + 1, r + 1, held[p][r]);
+                }
+            }
+        }
+        assertTrue(banker.isSafeToGrant(2, 1, 1)); // P1 asks for (1, 0, 2)
+        allocate(2, 1, 1);
+        assertTrue(banker.isSafeToGrant(2, 3, 2));
+        allocate(2, 3, 2);
+        assertFalse(banker.isSafeToGrant(5, 1, 3)); // P4's (3, 3, 0): not available
+        assertFalse(banker.isSafeToGrant(1, 2, 2)); // P0's (0, 2, 0): unsafe
+    }
+
+    @Test
+    void randomStatesMatchTextbookCheck() {
+        for (long seed = 1; seed <= 300; seed++) {
+            BankerTest run = new BankerTest();
+            Random random = new Random(seed);
+            for (int r = 1; r <= TYPES; r++) {
+                run.define(r, 1 + random.nextInt(3));
+            }
+            for (int op = 0; op < 100; op++) {
+                run.randomStep(random);
+                for (int p = 1; p <= PIDS; p++) {
+                    for (int r = 1; r <= TYPES; r++) {
+                        for (int units = 1; units <= run.total[r]; units++) {
+                            assertEquals(run.textbookSafeToGrant(p, r, units), run.banker.isSafeToGrant(p, r, units));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void deferredRequestIsRetriedWhenMemoryIsFreed() {
+        Kernel kernel = new Kernel(1000, 10);
+        kernel.enableAvoidance();
+        int a = kernel.createProcess("a"), b = kernel.createProcess("b");
+        claimBoth(kernel, a, b);
+        kernel.allocate(a, 4, 10);
+        assertEquals(Kernel.AllocResult.UNSAFE, kernel.allocate(b, 4, 20));
+
+        kernel.free(a); // a keeps its claims but holds nothing
+        assertEquals(b, kernel.holderOf(20));
+        assertEquals("READY", state(kernel, b));
+    }
+
+    @Test
+    void deferredRequestIsRetriedWhenTheOtherClaimantTerminates() {
+        Kernel kernel = new Kernel(1000, 10);
+        kernel.enableAvoidance();
+        int a = kernel.createProcess("a", 0, 10), b = kernel.createProcess("b", 0, 10);
+        claimBoth(kernel, a, b);
+        kernel.allocate(a, 4, 10);
+        assertEquals(Kernel.AllocResult.UNSAFE, kernel.allocate(b, 4, 20));
+
+        kernel.schedule(0, null); // a runs out and will ask for nothing more
+        assertEquals("TERMINATED", state(kernel, a));
+        assertEquals(a, kernel.holderOf(10));
+        assertEquals(b, kernel.holderOf(20));
+    }
+
+    @Test
+    void deferredRequestStaysDeferredWhileStillUnsafe() {
+        Kernel kernel = new Kernel(1000, 10);
+        kernel.enableAvoidance();
+        int a = kernel.createProcess("a"), b = kernel.createProcess("b");
+        int c = kernel.createProcess("c");
+        claimBoth(kernel, a, b);
+        kernel.declareClaim(c, 30, 1);
+        kernel.allocate(a, 4, 10);
+        kernel.allocate(c, 4, 30);
+        assertEquals(Kernel.AllocResult.UNSAFE, kernel.allocate(b, 4, 20));
+
+        kernel.release(c, 30); // nothing b's grant depends on
+        assertEquals(-1, kernel.holderOf(20));
+        assertEquals("BLOCKED", state(kernel, b));
+    }
+
+    private static void claimBoth(Kernel kernel, int a, int b) {
+        for (int pid : new int[]{a, b}) {
+            kernel.declareClaim(pid, 10, 1);
+            kernel.declareClaim(pid, 20, 1);
+        }
+    }
+
+    private static String state(Kernel kernel, int pid) {
+        return (String) kernel.describeProcess(pid)[2];
+    }
+
+    private void randomStep(Random random) {
+        int p = 1 + random.nextInt(PIDS);
+        int r = 1 + random.nextInt(TYPES);
+        switch (random.nextInt(6)) {
+            case 0:
+            case 1:
+                claim(p, r, alloc[p][r] + random.nextInt(total[r] - alloc[p][r] + 1));
+                break;
+            case 2:
+            case 3:
+                int free = available(r);
+                if (free > 0) {
+                    allocate(p, r, 1 + random.nextInt(free)); // may widen the claim, or leave an unsafe state
+                }
+                break;
+            case 4:
+                banker.release(p, r);
+                alloc[p][r] = 0;
+                break;
+            default:
+                if (random.nextBoolean()) {
+                    banker.retire(p);
+                    if (claimed[p]) {
+                        max[p] = alloc[p].clone();
+                    }
+                } else {
+                    banker.forget(p);
+                    max[p] = new int[TYPES + 1];
+                    alloc[p] = new int[TYPES + 1];
+                    claimed[p] = false;
+                }
+                break;
+        }
+    }
+
+    private void define(int r, int units) {
+        banker.defineResource(r, units);
+        total[r] = units;
+    }
+
+    private void claim(int p, int r, int units) {
+        banker.declareClaim(p, r, units);
+        max[p][r] = units;
+        claimed[p] = true;
+    }
+
+    private void allocate(int p, int r, int units) {
+        banker.allocate(p, r, units);
+        if (!claimed[p] || max[p][r] - alloc[p][r] < units) {
+            max[p][r] = alloc[p][r] + units;
+            claimed[p] = true;
+        }
+        alloc[p][r] += units;
+    }
+
+    private int available(int r) {
+        int free = total[r];
+        for (int p = 1; p <= PIDS; p++) {
+            free -= alloc[p][r];
+        }
+        return free;
+    }
+
+    // The O(n^2 m) check: grant, then finish whoever can until nobody can
+    private boolean textbookSafeToGrant(int p, int r, int units) {
+        if (!claimed[p] || max[p][r] - alloc[p][r] < units || available(r) < units) {
+            return false;
+        }
+        int[] work = new int[TYPES + 1];
+        for (int t = 1; t <= TYPES; t++) {
+            work[t] = available(t);
+        }
+        work[r] -= units;
+        alloc[p][r] += units;
+        try {
+            boolean[] finished = new boolean[PIDS + 1];
+            for (boolean progress = true; progress; ) {
+                progress = false;
+                for (int q = 1; q <= PIDS; q++) {
+                    if (!claimed[q] || finished[q] || !fits(q, work)) {
+                        continue;
+                    }
+                    for (int t = 1; t <= TYPES; t++) {
+                        work[t] += alloc[q][t];
+                    }
+                    finished[q] = true;
+                    progress = true;
+                }
+            }
+            for (int q = 1; q <= PIDS; q++) {
+                if (claimed[q] && !finished[q]) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            alloc[p][r] -= units;
+        }
+    }
+
+    private boolean fits(int q, int[] work) {
+        for (int t = 1; t <= TYPES; t++) {
+            if (max[q][t] - alloc[q][t] > work[t]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,126 @@
+package com.os.rados;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Copy-on-write fork: who owns which frames as processes write, free and go
+class ForkTest {
+    private final Kernel kernel = new Kernel(100, 10);
+
+    @Test
+    void reapedChildLeavesNoFramesToItsPid() {
+        int parent = kernel.createProcess("a", 0, 10);
+        kernel.allocate(parent, 30, 100);
+        int child = kernel.fork(parent);
+        kernel.free(parent);
+        kernel.schedule(0, null);
+        assertEquals(2, kernel.reap());
+
+        int newcomer = kernel.createProcess("newcomer");
+        assertEquals(child, newcomer);
+        assertEquals(kernel.numPages(), kernel.mm.getFreePageCount());
+        assertEquals(0, owned(newcomer));
+    }
+
+    @Test
+    void childWriteCopiesOnlyThatPage() {
+        int parent = kernel.createProcess("a");
+        kernel.allocate(parent, 30, 100);
+        int child = kernel.fork(parent);
+        assertEquals(3, used());
+
+        assertEquals(MemoryManager.Write.COPIED, kernel.write(child, 100, 0));
+        assertEquals(MemoryManager.Write.IN_PLACE, kernel.write(child, 100, 0));
+        assertEquals(4, used());
+        assertEquals(3, owned(parent));
+        assertEquals(1, owned(child));
+
+        kernel.free(child);
+        assertEquals(3, used());
+        assertEquals(3, owned(parent));
+        assertEquals(MemoryManager.Write.IN_PLACE, kernel.write(parent, 100, 1)); // nobody left to share with
+    }
+
+    @Test
+    void freeingTheParentHandsItsSharedFramesToTheChild() {
+        int parent = kernel.createProcess("a");
+        kernel.allocate(parent, 30, 100);
+        int child = kernel.fork(parent);
+        assertEquals(MemoryManager.Write.COPIED, kernel.write(parent, 100, 1));
+        assertEquals(4, used());
+        assertEquals(3, owned(parent));
+        assertEquals(1, owned(child)); // the original of the page parent copied
+
+        kernel.free(parent);
+        assertEquals(3, used());
+        assertEquals(3, owned(child));
+        assertEquals(MemoryManager.Write.IN_PLACE, kernel.write(child, 100, 2));
+        kernel.free(child);
+        assertEquals(0, used());
+    }
+
+    @Test
+    void secondChildStillCopiesAfterTheParentGoes() {
+        int parent = kernel.createProcess("a");
+        kernel.allocate(parent, 20, 100);
+        int first = kernel.fork(parent), second = kernel.fork(parent);
+        kernel.free(parent);
+        assertEquals(2, used());
+        assertEquals(2, owned(first) + owned(second));
+
+        int writer = owned(first) > 0 ? second : first; // the one that did not inherit the frames
+        assertEquals(MemoryManager.Write.COPIED, kernel.write(writer, 100, 0));
+        assertEquals(3, used());
+        kernel.free(first);
+        kernel.free(second);
+        assertEquals(0, used());
+    }
+
+    @Test
+    void pageCountsFollowFramesAcrossCopyAndTakeover() {
+        int parent = kernel.createProcess("a");
+        kernel.allocate(parent, 40, 100);
+        int child = kernel.fork(parent);
+        kernel.write(child, 100, 1);
+        assertCounts(parent, child);
+        kernel.free(parent);
+        assertCounts(parent, child);
+        assertEquals(4, kernel.mm.pagesHeldBy(child));
+    }
+
+    @Test
+    void oomKillerSeesInheritedFrames() {
+        int parent = kernel.createProcess("a");
+        kernel.allocate(parent, 90, 100);
+        int child = kernel.fork(parent);
+        kernel.free(parent);
+        kernel.createProcess("b");
+        kernel.enablePressureControl(1, 2);
+
+        assertTrue(kernel.killForMemory());
+        assertEquals("TERMINATED", kernel.describeProcess(child)[2]);
+        assertEquals(kernel.numPages(), kernel.mm.getFreePageCount());
+    }
+
+    private void assertCounts(int... pids) {
+        for (int pid : pids) {
+            assertEquals(owned(pid), kernel.mm.pagesHeldBy(pid));
+        }
+    }
+
+    private int used() {
+        return kernel.numPages() - kernel.mm.getFreePageCount();
+    }
+
+    private int owned(int pid) {
+        int count = 0;
+        for (int page = 0; page < kernel.numPages(); page++) {
+            if (kernel.pageOwner(page) == pid) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,105 @@
+package com.os.rados;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Who gets a released resource, with how much memory, and when
+class HandOffTest {
+    private final Kernel kernel = new Kernel(1000, 10);
+
+    @Test
+    void waitersAreServedInArrivalOrder() {
+        int a = kernel.createProcess("a"), b = kernel.createProcess("b"), c = kernel.createProcess("c");
+        kernel.allocate(a, 4, 100);
+        assertEquals(Kernel.AllocResult.WAITING, kernel.allocate(b, 4, 100));
+        assertEquals(Kernel.AllocResult.WAITING, kernel.allocate(c, 4, 100));
+        kernel.free(b);
+        kernel.allocate(b, 4, 100); // asks again, behind c
+
+        kernel.release(a, 100);
+        assertEquals(c, kernel.holderOf(100));
+        kernel.release(c, 100);
+        assertEquals(b, kernel.holderOf(100));
+    }
+
+    @Test
+    void waiterGetsTheSizeItAskedFor() {
+        int a = kernel.createProcess("a"), b = kernel.createProcess("b");
+        kernel.allocate(a, 4, 100);
+        kernel.allocate(b, 25, 100);
+
+        kernel.release(a, 100);
+        assertEquals(b, kernel.holderOf(100));
+        assertEquals(3, pages(b, 100));
+        assertEquals("READY", state(b));
+    }
+
+    @Test
+    void explicitRequestReplacesImplicitWait() {
+        int a = kernel.createProcess("a"), b = kernel.createProcess("b");
+        kernel.allocate(a, 4, 100);
+        kernel.allocate(b, 4, 200);
+        kernel.allocate(a, 4, 200); // b now waits, implicitly, for 100
+        kernel.allocate(b, 18, 100);
+
+        kernel.free(a);
+        assertEquals(b, kernel.holderOf(100));
+        assertEquals(2, pages(b, 100));
+    }
+
+    @Test
+    void deferredWaiterIsServedOnceSafe() {
+        kernel.enableAvoidance();
+        int a = kernel.createProcess("a"), b = kernel.createProcess("b");
+        for (int pid : new int[]{a, b}) {
+            kernel.declareClaim(pid, 10, 1);
+            kernel.declareClaim(pid, 20, 1);
+        }
+        kernel.allocate(a, 4, 10);
+        assertEquals(Kernel.AllocResult.UNSAFE, kernel.allocate(b, 4, 20));
+        assertEquals("BLOCKED", state(b));
+
+        kernel.release(a, 10);
+        assertEquals(b, kernel.holderOf(20));
+        assertEquals("READY", state(b));
+    }
+
+    @Test
+    void unsafeHeadDoesNotHoldUpTheQueue() {
+        kernel.enableAvoidance();
+        int a = kernel.createProcess("a"), b = kernel.createProcess("b");
+        int c = kernel.createProcess("c"), d = kernel.createProcess("d");
+        for (int pid : new int[]{a, b}) {
+            kernel.declareClaim(pid, 10, 1);
+            kernel.declareClaim(pid, 30, 1);
+        }
+        kernel.declareClaim(c, 30, 1);
+        kernel.declareClaim(d, 30, 1);
+        kernel.allocate(a, 4, 10);
+        kernel.allocate(c, 4, 30);
+        kernel.allocate(b, 4, 30);
+        kernel.allocate(d, 4, 30);
+
+        kernel.release(c, 30); // b would be unsafe, d is not
+        assertEquals(d, kernel.holderOf(30));
+        kernel.release(d, 30);
+        assertEquals(-1, kernel.holderOf(30));
+        kernel.release(a, 10);
+        assertEquals(b, kernel.holderOf(30));
+    }
+
+    private int pages(int pid, int resourceId) {
+        int count = 0;
+        for (int page = 0; page < kernel.numPages(); page++) {
+            if (kernel.pageOwner(page) == pid && kernel.pageResource(page) == resourceId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private String state(int pid) {
+        return (String) kernel.describeProcess(pid)[2];
+    }
+}
@@ -0,0 +1,84 @@
+package com.os.rados;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Membership against a boxed set, small and past the point it starts indexing
+class IntSetTest {
+
+    @Test
+    void smallSetKeepsInsertionOrder() {
+        IntSet set = new IntSet();
+        for (int value : new int[]{5, -3, 9, 1}) {
+            set.add(value);
+        }
+        set.remove(-3);
+        set.add(-3);
+        assertEquals(List.of(5, 9, 1, -3), new ArrayList<>(members(set)));
+    }
+
+    @Test
+    void randomOperationsMatchHashSet() {
+        for (int range : new int[]{8, 40, 4000}) {
+            for (long seed = 1; seed <= 50; seed++) {
+                IntSet set = new IntSet();
+                Set<Integer> model = new HashSet<>();
+                Random random = new Random(seed);
+                for (int op = 0; op < 2000; op++) {
+                    int value = random.nextInt(range) - range / 2;
+                    switch (random.nextInt(7)) {
+                        case 0:
+                        case 1:
+                        case 2:
+                            assertEquals(model.add(value), set.add(value));
+                            break;
+                        case 3:
+                        case 4:
+                            assertEquals(model.remove(value), set.remove(value));
+                            break;
+                        case 5:
+                            assertEquals(model.contains(value), set.contains(value));
+                            break;
+                        default:
+                            if (random.nextInt(50) == 0) {
+                                set.clear();
+                                model.clear();
+                            }
+                            break;
+                    }
+                    assertEquals(model.size(), set.size());
+                }
+                assertEquals(model, members(set));
+            }
+        }
+    }
+
+    @Test
+    void releasingEveryMemberFromTheFrontStaysLinear() {
+        IntSet set = new IntSet();
+        int n = 200_000;
+        for (int value = 0; value < n; value++) {
+            set.add(value);
+        }
+        for (int value = 0; value < n; value++) {
+            set.remove(value); // a scan and shift per removal would take minutes
+        }
+        assertEquals(0, set.size());
+    }
+
+    private static Set<Integer> members(IntSet set) {
+        Set<Integer> members = new LinkedHashSet<>();
+        for (int value : set.toArray()) {
+            members.add(value);
+        }
+        return members;
+    }
+}
@@ -0,0 +1,39 @@
+package com.os.rados;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// What the allocation queue counts as served
+class MemoryPressureTest {
+    private final Kernel kernel = new Kernel(100, 10);
+
+    @Test
+    void queuedAllocationServedOnceMemoryIsFreed() {
+        kernel.enablePressureControl(1, 2);
+        int a = kernel.createProcess("a"), b = kernel.createProcess("b");
+        kernel.allocate(a, 80, 1);
+        assertEquals(Kernel.AllocResult.QUEUED, kernel.allocate(b, 50, 2));
+
+        kernel.free(a);
+        assertEquals(b, kernel.holderOf(2));
+        assertTrue(kernel.pressureStats().contains("1 queued, 1 served, 0 cancelled"));
+    }
+
+    @Test
+    void retryThatEndsUpWaitingIsNotServed() {
+        kernel.enablePressureControl(1, 2);
+        int a = kernel.createProcess("a"), b = kernel.createProcess("b");
+        int c = kernel.createProcess("c");
+        kernel.allocate(a, 80, 1);
+        assertEquals(Kernel.AllocResult.QUEUED, kernel.allocate(b, 50, 2));
+        assertEquals(Kernel.AllocResult.ALLOCATED, kernel.allocate(c, 10, 2)); // fits, and takes 2 first
+
+        kernel.free(a);
+        assertEquals(c, kernel.holderOf(2));
+        assertEquals("BLOCKED", kernel.describeProcess(b)[2]); // now waiting for c
+        assertTrue(kernel.pressureStats().contains("1 queued, 0 served, 1 cancelled"));
+        assertTrue(kernel.pressureStats().contains("Queue wait ns: " + new Histogram().summary()));
+    }
+}
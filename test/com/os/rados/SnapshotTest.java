@@ -0,0 +1,82 @@
+package com.os.rados;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// A restored kernel carries on as the saved one would have
+class SnapshotTest {
+
+    @Test
+    void roundTripKeepsPolicyClaimsAndSettings() throws IOException {
+        Kernel kernel = new Kernel(1000, 10);
+        kernel.setScheduler(Scheduler.create("mlfq", 3, 4, 2));
+        kernel.enableAvoidance();
+        kernel.enablePressureControl(5, 10);
+        kernel.enableVirtualMemory(8, "clock", 4, 100);
+        int a = kernel.createProcess("a", 2, 10), b = kernel.createProcess("b", 1, 20);
+        for (int pid : new int[]{a, b}) {
+            kernel.declareClaim(pid, 10, 1);
+            kernel.declareClaim(pid, 20, 1);
+        }
+        kernel.allocate(a, 40, 10);
+        assertEquals(Kernel.AllocResult.UNSAFE, kernel.allocate(b, 40, 20));
+        int child = kernel.fork(a);
+        kernel.write(child, 10, 0);
+
+        Kernel restored = roundTrip(kernel);
+        Scheduler scheduler = restored.pm.getScheduler();
+        assertEquals("mlfq", scheduler.policy());
+        assertEquals(3L, scheduler.quantum());
+        assertEquals(4, scheduler.levels());
+        assertEquals(2, scheduler.cores());
+        assertEquals(kernel.listProcesses(), restored.listProcesses());
+        assertEquals(kernel.printMemory(), restored.printMemory());
+        assertEquals(kernel.sharingStats(), restored.sharingStats());
+        assertEquals(firstLine(kernel.pressureStats()), firstLine(restored.pressureStats()));
+        assertEquals(kernel.mm.pagesHeldBy(child), restored.mm.pagesHeldBy(child));
+
+        // b's deferred request goes through once a lets go, in both
+        for (Kernel k : new Kernel[]{kernel, restored}) {
+            assertEquals("BLOCKED", k.describeProcess(b)[2]);
+            k.release(a, 10);
+            assertEquals(b, k.holderOf(20));
+            assertEquals("READY", k.describeProcess(b)[2]);
+        }
+    }
+
+    @Test
+    void restoredBankerRefusesWhatTheSavedOneRefused() throws IOException {
+        Kernel kernel = new Kernel(1000, 10);
+        kernel.enableAvoidance();
+        int a = kernel.createProcess("a"), b = kernel.createProcess("b");
+        kernel.declareClaim(a, 10, 1);
+        kernel.declareClaim(a, 20, 1);
+        kernel.declareClaim(b, 20, 1);
+        kernel.declareClaim(b, 10, 1);
+        kernel.allocate(a, 10, 10);
+
+        Kernel restored = roundTrip(kernel);
+        assertEquals(Kernel.AllocResult.UNSAFE, restored.allocate(b, 10, 20));
+        assertEquals(Kernel.AllocResult.ALLOCATED, restored.allocate(a, 10, 20));
+    }
+
+    private static Kernel roundTrip(Kernel kernel) throws IOException {
+        Path file = Files.createTempFile("rados", ".snap");
+        try {
+            kernel.snapshot(file);
+            kernel.closeSnapshots();
+            return Kernel.restore(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static String firstLine(String text) {
+        return text.substring(0, text.indexOf('\n'));
+    }
+}
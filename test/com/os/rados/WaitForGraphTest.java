@@ -0,0 +1,187 @@
+package com.os.rados;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The incremental graph against reachability worked out from scratch
+class WaitForGraphTest {
+    private static final int PIDS = 8;
+    private static final int RESOURCES = 6;
+
+    private final WaitForGraph graph = new WaitForGraph();
+    private final Map<Integer, Integer> holders = new HashMap<>();
+    private final Map<Integer, Set<Integer>> waits = new HashMap<>(); // pid -> resources
+
+    @Test
+    void cycleIsOneDeadlockedSet() {
+        acquire(1, 10);
+        acquire(2, 20);
+        acquire(3, 30);
+        request(1, 20);
+        request(2, 30);
+        assertFalse(graph.hasCycles());
+        request(3, 10);
+        assertEquals(Set.of(Set.of(1, 2, 3)), deadlocks());
+        check();
+    }
+
+    @Test
+    void cancellingInsideACycleSplitsIt() {
+        acquire(1, 10);
+        acquire(2, 20);
+        acquire(3, 30);
+        request(1, 20);
+        request(2, 30);
+        request(3, 10);
+        request(2, 10); // a second cycle, 1 <-> 2, inside the first
+        cancel(3, 10);
+        assertEquals(Set.of(Set.of(1, 2)), deadlocks());
+        check();
+        cancel(2, 10);
+        assertFalse(graph.hasCycles());
+        assertTrue(graph.reaches(1, 3));
+        assertFalse(graph.reaches(3, 1));
+        check();
+    }
+
+    @Test
+    void handingOffInsideACycleSplitsIt() {
+        acquire(1, 10);
+        acquire(2, 20);
+        request(1, 20);
+        request(2, 10);
+        acquire(3, 10); // 10 goes to 3; 2 now waits for 3, who waits for nobody
+        assertFalse(graph.hasCycles());
+        check();
+    }
+
+    @Test
+    void randomOperationsMatchBruteForce() {
+        for (long seed = 1; seed <= 200; seed++) {
+            WaitForGraphTest run = new WaitForGraphTest();
+            Random random = new Random(seed);
+            for (int op = 0; op < 200; op++) {
+                run.randomStep(random);
+                run.check();
+            }
+        }
+    }
+
+    private void randomStep(Random random) {
+        int pid = 1 + random.nextInt(PIDS);
+        int resourceId = 1 + random.nextInt(RESOURCES);
+        switch (random.nextInt(4)) {
+            case 0:
+                acquire(pid, resourceId);
+                break;
+            case 1:
+                Integer holder = holders.get(resourceId);
+                if (holder != null) {
+                    release(holder, resourceId);
+                }
+                break;
+            case 2:
+                request(pid, resourceId);
+                break;
+            default:
+                cancel(pid, resourceId);
+                break;
+        }
+    }
+
+    private void acquire(int pid, int resourceId) {
+        graph.acquire(pid, resourceId);
+        holders.put(resourceId, pid);
+        waitsOf(pid).remove(resourceId);
+    }
+
+    private void release(int pid, int resourceId) {
+        graph.release(pid, resourceId);
+        holders.remove(resourceId, pid);
+    }
+
+    private void request(int pid, int resourceId) {
+        graph.request(pid, resourceId);
+        waitsOf(pid).add(resourceId);
+    }
+
+    private void cancel(int pid, int resourceId) {
+        graph.cancel(pid, resourceId);
+        waitsOf(pid).remove(resourceId);
+    }
+
+    private Set<Integer> waitsOf(int pid) {
+        return waits.computeIfAbsent(pid, k -> new HashSet<>());
+    }
+
+    // Every reaches answer and every deadlocked set, against the model
+    private void check() {
+        boolean[][] reach = closure();
+        Set<Set<Integer>> expected = new HashSet<>();
+        for (int p = 1; p <= PIDS; p++) {
+            Set<Integer> set = new HashSet<>();
+            for (int q = 1; q <= PIDS; q++) {
+                assertEquals(reach[p][q], graph.reaches(p, q));
+                if (p != q && reach[p][q] && reach[q][p]) {
+                    set.add(q);
+                }
+            }
+            if (!set.isEmpty()) {
+                set.add(p);
+                expected.add(set);
+            }
+        }
+        assertEquals(expected, deadlocks());
+        assertEquals(!expected.isEmpty() || selfWait(), graph.hasCycles());
+    }
+
+    // p reaches q when a chain of waits for held resources leads from p to q
+    private boolean[][] closure() {
+        boolean[][] reach = new boolean[PIDS + 1][PIDS + 1];
+        for (int p = 1; p <= PIDS; p++) {
+            ArrayDeque<Integer> queue = new ArrayDeque<>(List.of(p));
+            reach[p][p] = true;
+            while (!queue.isEmpty()) {
+                for (int resourceId : waitsOf(queue.poll())) {
+                    Integer q = holders.get(resourceId);
+                    if (q != null && !reach[p][q]) {
+                        reach[p][q] = true;
+                        queue.add(q);
+                    }
+                }
+            }
+        }
+        return reach;
+    }
+
+    // A process waiting for what it holds closes a cycle with no one else in it
+    private boolean selfWait() {
+        for (Map.Entry<Integer, Set<Integer>> entry : waits.entrySet()) {
+            for (int resourceId : entry.getValue()) {
+                if (entry.getKey().equals(holders.get(resourceId))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Set<Set<Integer>> deadlocks() {
+        Set<Set<Integer>> sets = new HashSet<>();
+        for (List<Integer> component : graph.findDeadlocks()) {
+            sets.add(new HashSet<>(component));
+        }
+        return sets;
+    }
+}